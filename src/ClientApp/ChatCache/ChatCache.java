@@ -0,0 +1,65 @@
+package ClientApp.ChatCache;
+
+import Common.ChatBox.ChatBox;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ChatCache keeps the chatboxes a user had open on disk between runs of the
+ * client, one file per server and user. After logging in again the client
+ * only has to ask the server for the messages sent after the ones it cached.
+ */
+public class ChatCache {
+
+    private static final String CACHE_DIRECTORY = "chatcache";
+
+    // Attributes
+    private final File file;
+
+    // Constructor
+    // INPUT: server (String) address and port of the server, userID (int)
+    public ChatCache(String server, int userID) {
+        this.file = new File(CACHE_DIRECTORY, server.replaceAll("[^A-Za-z0-9.-]", "_") + "-" + userID);
+    }
+
+    // Loads the cached chatboxes
+    // OUTPUT: Map of chatBoxID to ChatBox, empty if nothing was cached
+    @SuppressWarnings("unchecked")
+    public Map<Integer, ChatBox> load() {
+        Map<Integer, ChatBox> chatBoxes = new HashMap<>();
+        if (!file.exists()) {
+            return chatBoxes;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            for (ChatBox chatBox : (List<ChatBox>) in.readObject()) {
+                chatBoxes.put(chatBox.getChatBoxID(), chatBox);
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            System.err.println("Error loading chat cache: " + e.getMessage()); // start without a cache
+        }
+        return chatBoxes;
+    }
+
+    // Saves the given chatboxes, replacing the previous cache
+    // INPUT: chatBoxes (Collection<ChatBox>)
+    // OUTPUT: true if successful, false otherwise
+    public boolean save(Collection<ChatBox> chatBoxes) {
+        File directory = file.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            System.err.println("Failed to create chat cache directory.");
+            return false;
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeObject(new ArrayList<>(chatBoxes));
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving chat cache: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -6,22 +6,38 @@ import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 // Import existing classes from your Common package
+import ClientApp.ChatCache.ChatCache;
 import ClientApp.Gui.Gui;
 import ClientApp.Gui.ConnectionInfo;
 import Common.ChatBox.ChatBox;
+import Common.ChatBox.ChatBoxSummary;
 import Common.MessageInterface;
 import Common.MessageType;
 import Common.Admin.Admin;
 import Common.Messages.*;
 import Common.Message.Message;
+import Common.User.PresenceDelta;
 import Common.User.User;
 
 import javax.swing.*;
 
 public class Client {
+    private static final long RETRY_AFTER_MILLIS = 2000; // resend a message the server has not acknowledged by then
+    private static final int MAX_SEND_ATTEMPTS = 5;
+    private static final long RECONNECT_DELAY_MILLIS = 1000; // wait before the first reconnect, longer before each next one
+    private static final int MAX_RECONNECT_ATTEMPTS = 5;
+
+    // A message sent to the server and not acknowledged yet
+    private record PendingSend(SendMessage request, long sentAtMillis, int attempts) {
+    }
+
     private boolean loggedIn = false;
     private final BlockingQueue<MessageInterface> inboundRequestQueue;
     private final BlockingQueue<MessageInterface> outboundResponseQueue;
@@ -30,6 +46,14 @@ public class Client {
     private ObjectOutputStream outObj = null;
     private ObjectInputStream inObj = null;
     private Socket socket = null;
+    private final Object streamLock = new Object(); // guards writing and replacing the connection
+    private String serverIP;
+    private int serverPort;
+    private String serverAddress; // host:port, names the chat cache
+    private volatile String sessionToken; // resumes the session after a dropped connection, null when logged out
+    private ChatCache chatCache;
+    private Map<Integer, ChatBox> cachedChatBoxes = Map.of(); // what the last run saved, loaded once at login
+    private final Map<Long, PendingSend> pendingSends = new ConcurrentHashMap<>(); // by submission ID
 
     public Client() {
         gui = new Gui(this); // Initialize GUI directly
@@ -47,6 +71,12 @@ public class Client {
                     case MessageType.LOGIN_RESPONSE:
                         receiveLoginResponse((LoginResponse) response);
                         break;
+                    case MessageType.LOGIN_QUEUED:
+                        showLoginQueued((LoginQueued) response);
+                        break;
+                    case MessageType.SESSION_RESUMED:
+                        handleSessionResumed((SessionResumed) response);
+                        break;
                     case MessageType.NOTIFICATION:
                         handleNotification((Notification) response);
                         break;
@@ -60,7 +90,38 @@ public class Client {
                         handleSendMessage((SendMessage) response);
                         break;
                     case MessageType.RETURN_CHATBOX_LOG:
-                        handleReturnChatBoxLog((SendChatLog) response);
+                        gui.appendChatLog((ChatLogChunk) response);
+                        break;
+                    case MessageType.SEND_BROADCAST:
+                        handleBroadcast((SendBroadcast) response);
+                        break;
+                    case MessageType.NEW_MESSAGES:
+                        handleNewMessages((SendNewMessages) response);
+                        break;
+                    case MessageType.PRESENCE_UPDATE:
+                        List<PresenceDelta> deltas = ((SendPresence) response).deltas();
+                        SwingUtilities.invokeLater(() -> gui.applyPresence(deltas));
+                        break;
+                    case MessageType.UNREAD_UPDATE:
+                        gui.applyActivity((UnreadUpdate) response);
+                        break;
+                    case MessageType.UNREAD_COUNTS:
+                        ((SendUnreadCounts) response).updates().forEach(gui::applyActivity);
+                        break;
+                    case MessageType.MESSAGE_ACK:
+                        pendingSends.remove(((MessageAck) response).submissionID());
+                        break;
+                    case MessageType.THROTTLED:
+                        handleThrottled((Throttled) response);
+                        break;
+                    case MessageType.RETURN_CATCH_UP:
+                        handleCatchUp((SendCatchUp) response);
+                        break;
+                    case MessageType.RETURN_CHAT_HISTORY:
+                        handleReturnChatHistory((SendChatHistory) response);
+                        break;
+                    case MessageType.RETURN_INBOX:
+                        handleReturnInbox((SendInbox) response);
                         break;
                     case MessageType.RETURN_CHATBOX_LIST:
                         handleReturnChatBoxList((SendChatBoxList) response);
@@ -81,9 +142,25 @@ public class Client {
 
     // Add methods to handle the server responses
 
+    // Handle one more page of the user's chatboxes, asking for the next page while there is one
+    private void handleReturnInbox(SendInbox sendInbox) {
+        List<ChatBox> chatBoxes = sendInbox.chatBoxes().stream().map(ChatBox::new).toList();
+        restoreFromCache(chatBoxes);
+        for (ChatBox chatBox : chatBoxes) {
+            gui.addChatBox(chatBox);
+        }
+        if (sendInbox.hasMore() && !sendInbox.chatBoxes().isEmpty()) {
+            queueMessage(new AskInbox(sendInbox.chatBoxes().get(sendInbox.chatBoxes().size() - 1)));
+        }
+    }
+
+    // Handle one page of the admin chatbox list, asking for the next page while there is one
     private void handleReturnChatBoxList(SendChatBoxList sendChatBoxList) {
-        List<ChatBox> chatBoxes = sendChatBoxList.getChatBoxes();
-        gui.updateChatBoxList(chatBoxes);
+        List<ChatBoxSummary> chatBoxes = sendChatBoxList.getChatBoxes();
+        gui.updateChatBoxList(chatBoxes, sendChatBoxList.getAfterChatBoxID() == AskChatBoxList.FIRST_PAGE);
+        if (sendChatBoxList.hasMore() && !chatBoxes.isEmpty() && gui.wantsChatBoxList()) {
+            queueMessage(new AskChatBoxList(chatBoxes.get(chatBoxes.size() - 1).chatBoxID(), AskChatBoxList.PAGE_SIZE));
+        }
     }
 
     
@@ -91,34 +168,26 @@ public class Client {
     private void handleNotification(Notification notification) {
         String text = notification.text();
         JOptionPane.showMessageDialog(null, text, "Notification", JOptionPane.INFORMATION_MESSAGE);
-
-        if (text.contains("User banned successfully") || text.contains("User unbanned successfully")) {
-            // Request updated user list
-            queueMessage(new AskUserList());
-            // Also, request the current chatbox to update participants
-            if (gui.getChatBox() != null) {
-                queueMessage(new AskChatBox(gui.getChatBox().getChatBoxID()));
-            }
-        }
+        // Ban and unban show up in the lists through SendPresence, nothing to re-request
     }
 
     // Handle SendChatBox messages
     private void handleReturnChatBox(SendChatBox sendChatBox) {
         ChatBox chatBox = sendChatBox.chatBox();
+        gui.updateParticipants(sendChatBox.participants());
         gui.updateChatBox(chatBox);
         if (chatBox.isHidden()) {
             gui.clearMessages();
         } else if (gui.getChatBox() != null && gui.getChatBox().getChatBoxID() == chatBox.getChatBoxID()) {
             gui.clearMessages();
             gui.addAllMessages(chatBox);
+            gui.markShownAsRead();
         }
     }
 
     // Handle SendUserList messages
     private void handleReturnUserList(SendUserList sendUserList) {
-        List<User> userList = sendUserList.userList();
-        SwingUtilities.invokeLater(() -> gui.updateUserList(userList));
-        // Process user list as needed
+        SwingUtilities.invokeLater(() -> gui.updateUserList(sendUserList));
     }
 
     // Handle SendMessage messages
@@ -128,6 +197,7 @@ public class Client {
         if (gui.getChatBox().getChatBoxID() == chatBoxID) {
             gui.getChatBox().addMessage(message);
             gui.addMessage(message);
+            gui.markShownAsRead();
         } else {
             gui.getChatBox(chatBoxID).addMessage(message);
         }
@@ -135,21 +205,148 @@ public class Client {
         // gui.addMessageToChatBox(message, chatBoxID);
     }
 
-    // Handle SendChatLog messages
-    private void handleReturnChatBoxLog(SendChatLog sendChatLog) {
-        String chatBoxLog = sendChatLog.chatBoxLog();
-        gui.displayChatLog(chatBoxLog);
+    // Handle SendBroadcast messages (one message added to several of our chatboxes)
+    private void handleBroadcast(SendBroadcast broadcast) {
+        int[] chatBoxIDs = broadcast.chatBoxIDs();
+        for (int i = 0; i < chatBoxIDs.length; i++) {
+            Message message = broadcast.message().withSequence(broadcast.sequences()[i]);
+            ChatBox current = gui.getChatBox();
+            if (current != null && current.getChatBoxID() == chatBoxIDs[i]) {
+                current.addMessage(message);
+                gui.addMessage(message);
+            } else if (gui.getChatBox(chatBoxIDs[i]) != null) {
+                gui.getChatBox(chatBoxIDs[i]).addMessage(message);
+            }
+            gui.noteActivity(chatBoxIDs[i], message.getSequence(), message.getTimestampMillis());
+        }
+    }
+
+    // Handle SendNewMessages messages (appended to a chatbox, e.g. system notifications)
+    private void handleNewMessages(SendNewMessages update) {
+        ChatBox current = gui.getChatBox();
+        boolean shown = current != null && current.getChatBoxID() == update.chatBoxID();
+        ChatBox chatBox = shown ? current : gui.getChatBox(update.chatBoxID());
+        if (chatBox == null) {
+            return;
+        }
+        for (Message message : update.messages()) {
+            if (chatBox.addMessage(message) > 0 && shown) { // skip messages the client already has
+                gui.addMessage(message);
+            }
+        }
+        if (shown) {
+            gui.markShownAsRead();
+        }
+    }
+
+    // Handle Throttled messages (the server dropped a request sent too often)
+    private void handleThrottled(Throttled throttled) {
+        System.err.println("Request " + throttled.requestType() + " throttled by the server, retry in "
+                + throttled.retryAfterMillis() + " ms.");
+    }
+
+    // Handle SendCatchUp messages (everything missed since the cached or shown messages, in one batch);
+    // a chatbox whose cached messages were hidden or unhidden meanwhile is loaded again
+    private void handleCatchUp(SendCatchUp catchUp) {
+        gui.updateParticipants(catchUp.participants());
+        SwingUtilities.invokeLater(() -> { // after the chatbox list from the login response is in place
+            ChatBox current = gui.getChatBox();
+            for (Map.Entry<Integer, List<Message>> entry : catchUp.missed().entrySet()) {
+                boolean shown = current != null && current.getChatBoxID() == entry.getKey();
+                ChatBox chatBox = shown ? current : gui.getChatBox(entry.getKey());
+                if (chatBox == null) {
+                    continue;
+                }
+                SendCatchUp.Hidden hidden = catchUp.hidden().get(entry.getKey());
+                if (hidden != null && !hidden.matches(chatBox.getMessages())) {
+                    queueMessage(new AskChatBox(chatBox.getChatBoxID())); // the reply replaces the stale window
+                }
+                for (Message message : entry.getValue()) {
+                    chatBox.addMessage(message); // known sequences are ignored, a gap restarts the window
+                }
+                if (shown && !chatBox.isHidden()) {
+                    gui.clearMessages();
+                    gui.addAllMessages(chatBox);
+                    gui.markShownAsRead();
+                }
+            }
+        });
+    }
+
+    // Handle LoginQueued messages: the server is busy with other logins, ours runs when its turn comes
+    private void showLoginQueued(LoginQueued loginQueued) {
+        System.out.println("Login queued at position " + loginQueued.position()
+                + (loginQueued.estimatedWaitMillis() > 0 ? ", about " + loginQueued.estimatedWaitMillis() / 1000.0 + " s" : "") + ".");
+    }
+
+    // Handle SessionResumed messages: the connection is back without logging in again, the catch-up
+    // that follows fills in the missed messages; if the session could not be resumed, log in again
+    private void handleSessionResumed(SessionResumed sessionResumed) {
+        if (sessionResumed.user() == null) {
+            sessionToken = null;
+            JOptionPane.showMessageDialog(null, "Your session has ended, please log in again.", "Reconnected",
+                                          JOptionPane.INFORMATION_MESSAGE);
+            queueMessage(gui.login());
+            return;
+        }
+        userData = sessionResumed.user();
+        sessionToken = sessionResumed.sessionToken();
+        for (ChatBoxSummary summary : sessionResumed.newChatBoxes()) {
+            gui.addChatBox(new ChatBox(summary)); // created while the client was away
+        }
+        System.out.println("Session resumed.");
+    }
+
+    // Handle SendChatHistory messages (older messages paged in from the server)
+    private void handleReturnChatHistory(SendChatHistory sendChatHistory) {
+        gui.addOlderMessages(sendChatHistory.chatBoxID(), sendChatHistory.messages());
     }
 
 
     private void receiveLoginResponse(LoginResponse loginResponse) {
         userData = loginResponse.user();
+        sessionToken = loginResponse.sessionToken();
 
         // Add this print statement to confirm user type
         System.out.println("Logged in user is admin: " + (userData instanceof Admin));
 
         if (loginResponse.chatBoxList() != null && !loginResponse.chatBoxList().isEmpty()) {
-            SwingUtilities.invokeLater(() -> gui.addAllChatBoxes(loginResponse.chatBoxList()));
+            List<ChatBox> chatBoxes = loginResponse.chatBoxList().stream().map(ChatBox::new).toList();
+            restoreFromCache(chatBoxes);
+            SwingUtilities.invokeLater(() -> gui.addAllChatBoxes(chatBoxes));
+            if (loginResponse.moreChatBoxes()) { // the rest of the list, newest activity first
+                queueMessage(new AskInbox(loginResponse.chatBoxList().get(loginResponse.chatBoxList().size() - 1)));
+            }
+        }
+    }
+
+    // Fills the chatboxes of a login response or inbox page with the messages cached by the last run
+    // and asks the server only for what was sent after them
+    private void restoreFromCache(List<ChatBox> chatBoxes) {
+        if (userData == null) {
+            return;
+        }
+        if (chatCache == null) {
+            chatCache = new ChatCache(serverAddress, userData.getUserID());
+            cachedChatBoxes = chatCache.load();
+        }
+        Map<Integer, Long> lastSequences = new HashMap<>();
+        for (ChatBox chatBox : chatBoxes) {
+            ChatBox previous = cachedChatBoxes.get(chatBox.getChatBoxID());
+            if (previous != null) {
+                for (Message message : previous.getMessages()) {
+                    chatBox.addMessage(message);
+                }
+            }
+            lastSequences.put(chatBox.getChatBoxID(), chatBox.getLastSequence());
+        }
+        queueMessage(new AskCatchUp(lastSequences));
+    }
+
+    // Saves the chatboxes for the next run
+    private void saveCache() {
+        if (chatCache != null) {
+            chatCache.save(gui.getChatBoxes());
         }
     }
 
@@ -158,6 +355,31 @@ public class Client {
         outboundResponseQueue.add(message);
     }
 
+    // Sends a chat message and keeps resending it until the server acknowledges it;
+    // the server recognises the resends by their submission ID and stores the message once
+    public void sendChatMessage(SendMessage request) {
+        pendingSends.put(request.submissionID(), new PendingSend(request, System.currentTimeMillis(), 1));
+        queueMessage(request);
+    }
+
+    // Resends the messages that were not acknowledged in time
+    private void retryPendingSends() {
+        long now = System.currentTimeMillis();
+        for (PendingSend pending : pendingSends.values()) {
+            if (now - pending.sentAtMillis() < RETRY_AFTER_MILLIS) {
+                continue;
+            }
+            if (pending.attempts() >= MAX_SEND_ATTEMPTS) {
+                pendingSends.remove(pending.request().submissionID());
+                System.err.println("Message could not be delivered: " + pending.request().message());
+            } else {
+                pendingSends.put(pending.request().submissionID(),
+                        new PendingSend(pending.request(), now, pending.attempts() + 1));
+                queueMessage(pending.request());
+            }
+        }
+    }
+
 
     public User getUserData() {
         return userData;
@@ -170,8 +392,10 @@ public class Client {
             MessageInterface message;
             try {
                 message = outboundResponseQueue.take();
-                outObj.reset();
-                outObj.writeObject(message);
+                synchronized (streamLock) {
+                    outObj.reset();
+                    outObj.writeObject(message);
+                }
 
             } catch (IOException | InterruptedException e) {
 //                throw new RuntimeException(e);
@@ -183,13 +407,62 @@ public class Client {
     public void messageReceiver() {
         while (!Thread.interrupted()) {
             try {
-                inboundRequestQueue.add((MessageInterface) inObj.readObject());
-            } catch (IOException | ClassNotFoundException e) {
-//                throw new RuntimeException(e);
+                MessageInterface message = (MessageInterface) inObj.readObject();
+                if (message.getType() == MessageType.LOGOUT_RESPONSE) {
+                    sessionToken = null; // the server closes the connection next, do not resume
+                }
+                inboundRequestQueue.add(message);
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted() || !reconnect()) {
+                    return;
+                }
+            } catch (ClassNotFoundException e) {
+                System.err.println("Unknown message from server: " + e.getMessage());
             }
         }
     }
 
+    // Opens a new connection after the old one dropped and resumes the session on it with the
+    // session token and the last sequence number of each chatbox, instead of logging in again
+    // OUTPUT: true if a new connection is open, false if there is no session to resume or the server stays away
+    private boolean reconnect() {
+        for (int attempt = 1; attempt <= MAX_RECONNECT_ATTEMPTS; attempt++) {
+            String token = sessionToken;
+            if (token == null) {
+                return false;
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS * attempt);
+                Socket newSocket = new Socket(serverIP, serverPort);
+                ObjectOutputStream newOut = new ObjectOutputStream(newSocket.getOutputStream());
+                ObjectInputStream newIn = new ObjectInputStream(newSocket.getInputStream());
+                Map<Integer, Long> lastSequences = new HashMap<>();
+                for (ChatBox chatBox : gui.getChatBoxes()) {
+                    lastSequences.put(chatBox.getChatBoxID(), chatBox.getLastSequence());
+                }
+                synchronized (streamLock) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                        // already broken
+                    }
+                    socket = newSocket;
+                    outObj = newOut;
+                    inObj = newIn;
+                    outObj.writeObject(new ResumeSession(token, lastSequences)); // ahead of anything queued meanwhile
+                }
+                System.out.println("Reconnected to the server.");
+                return true;
+            } catch (IOException e) {
+                System.err.println("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
     public static void main(String[] args) {
         Client client = new Client();
         Thread senderThread = null;
@@ -202,6 +475,9 @@ public class Client {
             int port = connectionInfo.getPort();
 
             // Connect to the server
+            client.serverIP = serverIP;
+            client.serverPort = port;
+            client.serverAddress = serverIP + ":" + port;
             client.socket = new Socket(serverIP, port);
             System.out.println("Connected to the server.");
 
@@ -213,10 +489,21 @@ public class Client {
             receiverThread = new Thread(null, client::messageReceiver, "ReceiverThread");
             senderThread.start();
             receiverThread.start();
+            ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "RetryThread");
+                thread.setDaemon(true);
+                return thread;
+            });
+            retries.scheduleWithFixedDelay(client::retryPendingSends, RETRY_AFTER_MILLIS, RETRY_AFTER_MILLIS / 2,
+                    TimeUnit.MILLISECONDS);
 
             while (!client.loggedIn) {
                 client.queueMessage(client.gui.login());
                 MessageInterface response = client.inboundRequestQueue.take();
+                while (response.getType() == MessageType.LOGIN_QUEUED) {
+                    client.showLoginQueued((LoginQueued) response); // the answer comes when it is our turn
+                    response = client.inboundRequestQueue.take();
+                }
                 if (response.getType() == MessageType.LOGIN_RESPONSE) {
                     client.receiveLoginResponse((LoginResponse) response);
 
@@ -232,15 +519,11 @@ public class Client {
                     JOptionPane.showMessageDialog(null, ((Notification)response).text(), "Notification", JOptionPane.INFORMATION_MESSAGE);
                 }
             }
-            Thread.sleep(500);
-            client.queueMessage(new AskChatBox(client.gui.getChatBox().getChatBoxID()));
-            SendChatBox response = (SendChatBox) client.inboundRequestQueue.take();
-            client.handleReturnChatBox(response);
-
-
+            // The chatboxes are filled by the catch-up requested with the login response
             client.gui.showMain();
             // Handle server responses
             client.handleServerResponses();
+            client.saveCache();
             System.exit(0);
 
         } catch (IOException | InterruptedException e) {
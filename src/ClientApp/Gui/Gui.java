@@ -10,9 +10,12 @@ import javax.swing.event.ListSelectionListener;
 import ClientApp.Client.Client;
 import Common.Admin.Admin;
 import Common.ChatBox.ChatBox;
+import Common.ChatBox.ChatBoxSummary;
 import Common.Message.Message;
 import Common.Messages.*;
 import Common.User.User;
+import Common.User.PresenceDelta;
+import Common.User.UserView;
 
 import java.awt.*;
 import java.awt.event.ActionEvent;
@@ -20,6 +23,7 @@ import java.awt.event.ActionListener;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 
 public class Gui {
@@ -31,8 +35,16 @@ public class Gui {
     private final TreeListModel<ChatBox> treeListModel;
     private final CreateChatBoxDialog chatBoxDialog;
     private final AdminOptionsWindow adminOptionsWindow;
-    private final DefaultListModel<User> userModel;
-    private final List<ChatBox> allChatBox = new ArrayList<>();
+    private final DefaultListModel<UserView> userModel; // the user directory page(s) shown in the dialogs
+    private final List<JButton> moreUsersButtons = new ArrayList<>();
+    private volatile String userPrefix = ""; // search prefix of the pages in userModel
+    private volatile String nextUserCursor; // cursor of the next directory page, null if there is none
+    private final Map<Integer, UserView> userViews = new ConcurrentHashMap<>(); // participants seen so far, by ID
+    private volatile long oldestShownSequence; // sequence of the oldest message shown for the current chatbox
+    private final Map<Integer, UnreadUpdate> activity = new ConcurrentHashMap<>(); // newest activity per chatbox, from the server
+    private final Map<Integer, Long> markedRead = new ConcurrentHashMap<>(); // last MarkRead sent per chatbox
+
+    private static final int HISTORY_PAGE_SIZE = 50;
     // Define color scheme
     private static final Color BACKGROUND_COLOR = new Color(230, 230, 250); // Lavender
     private static final Color PANEL_COLOR = new Color(230, 230, 250); // Lavender
@@ -59,7 +71,7 @@ public class Gui {
         frame.getContentPane().setBackground(BACKGROUND_COLOR);
 
         treeListModel = new TreeListModel<>(
-                Comparator.comparing(ChatBox::lastUpdated).thenComparing(ChatBox::getChatBoxID));
+                Comparator.comparing(this::lastActivity).thenComparing(ChatBox::getChatBoxID));
         userModel = new DefaultListModel<>();
 
         loginWindow = new LoginWindow();
@@ -70,6 +82,64 @@ public class Gui {
         adminOptionsWindow = new AdminOptionsWindow(frame);
     }
 
+    // The time of a chatbox's newest message, known from its messages or from the server's activity updates
+    private LocalDateTime lastActivity(ChatBox chatBox) {
+        LocalDateTime lastUpdated = chatBox.lastUpdated();
+        UnreadUpdate update = activity.get(chatBox.getChatBoxID());
+        if (update != null && update.lastTimestamp() >= 0) {
+            LocalDateTime reported = LocalDateTime.ofInstant(Instant.ofEpochMilli(update.lastTimestamp()), ZoneId.systemDefault());
+            return reported.isAfter(lastUpdated) ? reported : lastUpdated;
+        }
+        return lastUpdated;
+    }
+
+    // Records new activity of a chatbox and moves it to its place in the list
+    public void applyActivity(UnreadUpdate update) {
+        SwingUtilities.invokeLater(() -> {
+            ChatBox chatBox = getChatBox(update.chatBoxID());
+            if (chatBox != null) {
+                treeListModel.remove(chatBox); // remove before its sort key changes
+            }
+            activity.merge(update.chatBoxID(), update, (previous, next) -> new UnreadUpdate(next.chatBoxID(),
+                    Math.max(previous.lastSequence(), next.lastSequence()),
+                    Math.max(previous.lastReadSequence(), next.lastReadSequence()),
+                    Math.max(previous.lastTimestamp(), next.lastTimestamp())));
+            if (chatBox != null) {
+                treeListModel.add(chatBox);
+            }
+        });
+    }
+
+    // Records that a message arrived in a chatbox (when the server sent the message itself instead of an update)
+    public void noteActivity(int chatBoxID, long sequence, long timestamp) {
+        UnreadUpdate known = activity.get(chatBoxID);
+        applyActivity(new UnreadUpdate(chatBoxID, sequence, known != null ? known.lastReadSequence() : 0, timestamp));
+    }
+
+    // Tells the server the shown chatbox has been read up to its newest message
+    public void markShownAsRead() {
+        ChatBox chatBox = getChatBox();
+        if (chatBox == null) {
+            return;
+        }
+        long last = chatBox.getLastSequence();
+        Long previous = markedRead.get(chatBox.getChatBoxID());
+        if (last > 0 && (previous == null || last > previous)) {
+            markedRead.put(chatBox.getChatBoxID(), last);
+            client.queueMessage(new MarkRead(chatBox.getChatBoxID(), last));
+        }
+    }
+
+    // Unread messages of a chatbox as last reported, 0 if unknown
+    public long unreadOf(ChatBox chatBox) {
+        UnreadUpdate update = activity.get(chatBox.getChatBoxID());
+        Long read = markedRead.get(chatBox.getChatBoxID());
+        if (update == null) {
+            return 0;
+        }
+        return Math.max(0, update.lastSequence() - Math.max(update.lastReadSequence(), read != null ? read : 0));
+    }
+
     public void updateChatBox(ChatBox chatBox) {
         SwingUtilities.invokeLater(() -> {
             treeListModel.remove(chatBox);
@@ -95,15 +165,20 @@ public class Gui {
         mainWindow.chatLabel.setText(chatBox.getName() + "  (ID: " + chatBox.getChatBoxID() + ")");
     }
 
-    public void displayChatLog(String chatLog) {
+    public void appendChatLog(ChatLogChunk chunk) {
         if (adminOptionsWindow != null && adminOptionsWindow.getChatLogDialog() != null) {
-            adminOptionsWindow.getChatLogDialog().displayChatLog(chatLog);
+            adminOptionsWindow.getChatLogDialog().appendChunk(chunk);
         }
     }
 
-    public void updateChatBoxList(List<ChatBox> chatBoxes) {
-            allChatBox.clear();
-            allChatBox.addAll(chatBoxes);
+    // Adds a page of the admin chatbox list to the chatbox dialog that is open, if any
+    public void updateChatBoxList(List<ChatBoxSummary> chatBoxes, boolean firstPage) {
+        adminOptionsWindow.addChatBoxPage(chatBoxes, firstPage);
+    }
+
+    // True while a dialog is showing the admin chatbox list, so its next page is worth asking for
+    public boolean wantsChatBoxList() {
+        return adminOptionsWindow.wantsChatBoxPages();
     }
 
     // Method to get connection info from the user
@@ -126,15 +201,92 @@ public class Gui {
     }
 
     public void showCreateChat() {
-        client.queueMessage(new AskUserList());
+        refreshUsers();
         SwingUtilities.invokeLater(() -> {
             chatBoxDialog.setVisible(true);
         });
     }
 
-    public void updateUserList(Collection<User> users) {
-        userModel.clear();
-        userModel.addAll(users);
+    // Asks for the first page of users whose name starts with prefix
+    public void requestUsers(String prefix) {
+        userPrefix = prefix;
+        nextUserCursor = null;
+        client.queueMessage(new AskUserList(prefix, null, AskUserList.PAGE_SIZE));
+    }
+
+    // Asks again for the first page of the current search
+    public void refreshUsers() {
+        requestUsers(userPrefix);
+    }
+
+    // Asks for the page after the ones shown
+    private void requestMoreUsers() {
+        String next = nextUserCursor;
+        if (next != null) {
+            client.queueMessage(new AskUserList(userPrefix, next, AskUserList.PAGE_SIZE));
+        }
+    }
+
+    // Shows a page of the user directory (call on the event thread)
+    public void updateUserList(SendUserList page) {
+        if (!Objects.equals(page.prefix(), userPrefix)) {
+            return; // answer to a search that has been replaced
+        }
+        if (page.after() == null) {
+            userModel.clear();
+        }
+        userModel.addAll(page.userList());
+        nextUserCursor = page.next();
+        for (JButton more : moreUsersButtons) {
+            more.setEnabled(page.next() != null);
+        }
+    }
+
+    // Applies presence changes to the users shown in the lists (call on the event thread)
+    public void applyPresence(List<PresenceDelta> deltas) {
+        for (PresenceDelta delta : deltas) {
+            userViews.computeIfPresent(delta.userID(), (id, view) -> delta.applyTo(view));
+            for (int i = 0; i < userModel.size(); i++) {
+                if (userModel.get(i).userID() == delta.userID()) {
+                    userModel.set(i, delta.applyTo(userModel.get(i)));
+                }
+            }
+        }
+    }
+
+    // Wraps a user list in a panel with a search field and a button for the next page
+    private JPanel userSearchPanel(JScrollPane userList) {
+        JTextField search = new JTextField();
+        search.setFont(new Font("Arial", Font.PLAIN, 14));
+        search.setToolTipText("Search users by name");
+        search.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            public void insertUpdate(javax.swing.event.DocumentEvent e) { requestUsers(search.getText().trim()); }
+            public void removeUpdate(javax.swing.event.DocumentEvent e) { requestUsers(search.getText().trim()); }
+            public void changedUpdate(javax.swing.event.DocumentEvent e) { }
+        });
+
+        JButton more = new JButton("More users");
+        more.setBackground(BUTTON_COLOR);
+        more.setFont(new Font("Arial", Font.PLAIN, 14));
+        more.setEnabled(false);
+        more.addActionListener(e -> requestMoreUsers());
+        moreUsersButtons.add(more);
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBackground(BACKGROUND_COLOR);
+        panel.add(search, BorderLayout.NORTH);
+        panel.add(userList, BorderLayout.CENTER);
+        panel.add(more, BorderLayout.SOUTH);
+        return panel;
+    }
+
+    // Remembers the participants sent with a chatbox so message senders can be displayed
+    public void updateParticipants(Collection<UserView> participants) {
+        if (participants != null) {
+            for (UserView participant : participants) {
+                userViews.put(participant.userID(), participant);
+            }
+        }
     }
 
     public void addChatBox(ChatBox chatBox) {
@@ -186,28 +338,63 @@ public class Gui {
         if (mainWindow.chatBox == null) {
             return;
         }
-        User user = idToUser(message.getSenderID(), mainWindow.chatBox);
+        final String html = renderMessage(message);
+        SwingUtilities.invokeLater(() -> mainWindow.chatModel.addElement(html));
+    }
+
+    // Inserts a page of older messages above the ones already shown
+    // INPUT: chatBoxID (int), messages (List<Message>) in sequence order
+    public void addOlderMessages(int chatBoxID, List<Message> messages) {
+        if (mainWindow.chatBox == null || mainWindow.chatBox.getChatBoxID() != chatBoxID || messages.isEmpty()) {
+            return;
+        }
+        oldestShownSequence = messages.get(0).getSequence();
+        List<String> rendered = messages.stream().map(this::renderMessage).toList();
+        SwingUtilities.invokeLater(() -> {
+            for (int i = 0; i < rendered.size(); i++) {
+                mainWindow.chatModel.add(i, rendered.get(i));
+            }
+        });
+    }
+
+    // Asks the server for the page of messages before the oldest one shown
+    public void requestOlderMessages() {
+        ChatBox chatBox = mainWindow.chatBox;
+        if (chatBox == null || oldestShownSequence <= 1) {
+            return;
+        }
+        client.queueMessage(new AskChatHistory(chatBox.getChatBoxID(), oldestShownSequence, HISTORY_PAGE_SIZE));
+    }
+
+    private String renderMessage(Message message) {
+        UserView user = idToUser(message.getSenderID());
         String resolvedUsername;
         if (user == null) {
             resolvedUsername = String.valueOf(message.getSenderID());
         } else {
-            resolvedUsername = user.getUsername();
-            if (user.isBanned()) {
+            resolvedUsername = user.username();
+            if (user.banned()) {
                 resolvedUsername += " (banned)";
             }
         }
-        final String displayUsername = resolvedUsername;
-        SwingUtilities.invokeLater(() -> {
-            mainWindow.chatModel
-                    .addElement("<html><b> &thinsp " + displayUsername
-                            + "</b><font size=\"3\" color=\"gray\">&thinsp "
-                            + timeFormat(message.getTimestamp())
-                            + "</font>"
-                            + "<p style=\"width: 500px; margin-left:10px;\">"
-                            + message.toString().replace("\n", "<br>")
-                            + "</p><br></html>"
-                    );
-        });
+        return "<html><b> &thinsp " + resolvedUsername
+                + "</b><font size=\"3\" color=\"gray\">&thinsp "
+                + timeFormat(message.getTimestamp())
+                + "</font>"
+                + "<p style=\"width: 500px; margin-left:10px;\">"
+                + renderContent(message)
+                + "</p><br></html>";
+    }
+
+    // The text of a message; the server sends hidden messages without text unless the user is an admin
+    private static String renderContent(Message message) {
+        if (!message.isHidden()) {
+            return message.toString().replace("\n", "<br>");
+        }
+        if (message.getContentBytes().length == 0) {
+            return "<i><font color=\"gray\">Message hidden by a moderator</font></i>";
+        }
+        return message.toString().replace("\n", "<br>") + " <font size=\"3\" color=\"gray\">(hidden)</font>";
     }
 
     public String timeFormat(LocalDateTime time) {
@@ -250,18 +437,17 @@ public class Gui {
         return mainWindow.chatBox;
     }
 
+    public List<ChatBox> getChatBoxes() {
+        return new ArrayList<>(treeListModel.treeSet);
+    }
+
     public ChatBox getChatBox(int chatBoxID) {
         return treeListModel.treeSet.stream().filter(chatBox -> chatBox.getChatBoxID() == chatBoxID).findFirst()
                 .orElse(null);
     }
 
-    public User idToUser(int userId, ChatBox chatBox) {
-        for (var i : chatBox.getParticipantsList()) {
-            if (i.getUserID() == userId) {
-                return i;
-            }
-        }
-        return null;
+    public UserView idToUser(int userId) {
+        return userViews.get(userId);
     }
 
     public void show() {
@@ -269,6 +455,7 @@ public class Gui {
     }
 
     public void addAllMessages(ChatBox chatBox) {
+        oldestShownSequence = chatBox.getFirstSequenceInWindow();
         for (var i : chatBox.getMessages()) {
             addMessage(i);
         }
@@ -276,7 +463,7 @@ public class Gui {
 
     // Show Admin Options window
     public void showAdminOptions() {
-        client.queueMessage(new AskUserList());
+        refreshUsers();
         SwingUtilities.invokeLater(() -> {
             adminOptionsWindow.setVisible(true);
         });
@@ -468,6 +655,12 @@ public class Gui {
             createChatMenuItem.addActionListener(e -> showCreateChat());
             menuItems.add(createChatMenuItem);
 
+            // Create "Load Older Messages" menu item
+            JMenuItem olderMessagesMenuItem = new JMenuItem("Load Older Messages");
+            olderMessagesMenuItem.setFont(new Font("Arial", Font.PLAIN, 14));
+            olderMessagesMenuItem.addActionListener(e -> requestOlderMessages());
+            menuItems.add(olderMessagesMenuItem);
+
             // Create "Admin Options" menu item
             JMenuItem adminOptionsMenuItem = new JMenuItem("Admin Options");
             adminOptionsMenuItem.setFont(new Font("Arial", Font.PLAIN, 14));
@@ -517,7 +710,13 @@ public class Gui {
             if (this.chatBox != chatBox) {
                 setChatBox(chatBox);
                 clearMessages();
-                client.queueMessage(new AskChatBox(chatBox.getChatBoxID()));
+                if (chatBox.getLastSequence() > 0) {
+                    addAllMessages(chatBox); // show what is already here and only ask for newer messages
+                    markShownAsRead();
+                    client.queueMessage(new AskCatchUp(Map.of(chatBox.getChatBoxID(), chatBox.getLastSequence())));
+                } else {
+                    client.queueMessage(new AskChatBox(chatBox.getChatBoxID()));
+                }
             }
 
             // Disable message input for system chatbox if user is not an admin
@@ -546,7 +745,7 @@ public class Gui {
 
             String message = messageField.getText().strip().trim().replaceAll("(?m)^\\s+$", "");
             if (!message.isEmpty()) {
-                client.queueMessage(new SendMessage(new Message(client.getUserData().getUserID(), message),
+                client.sendChatMessage(new SendMessage(new Message(client.getUserData().getUserID(), message),
                         chatBox.getChatBoxID()));
                 messageField.setText(""); // Clear the input field
             }
@@ -565,7 +764,15 @@ public class Gui {
             JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
 
             if (value instanceof ChatBox chatBox) {
-                label.setText(chatBox.getName());
+                long unread = chatBox == getChatBox() ? 0 : unreadOf(chatBox);
+                label.setText(unread > 0 ? chatBox.getName() + "  (" + unread + ")" : chatBox.getName());
+                label.setFont(new Font("Arial", Font.PLAIN, 14));
+                label.setOpaque(true);
+                label.setBackground(isSelected ? BUTTON_COLOR : PANEL_COLOR);
+                label.setForeground(TEXT_COLOR);
+            } else if (value instanceof ChatBoxSummary summary) {
+                label.setText(summary.name() + "  (ID: " + summary.chatBoxID() + ", " + summary.participantCount()
+                        + " users, " + summary.lastSequence() + " messages" + (summary.hidden() ? ", hidden)" : ")"));
                 label.setFont(new Font("Arial", Font.PLAIN, 14));
                 label.setOpaque(true);
                 label.setBackground(isSelected ? BUTTON_COLOR : PANEL_COLOR);
@@ -746,10 +953,10 @@ public class Gui {
         private JButton createButton;
         private JButton addParticipant;
         private JButton removeParticipant;
-        private JList<User> users;
-        private JList<User> participants;
+        private JList<UserView> users;
+        private JList<UserView> participants;
         private JLabel prompt;
-        private DefaultListModel<User> participantModel;
+        private DefaultListModel<UserView> participantModel;
         private int[] userListIndex;
         private int[] participantListIndex;
         private String chatboxName;
@@ -837,7 +1044,7 @@ public class Gui {
 
             JPanel listsPanel = new JPanel(new GridLayout(1, 2, 10, 0));
             listsPanel.setBackground(BACKGROUND_COLOR);
-            listsPanel.add(userScrPane);
+            listsPanel.add(userSearchPanel(userScrPane));
             listsPanel.add(participantScrPane);
 
             pane.add(prompt, BorderLayout.NORTH); // add prompt
@@ -924,14 +1131,14 @@ public class Gui {
         // Handles when user is clicking on the AddParticipants button
         public class AddButtonListener implements ActionListener {
             public void actionPerformed(ActionEvent e) {
-                ArrayList<User> temporary = new ArrayList<>();
+                ArrayList<UserView> temporary = new ArrayList<>();
 
                 // Grab the users from the UI list of users
                 for (int listIndex : userListIndex) {
-                    User selectedUser = userModel.get(listIndex);
-                    if (selectedUser.isBanned()) {
+                    UserView selectedUser = userModel.get(listIndex);
+                    if (selectedUser.banned()) {
                         JOptionPane.showMessageDialog(CreateChatBoxDialog.this,
-                                "Cannot add banned user: " + selectedUser.getUsername(), "Error",
+                                "Cannot add banned user: " + selectedUser.username(), "Error",
                                 JOptionPane.ERROR_MESSAGE);
                         continue; // Skip adding this user
                     }
@@ -939,7 +1146,7 @@ public class Gui {
                 }
 
                 // Add the list to the participants UI list
-                for (User user : temporary) {
+                for (UserView user : temporary) {
                     if (!participantModel.contains(user)) {
                         participantModel.addElement(user);
                     }
@@ -982,7 +1189,7 @@ public class Gui {
 
                 // grab the info for participants list and chatbox name
 
-                ArrayList<User> participantList = new ArrayList<>();
+                ArrayList<UserView> participantList = new ArrayList<>();
 
                 for (int i = 0; i < participantModel.getSize(); i++) {
                     participantList.add(participantModel.get(i));
@@ -1015,12 +1222,13 @@ public class Gui {
         private JButton createUserButton;
         private JButton hideChatBoxButton; // Add Hide ChatBox button
         private JButton manageChatBoxButton; // Add Unhide ChatBox button
-        private JList<User> users;
+        private JList<UserView> users;
         private JLabel prompt;
         private int[] userListIndex;
         private JScrollPane userScrPane;
         private ChatLogDialog chatLogDialog;
         private ChatBoxListDialog chatBoxListDialog;
+        private volatile DefaultListModel<ChatBoxSummary> chatBoxPages; // list of the open chatbox dialog, changed on the EDT
 
         public AdminOptionsWindow(JFrame inFrame) {
             super(inFrame, "Admin Options", true);
@@ -1036,38 +1244,71 @@ public class Gui {
             this.setLocationRelativeTo(null);
         }
 
-        public void showChatLogDialog(List<ChatBox> chatBoxes) {
-            chatLogDialog = new ChatLogDialog(this, chatBoxes, client);
-            chatLogDialog.setVisible(true);
+        public void showChatLogDialog() {
+            chatLogDialog = new ChatLogDialog(this, client);
+            showWithChatBoxList(chatLogDialog, chatLogDialog.chatBoxListModel);
         }
 
         public ChatLogDialog getChatLogDialog() {
             return chatLogDialog;
         }
 
-        public void showChatBoxListDialog(List<ChatBox> chatBoxes) {
-            chatBoxListDialog = new ChatBoxListDialog(this, chatBoxes, client);
-            chatBoxListDialog.setVisible(true);
+        public void showChatBoxListDialog() {
+            chatBoxListDialog = new ChatBoxListDialog(this, client);
+            showWithChatBoxList(chatBoxListDialog, chatBoxListDialog.chatBoxListModel);
+        }
+
+        // Shows a modal dialog whose list is filled with the chatbox list pages as they arrive
+        private void showWithChatBoxList(JDialog dialog, DefaultListModel<ChatBoxSummary> model) {
+            chatBoxPages = model;
+            client.queueMessage(new AskChatBoxList());
+            dialog.setVisible(true); // returns once the dialog is closed
+            if (chatBoxPages == model) {
+                chatBoxPages = null;
+            }
+        }
+
+        // Appends a page of the chatbox list to the open dialog's list
+        public void addChatBoxPage(List<ChatBoxSummary> chatBoxes, boolean firstPage) {
+            SwingUtilities.invokeLater(() -> {
+                DefaultListModel<ChatBoxSummary> model = chatBoxPages;
+                if (model == null) {
+                    return; // the dialog was closed
+                }
+                if (firstPage) {
+                    model.clear();
+                }
+                model.addAll(chatBoxes);
+            });
+        }
+
+        public boolean wantsChatBoxPages() {
+            return chatBoxPages != null;
         }
 
         // Inner class for ChatLogDialog
         public class ChatLogDialog extends JDialog {
-            private final JList<ChatBox> chatBoxList;
-            private final DefaultListModel<ChatBox> chatBoxListModel;
+            private final JList<ChatBoxSummary> chatBoxList;
+            private final DefaultListModel<ChatBoxSummary> chatBoxListModel;
             private final JTextArea chatLogArea;
+            private final JTextField fromField; // "yyyy-MM-dd HH:mm", blank for no bound
+            private final JTextField toField;
+            private final JTextField senderField; // sender ID, blank for any
+            private final JCheckBox includeHiddenBox;
             private final JButton getLogButton;
             private final JButton closeButton;
             private final Client client;
+            private volatile AskChatLog pending; // request whose chunks are being shown, null when done
+            private long lastRequestID; // tells the chunks of one search from those of the previous ones
 
-            public ChatLogDialog(AdminOptionsWindow adminOptionsWindow, List<ChatBox> chatBoxes, Client client) {
+            public ChatLogDialog(AdminOptionsWindow adminOptionsWindow, Client client) {
                 super(adminOptionsWindow, "Chat Logs", true);
                 this.client = client;
 
                 setLayout(new BorderLayout());
                 getContentPane().setBackground(BACKGROUND_COLOR);
 
-                chatBoxListModel = new DefaultListModel<>();
-                chatBoxListModel.addAll(chatBoxes);
+                chatBoxListModel = new DefaultListModel<>(); // filled by addChatBoxPage
 
                 chatBoxList = new JList<>(chatBoxListModel);
                 chatBoxList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
@@ -1079,6 +1320,23 @@ public class Gui {
                 chatLogArea.setFont(new Font("Arial", Font.PLAIN, 14));
                 chatLogArea.setBackground(CHAT_AREA_COLOR);
 
+                fromField = new JTextField(12);
+                toField = new JTextField(12);
+                senderField = new JTextField(5);
+                includeHiddenBox = new JCheckBox("Include hidden", true);
+                includeHiddenBox.setBackground(BACKGROUND_COLOR);
+                includeHiddenBox.setForeground(TEXT_COLOR);
+
+                JPanel filterPanel = new JPanel();
+                filterPanel.setBackground(BACKGROUND_COLOR);
+                for (Object[] field : new Object[][]{{"From", fromField}, {"To", toField}, {"Sender ID", senderField}}) {
+                    JLabel label = new JLabel((String) field[0]);
+                    label.setForeground(TEXT_COLOR);
+                    filterPanel.add(label);
+                    filterPanel.add((JTextField) field[1]);
+                }
+                filterPanel.add(includeHiddenBox);
+
                 getLogButton = new JButton("Get Log");
                 getLogButton.setBackground(BUTTON_COLOR);
                 getLogButton.setFont(new Font("Arial", Font.BOLD, 14));
@@ -1094,46 +1352,88 @@ public class Gui {
                 buttonPanel.add(getLogButton);
                 buttonPanel.add(closeButton);
 
+                add(filterPanel, BorderLayout.NORTH);
                 add(new JScrollPane(chatBoxList), BorderLayout.WEST);
                 add(new JScrollPane(chatLogArea), BorderLayout.CENTER);
                 add(buttonPanel, BorderLayout.SOUTH);
+                addWindowListener(new java.awt.event.WindowAdapter() {
+                    @Override
+                    public void windowClosed(java.awt.event.WindowEvent e) {
+                        pending = null; // stop asking for more chunks
+                    }
+                });
 
-                setSize(600, 400);
+                setSize(800, 450);
                 setLocationRelativeTo(adminOptionsWindow);
             }
 
             private void requestChatLog() {
-                ChatBox selectedChatBox = chatBoxList.getSelectedValue();
-                if (selectedChatBox != null) {
-                    client.queueMessage(new AskChatLog(selectedChatBox.getChatBoxID()));
-                } else {
+                ChatBoxSummary selectedChatBox = chatBoxList.getSelectedValue();
+                if (selectedChatBox == null) {
                     JOptionPane.showMessageDialog(this, "Please select a chatbox.", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
                 }
+                long fromMillis;
+                long toMillis;
+                int senderID;
+                try {
+                    fromMillis = parseTime(fromField.getText());
+                    toMillis = parseTime(toField.getText());
+                    senderID = senderField.getText().isBlank() ? -1 : Integer.parseInt(senderField.getText().trim());
+                } catch (DateTimeException | NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(this, "Times are yyyy-MM-dd HH:mm and the sender is a user ID.", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                chatLogArea.setText("");
+                pending = new AskChatLog(selectedChatBox.chatBoxID(), 1, fromMillis, toMillis, senderID,
+                        includeHiddenBox.isSelected(), ++lastRequestID);
+                client.queueMessage(pending);
             }
 
-            public void displayChatLog(String chatLog) {
-                SwingUtilities.invokeLater(() -> chatLogArea.setText(chatLog));
+            // Epoch millis of a "yyyy-MM-dd HH:mm" time, -1 if blank
+            private long parseTime(String text) {
+                if (text.isBlank()) {
+                    return -1;
+                }
+                LocalDateTime time = LocalDateTime.parse(text.trim().replace(' ', 'T'));
+                return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+
+            // Shows a chunk of the requested log and asks for the next one
+            public void appendChunk(ChatLogChunk chunk) {
+                SwingUtilities.invokeLater(() -> {
+                    AskChatLog request = pending;
+                    if (request == null || !chunk.answers(request)) {
+                        return; // the dialog was closed, another log was requested or the chunk is a stale one
+                    }
+                    chatLogArea.append(chunk.text());
+                    if (chunk.last()) {
+                        pending = null;
+                    } else {
+                        pending = request.continueAt(chunk.nextSequence());
+                        client.queueMessage(pending);
+                    }
+                });
             }
         }
 
         // ChatBoxListDialog class for Hide/Unhide ChatBox
         public class ChatBoxListDialog extends JDialog {
-            private final JList<ChatBox> chatBoxList;
-            private final DefaultListModel<ChatBox> chatBoxListModel;
+            private final JList<ChatBoxSummary> chatBoxList;
+            private final DefaultListModel<ChatBoxSummary> chatBoxListModel;
             private final JButton hideButton;
             private final JButton unhideButton;
             private final JButton closeButton;
             private final Client client;
 
-            public ChatBoxListDialog(AdminOptionsWindow adminOptionsWindow, List<ChatBox> chatBoxes, Client client) {
+            public ChatBoxListDialog(AdminOptionsWindow adminOptionsWindow, Client client) {
                 super(adminOptionsWindow, "Manage ChatBoxes", true);
                 this.client = client;
 
                 setLayout(new BorderLayout());
                 getContentPane().setBackground(BACKGROUND_COLOR);
 
-                chatBoxListModel = new DefaultListModel<>();
-                chatBoxListModel.addAll(chatBoxes);
+                chatBoxListModel = new DefaultListModel<>(); // filled by addChatBoxPage
 
                 chatBoxList = new JList<>(chatBoxListModel);
                 chatBoxList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
@@ -1169,18 +1469,18 @@ public class Gui {
             }
 
             private void hideChatBox() {
-                ChatBox selectedChatBox = chatBoxList.getSelectedValue();
+                ChatBoxSummary selectedChatBox = chatBoxList.getSelectedValue();
                 if (selectedChatBox != null) {
-                    client.queueMessage(new HideChatBox(selectedChatBox.getChatBoxID()));
+                    client.queueMessage(new HideChatBox(selectedChatBox.chatBoxID()));
                 } else {
                     JOptionPane.showMessageDialog(this, "Please select a chatbox to hide.", "Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
 
             private void unhideChatBox() {
-                ChatBox selectedChatBox = chatBoxList.getSelectedValue();
+                ChatBoxSummary selectedChatBox = chatBoxList.getSelectedValue();
                 if (selectedChatBox != null) {
-                    client.queueMessage(new UnhideChatBox(selectedChatBox.getChatBoxID()));
+                    client.queueMessage(new UnhideChatBox(selectedChatBox.chatBoxID()));
                 } else {
                     JOptionPane.showMessageDialog(this, "Please select a chatbox to unhide.", "Error", JOptionPane.ERROR_MESSAGE);
                 }
@@ -1260,7 +1560,7 @@ public class Gui {
             setUpUserList();
 
             pane.add(prompt, BorderLayout.NORTH); // add prompt
-            pane.add(userScrPane, BorderLayout.CENTER); // add user list
+            pane.add(userSearchPanel(userScrPane), BorderLayout.CENTER); // add user list
 
             pane.add(comboPanel, BorderLayout.SOUTH); // add buttons
         }
@@ -1308,13 +1608,13 @@ public class Gui {
         // Handles when user clicks on Ban User button
         public class BanUserButtonListener implements ActionListener {
             public void actionPerformed(ActionEvent e) {
-                User selectedUser = users.getSelectedValue();
+                UserView selectedUser = users.getSelectedValue();
                 if (selectedUser != null) {
-                    if (selectedUser.equals(client.getUserData())) {
+                    if (selectedUser.userID() == client.getUserData().getUserID()) {
                         JOptionPane.showMessageDialog(AdminOptionsWindow.this, "You can't ban yourself.");
                         return;
                     }
-                    client.queueMessage(new BanUser(selectedUser.getUserID()));
+                    client.queueMessage(new BanUser(selectedUser.userID()));
                 }
             }
         }
@@ -1322,9 +1622,9 @@ public class Gui {
         // Handles when user clicks on Unban User button
         public class UnbanUserButtonListener implements ActionListener {
             public void actionPerformed(ActionEvent e) {
-                User selectedUser = users.getSelectedValue();
+                UserView selectedUser = users.getSelectedValue();
                 if (selectedUser != null) {
-                    client.queueMessage(new UnbanUser(selectedUser.getUserID()));
+                    client.queueMessage(new UnbanUser(selectedUser.userID()));
                 }
             }
         }
@@ -1332,26 +1632,14 @@ public class Gui {
         // Handles when user clicks on View Chat Logs button
         public class ViewChatLogButtonListener implements ActionListener {
             public void actionPerformed(ActionEvent e) {
-                client.queueMessage(new AskChatBoxList());
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ex) {
-                    throw new RuntimeException(ex);
-                }
-                adminOptionsWindow.showChatLogDialog(allChatBox);
+                adminOptionsWindow.showChatLogDialog(); // filled in as the chatbox list arrives
             }
         }
 
         // ManageChatBoxButtonListener inner class
         private class ManageChatBoxButtonListener implements ActionListener {
             public void actionPerformed(ActionEvent e) {
-                client.queueMessage(new AskChatBoxList());
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ex) {
-                    throw new RuntimeException(ex);
-                }
-                adminOptionsWindow.showChatBoxListDialog(allChatBox);
+                adminOptionsWindow.showChatBoxListDialog(); // filled in as the chatbox list arrives
             }
         }
 
@@ -1471,9 +1759,9 @@ public class Gui {
             // Let the default renderer set up the label
             JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
 
-            if (value instanceof User user) {
-                String displayName = user.getUsername();
-                if (user.isBanned()) {
+            if (value instanceof UserView user) {
+                String displayName = user.username();
+                if (user.banned()) {
                     displayName += " (banned)";
                     label.setForeground(Color.RED);
                 } else {
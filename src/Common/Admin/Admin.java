@@ -5,6 +5,8 @@ import ServerApp.AuthenticationSystem.AuthenticationSystem;
 import ServerApp.MessageHandler.MessageHandler;
 
 import java.io.Serial;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Admin extends User {
     @Serial
@@ -72,11 +74,14 @@ public class Admin extends User {
     // INPUT: content (String)
     // OUTPUT: none
     public void sendSystemMessage(String content) {
+        List<Integer> onlineUserIDs = new ArrayList<>();
         for (User user : authenticationSystem.getAllUsers()) {
             if (user.isOnline()) {
-                messageHandler.sendMessageToUser(user.getUserID(), content);
+                onlineUserIDs.add(user.getUserID());
             }
         }
+        // One broadcast to every private chatbox instead of one send per user
+        messageHandler.sendSystemMessage(getUserID(), content, onlineUserIDs);
     }
 
     // Hides a specific message in a chatbox using MessageHandler
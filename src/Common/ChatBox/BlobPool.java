@@ -0,0 +1,84 @@
+package Common.ChatBox;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BlobPool keeps one heap copy of each message body that is shared by
+ * several chatboxes (a broadcast or system message added everywhere). Bodies
+ * are looked up by content, so the same text loaded from different chatbox
+ * files ends up as the same byte[]. Every log entry that holds a pooled body
+ * counts as one reference; the body leaves the pool when the last entry
+ * referencing it is evicted.
+ */
+public final class BlobPool {
+
+    private static final BlobPool SHARED = new BlobPool();
+
+    // Content-addressed key: equal bodies are equal keys
+    private record Key(byte[] content, int hash) {
+        Key(byte[] content) {
+            this(content, Arrays.hashCode(content));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key other && hash == other.hash && Arrays.equals(content, other.content);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Blob {
+        final byte[] content;
+        int references; // only changed inside the map's compute functions
+
+        Blob(byte[] content) {
+            this.content = content;
+        }
+    }
+
+    private final ConcurrentHashMap<Key, Blob> blobs = new ConcurrentHashMap<>();
+
+    // The pool used by every MessageLog in this process
+    public static BlobPool shared() {
+        return SHARED;
+    }
+
+    // Takes a reference to a body
+    // INPUT: content (byte[]) must not be modified afterwards
+    // OUTPUT: the pooled copy of the body (content itself if it was not pooled yet)
+    public byte[] acquire(byte[] content) {
+        Blob blob = blobs.compute(new Key(content), (key, existing) -> {
+            Blob result = existing != null ? existing : new Blob(content);
+            result.references++;
+            return result;
+        });
+        return blob.content;
+    }
+
+    // Gives back a reference taken with acquire
+    // INPUT: content (byte[]) the pooled copy returned by acquire
+    public void release(byte[] content) {
+        blobs.computeIfPresent(new Key(content), (key, blob) -> {
+            if (blob.content != content) {
+                return blob; // not a reference to this blob
+            }
+            return --blob.references > 0 ? blob : null;
+        });
+    }
+
+    // Number of distinct bodies held
+    public int size() {
+        return blobs.size();
+    }
+
+    // References held on a body, 0 if it is not pooled
+    public int referencesOf(byte[] content) {
+        Blob blob = blobs.get(new Key(content));
+        return blob != null ? blob.references : 0;
+    }
+}
@@ -4,14 +4,17 @@ import Common.User.User;
 import Common.Message.Message;
 
 import java.io.Serial;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 import java.io.Serializable;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ChatBox implements Serializable {
     @Serial
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 1L; // kept at 1, snapshots of the original layout are converted by ServerApp.LegacyFormat
 
     // Static atomic integer for generating unique chatBoxIDs
     private static final AtomicInteger chatBoxIdGenerator = new AtomicInteger(0);
@@ -21,32 +24,29 @@ public class ChatBox implements Serializable {
         chatBoxIdGenerator.set(0);
     }
 
+    // Makes sure chatboxes created from now on get IDs above one already in use (e.g. loaded from files)
+    // INPUT: chatBoxID (int)
+    // OUTPUT: none
+    public static void reserveChatBoxID(int chatBoxID) {
+        chatBoxIdGenerator.accumulateAndGet(chatBoxID, Math::max);
+    }
+
     // Attributes
+    // A ChatBox is shared by every ClientHandler thread and by StorageManager, so all mutable state is
+    // either immutable and swapped atomically (participants, the message window) or volatile.
     private int chatBoxID;
     private final String name;
-    private Collection<User> participants;
-    private final SortedSet<Message> messages;
-    private boolean isHidden;
+    private final AtomicReference<ParticipantSet> participants; // IDs only, resolved against the user directory when needed
+    private boolean openToAll; // true for the system chatbox, every user is implicitly a participant
+    private final MessageLog messages; // lock-free window of the most recent messages, older ones stay on disk
+    private volatile boolean isHidden;
     LocalDateTime creationTime;
 
-    // Serializable Comparator
-    private static final Comparator<Message> MESSAGE_TIMESTAMP_COMPARATOR = new SerializableComparator();
-
-    private static class SerializableComparator implements Comparator<Message>, Serializable {
-        @Serial
-        private static final long serialVersionUID = 1L;
-
-        @Override
-        public int compare(Message m1, Message m2) {
-            return m1.getTimestamp().compareTo(m2.getTimestamp());
-        }
-    }
-
     // Default Constructor
     public ChatBox() {
         this.chatBoxID = chatBoxIdGenerator.incrementAndGet();
-        this.participants = new HashSet<>();
-        this.messages = new TreeSet<>(MESSAGE_TIMESTAMP_COMPARATOR);
+        this.participants = new AtomicReference<>(ParticipantSet.EMPTY);
+        this.messages = new MessageLog();
         this.isHidden = false;
         this.name = "ChatBox " + this.chatBoxID;
         this.creationTime = LocalDateTime.now();
@@ -55,8 +55,8 @@ public class ChatBox implements Serializable {
     // Constructor with custom name
     public ChatBox(String name) {
         this.chatBoxID = chatBoxIdGenerator.incrementAndGet();
-        this.participants = new HashSet<>();
-        this.messages = new TreeSet<>(MESSAGE_TIMESTAMP_COMPARATOR);
+        this.participants = new AtomicReference<>(ParticipantSet.EMPTY);
+        this.messages = new MessageLog();
         this.isHidden = false;
         this.name = name;
         this.creationTime = LocalDateTime.now();
@@ -64,16 +64,16 @@ public class ChatBox implements Serializable {
 
     public ChatBox(Collection<User> participants) {
         this.chatBoxID = chatBoxIdGenerator.incrementAndGet();
-        this.participants = new HashSet<>(participants);
-        this.messages = new TreeSet<>(MESSAGE_TIMESTAMP_COMPARATOR);
+        this.participants = new AtomicReference<>(ParticipantSet.of(participants));
+        this.messages = new MessageLog();
         this.isHidden = false;
         this.name =  "ChatBox " + this.chatBoxID;
         this.creationTime = LocalDateTime.now();
     }
     public ChatBox(Collection<User> participants, String name){
         this.chatBoxID = chatBoxIdGenerator.incrementAndGet();
-        this.participants = new HashSet<>(participants);
-        this.messages = new TreeSet<>(MESSAGE_TIMESTAMP_COMPARATOR);
+        this.participants = new AtomicReference<>(ParticipantSet.of(participants));
+        this.messages = new MessageLog();
         this.isHidden = false;
         this.name = name;
         this.creationTime = LocalDateTime.now();
@@ -81,25 +81,71 @@ public class ChatBox implements Serializable {
 
     private ChatBox(boolean t){
         this.chatBoxID = 0;
-        this.participants = null;
-        this.messages = new TreeSet<>(MESSAGE_TIMESTAMP_COMPARATOR);
+        this.participants = new AtomicReference<>(ParticipantSet.EMPTY);
+        this.openToAll = true;
+        this.messages = new MessageLog();
         this.isHidden = false;
         this.name = "System Notifications";
         this.creationTime = LocalDateTime.now();
     }
 
+    // Client side copy of a chatbox the server listed, keeps the server's ID
+    public ChatBox(ChatBoxSummary summary) {
+        this.chatBoxID = summary.chatBoxID();
+        this.participants = new AtomicReference<>(ParticipantSet.EMPTY);
+        this.messages = new MessageLog();
+        this.isHidden = summary.hidden();
+        this.name = summary.name();
+        this.creationTime = summary.lastUpdatedMillis() >= 0
+                ? LocalDateTime.ofInstant(Instant.ofEpochMilli(summary.lastUpdatedMillis()), ZoneId.systemDefault())
+                : LocalDateTime.now();
+    }
+
+    // Chatbox rebuilt from a file written by an older version, keeps its ID and does not use up a new one
+    private ChatBox(int chatBoxID, String name, ParticipantSet participants, boolean openToAll, boolean hidden, LocalDateTime creationTime) {
+        this.chatBoxID = chatBoxID;
+        this.participants = new AtomicReference<>(participants);
+        this.openToAll = openToAll;
+        this.messages = new MessageLog();
+        this.isHidden = hidden;
+        this.name = name;
+        this.creationTime = creationTime != null ? creationTime : LocalDateTime.now();
+    }
+
+    // Rebuilds a chatbox saved in an older file format (messages are added by the caller)
+    // INPUT: chatBoxID (int), name (String), participantIDs (int[]), openToAll (boolean), hidden (boolean), creationTime (LocalDateTime)
+    // OUTPUT: ChatBox with no messages
+    public static ChatBox restore(int chatBoxID, String name, int[] participantIDs, boolean openToAll, boolean hidden, LocalDateTime creationTime) {
+        return new ChatBox(chatBoxID, name, ParticipantSet.ofIds(participantIDs), openToAll, hidden, creationTime);
+    }
+
+    // Copy without messages, keeps the same chatBoxID and does not use up a new one
+    private ChatBox(ChatBox other) {
+        this(other, new MessageLog());
+    }
+
+    private ChatBox(ChatBox other, MessageLog messages) {
+        this.chatBoxID = other.chatBoxID;
+        this.participants = new AtomicReference<>(other.participants.get()); // ParticipantSet is immutable, safe to share
+        this.openToAll = other.openToAll;
+        this.messages = messages;
+        this.isHidden = other.isHidden;
+        this.name = other.name;
+        this.creationTime = other.creationTime;
+    }
+
     // **New Constructor with participants**
     // Initializes a ChatBox with a unique ID, optional name, and participants
     public ChatBox(List<User> participantsList) {
         this.chatBoxID = chatBoxIdGenerator.incrementAndGet();
-        this.participants = new HashSet<>(participantsList);
-        this.messages = new TreeSet<>(MESSAGE_TIMESTAMP_COMPARATOR);
+        this.participants = new AtomicReference<>(ParticipantSet.of(participantsList));
+        this.messages = new MessageLog();
         this.isHidden = false;
         this.name = "ChatBox " + this.chatBoxID;
     }
     
     public void setParticipants(Collection<User> participants) {
-        this.participants = participants;
+        this.participants.set(ParticipantSet.of(participants));
     }
 
     // Getters
@@ -117,14 +163,86 @@ public class ChatBox implements Serializable {
         return new ChatBox(true);
     }
 
-    // Returns the set of participants in the ChatBox
-    public Collection<User> getParticipants() {
-        return participants;
+    // Returns the IDs of the participants in the ChatBox, in ascending order
+    public int[] getParticipantIDs() {
+        return participants.get().toArray();
+    }
+
+    // Returns the number of explicit participants (0 for the system chatbox)
+    public int getParticipantCount() {
+        return participants.get().size();
+    }
+
+    // Returns true if every user is implicitly a participant (system chatbox)
+    public boolean isOpenToAll() {
+        return openToAll;
+    }
+
+    // Checks if a user takes part in the ChatBox
+    // INPUT: userID (int)
+    // OUTPUT: true if the user is a participant, false otherwise
+    public boolean hasParticipant(int userID) {
+        return openToAll || participants.get().contains(userID);
+    }
+
+    // Resolves the participant IDs against a user directory
+    // INPUT: userDirectory (Map<Integer, ? extends User>)
+    // OUTPUT: List of participants that still exist in the directory
+    public List<User> getParticipants(Map<Integer, ? extends User> userDirectory) {
+        if (openToAll) {
+            return new ArrayList<>(userDirectory.values());
+        }
+        int[] ids = participants.get().toArray();
+        List<User> resolved = new ArrayList<>(ids.length);
+        for (int userID : ids) {
+            User user = userDirectory.get(userID);
+            if (user != null) {
+                resolved.add(user);
+            }
+        }
+        return resolved;
+    }
+
+    // Returns a read-only snapshot of the most recent messages in the ChatBox, oldest first
+    // (messages added afterwards do not show up in it, so it is safe to iterate from any thread)
+    public List<Message> getMessages() {
+        return messages.snapshot();
+    }
+
+    // Returns the messages in [fromSequence, fromSequence + count) that are held in memory
+    // INPUT: fromSequence (long), count (int)
+    // OUTPUT: List of messages
+    public List<Message> getMessages(long fromSequence, int count) {
+        return messages.range(fromSequence, count);
     }
 
-    // Returns the set of messages in the ChatBox
-    public SortedSet<Message> getMessages() {
-        return messages;
+    // Checks if a sequence range can be served from memory without paging in history
+    // INPUT: fromSequence (long), count (int)
+    // OUTPUT: true if the in-memory window covers the range
+    public boolean isInWindow(long fromSequence, int count) {
+        return messages.covers(fromSequence, count);
+    }
+
+    // Sequence numbers of the hidden messages in [fromSequence, toSequence] held in memory
+    // INPUT: fromSequence (long), toSequence (long)
+    // OUTPUT: ascending sequence numbers
+    public long[] getHiddenSequences(long fromSequence, long toSequence) {
+        return messages.hiddenSequences(fromSequence, toSequence);
+    }
+
+    // Sequence number of the newest message, 0 if none
+    public long getLastSequence() {
+        return messages.lastSequence();
+    }
+
+    // Number of recent messages the chatbox keeps in memory
+    public int getWindowSize() {
+        return messages.getWindowSize();
+    }
+
+    // Sequence number of the oldest message still held in memory
+    public long getFirstSequenceInWindow() {
+        return messages.firstSequence();
     }
 
     // Returns the hidden status of the ChatBox
@@ -141,46 +259,91 @@ public class ChatBox implements Serializable {
 
     // Adds a message to the ChatBox
     // INPUT: message (Message)
-    // OUTPUT: none
-    public void addMessage(Message message) {
-        messages.add(message);
+    // OUTPUT: sequence number given to the message, -1 if it was already in the chatbox
+    public long addMessage(Message message) {
+        return messages.append(message);
+    }
+
+    // Hides or unhides a message held in memory
+    // INPUT: messageID (int), hidden (boolean)
+    // OUTPUT: sequence number of the message, or -1 if it is not in the in-memory window
+    public long setMessageHidden(int messageID, boolean hidden) {
+        return messages.setHidden(messageID, hidden);
     }
 
     // Adds a participant to the ChatBox
     // INPUT: user (User)
     // OUTPUT: true if user added successfully, false otherwise
     public boolean addParticipant(User user) {
-        return participants.add(user); // Adds the user if not already present in the set
+        return addParticipant(user.getUserID());
     }
 
-    // Returns a list of all messages in the ChatBox
-    // INPUT: none
-    // OUTPUT: List of messages
-    public List<Message> getMessagesList() {
-        return new ArrayList<>(messages);
+    // Adds a participant to the ChatBox by ID
+    // INPUT: userID (int)
+    // OUTPUT: true if user added successfully, false if already present
+    public boolean addParticipant(int userID) {
+        while (true) {
+            ParticipantSet current = participants.get();
+            ParticipantSet updated = current.with(userID);
+            if (updated == current) {
+                return false;
+            }
+            if (participants.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
     }
 
-    // Returns a list of all participants in the ChatBox
+    // Returns a list of the messages held in memory (see getMessages)
     // INPUT: none
-    // OUTPUT: List of participants
-    public List<User> getParticipantsList() {
-        return new ArrayList<>(participants);
+    // OUTPUT: List of messages
+    public List<Message> getMessagesList() {
+        return new ArrayList<>(messages.snapshot());
     }
 
     // Removes a participant from the ChatBox
     // INPUT: user (User)
     // OUTPUT: true if user removed successfully, false otherwise
     public boolean removeParticipant(User user) {
-        return participants.remove(user); // Removes the user if present in the set
+        return user != null && removeParticipant(user.getUserID());
+    }
+
+    // Removes a participant from the ChatBox by ID
+    // INPUT: userID (int)
+    // OUTPUT: true if user removed successfully, false otherwise
+    public boolean removeParticipant(int userID) {
+        while (true) {
+            ParticipantSet current = participants.get();
+            ParticipantSet updated = current.without(userID);
+            if (updated == current) {
+                return false;
+            }
+            if (participants.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    // Timestamp (epoch millis) of the newest message in memory, -1 if none
+    public long getLastTimestamp() {
+        return messages.lastTimestamp();
     }
 
     public LocalDateTime lastUpdated() {
-        if(!messages.isEmpty()) {
-            return messages.last().getTimestamp();
+        long lastTimestamp = messages.lastTimestamp();
+        if (lastTimestamp >= 0) {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(lastTimestamp), ZoneId.systemDefault());
         }
         return creationTime;
     }
 
+    // Gives the off-heap memory of the chatbox's messages back, call when the chatbox is replaced or removed
+    // INPUT: none
+    // OUTPUT: none
+    public void close() {
+        messages.close();
+    }
+
     // Hides the ChatBox from users
     // INPUT: none
     // OUTPUT: none
@@ -195,12 +358,19 @@ public class ChatBox implements Serializable {
     // INPUT: none
     // OUTPUT: ChatBox object with participants but no messages
     public ChatBox getEmpty() {
-        ChatBox empty = new ChatBox(this.name);
-        empty.chatBoxID = this.chatBoxID; // Keep the same chatBoxID
-        empty.participants = new HashSet<>(this.participants);
-        empty.isHidden = this.isHidden;
-        // Do not copy messages
-        return empty;
+        return new ChatBox(this); // Do not copy messages
+    }
+
+    // Returns the chatbox as participants who are not admins see it: hidden messages are tombstones
+    // without their text and a hidden chatbox has no messages at all
+    // INPUT: none
+    // OUTPUT: ChatBox, this chatbox if nothing in it is hidden
+    public ChatBox withoutHiddenContent() {
+        if (isHidden) {
+            return getEmpty();
+        }
+        MessageLog visible = messages.withoutHiddenContent();
+        return visible == messages ? this : new ChatBox(this, visible);
     }
 
     // Implement equals and hashCode based on chatBoxID
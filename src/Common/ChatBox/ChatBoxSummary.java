@@ -0,0 +1,28 @@
+package Common.ChatBox;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * ChatBoxSummary is the compact view of a ChatBox that the server sends in chatbox lists
+ * (at login and to the admin panel). It carries no messages and no participants.
+ */
+public record ChatBoxSummary(int chatBoxID, String name, boolean hidden, int participantCount,
+                             long lastSequence, long lastUpdatedMillis) implements Serializable {
+
+    // Creates a summary of the given chatbox
+    // INPUT: chatBox (ChatBox)
+    // OUTPUT: ChatBoxSummary
+    public static ChatBoxSummary of(ChatBox chatBox) {
+        LocalDateTime lastUpdated = chatBox.lastUpdated();
+        long lastUpdatedMillis = lastUpdated != null ? lastUpdated.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : -1;
+        return new ChatBoxSummary(chatBox.getChatBoxID(), chatBox.getName(), chatBox.isHidden(),
+                chatBox.getParticipantCount(), chatBox.getLastSequence(), lastUpdatedMillis);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
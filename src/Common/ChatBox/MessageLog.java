@@ -0,0 +1,545 @@
+package Common.ChatBox;
+
+import Common.Message.Message;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * MessageLog stores the most recent messages of one ChatBox in columnar
+ * primitive arrays (IDs, senders, epoch-millis timestamps, UTF-8 bodies and
+ * packed flags). It is exposed as a read-only List<Message> whose elements
+ * are materialised on access, so existing callers can keep iterating it while
+ * the heap only pays for the raw columns.
+ *
+ * Every message gets a per-chatbox sequence number (1, 2, 3, ...). The log is
+ * bounded by its window size: once full, appending evicts the oldest message,
+ * which the server keeps in its on-disk history instead.
+ *
+ * The window is an immutable Window object behind an atomic head. Columns are
+ * split into segments of SEGMENT_SIZE messages; an append copies only the
+ * last segment and the segment table, then publishes the new Window with a
+ * compare-and-set. Senders never block each other and readers (including
+ * serialization) always see a consistent snapshot without taking a lock.
+ *
+ * When the server installs an OffHeapArena, bodies are copied into direct
+ * memory and only the chunk/offset index stays on the heap; they are decoded
+ * back into a byte[] whenever a message is read. The log owns those chunks
+ * for as long as its chatbox lives; close() gives them back when the chatbox
+ * is replaced or removed. Bodies of shared messages
+ * (Message.FLAG_SHARED) stay on the heap in the BlobPool instead, so a body
+ * added to many chatboxes is held once.
+ */
+public class MessageLog extends AbstractList<Message> implements RandomAccess, Serializable {
+    @Serial
+    private static final long serialVersionUID = 3L;
+
+    private static final int SEGMENT_SHIFT = 5;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT; // messages per segment
+    public static final int DEFAULT_WINDOW_SIZE = 500;
+
+    // Arena used by logs created (or deserialized) from now on, null keeps bodies on the heap
+    private static volatile OffHeapArena defaultArena;
+    // Window size of logs created from now on
+    private static volatile int defaultWindowSize = DEFAULT_WINDOW_SIZE;
+
+    // Enables off-heap bodies for every log created afterwards (server side only)
+    // INPUT: arena (OffHeapArena), or null to keep bodies on the heap
+    public static void useOffHeapArena(OffHeapArena arena) {
+        defaultArena = arena;
+    }
+
+    public static OffHeapArena getOffHeapArena() {
+        return defaultArena;
+    }
+
+    // Sets how many recent messages logs created afterwards keep in memory
+    // INPUT: windowSize (int) > 0
+    public static void setDefaultWindowSize(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+        }
+        defaultWindowSize = windowSize;
+    }
+
+    public static int getDefaultWindowSize() {
+        return defaultWindowSize;
+    }
+
+    private transient int windowSize; // not saved, a loaded log takes the window size configured now
+    private transient volatile OffHeapArena arena; // null once closed
+    private transient AtomicReference<Window> head;
+
+    public MessageLog() {
+        this(defaultWindowSize);
+    }
+
+    public MessageLog(int windowSize) {
+        this.windowSize = windowSize;
+        this.arena = defaultArena;
+        this.head = new AtomicReference<>(Window.empty(1));
+    }
+
+    // Appends a message. A message that already carries a sequence number keeps it,
+    // one that is older than what the log has seen is ignored.
+    // INPUT: message (Message)
+    // OUTPUT: sequence number of the stored message, or -1 if it was already known
+    public long append(Message message) {
+        Window current = head.get();
+        if (message.getSequence() > 0 && message.getSequence() < current.nextSequence) {
+            return -1;
+        }
+        Entry entry = toEntry(message);
+        while (true) {
+            long sequence = message.getSequence() > 0 ? message.getSequence() : current.nextSequence;
+            if (sequence < current.nextSequence) {
+                entry.release(); // another thread stored it first
+                return -1;
+            }
+            // Messages were missed: start a new window so it stays contiguous
+            Window base = sequence > current.nextSequence ? Window.empty(sequence) : current;
+            Window updated = base.append(entry, windowSize);
+            if (head.compareAndSet(current, updated)) {
+                if (base != current) {
+                    current.releaseAll();
+                } else if (updated.size == current.size) {
+                    current.release(0); // the oldest message fell out of the window
+                }
+                return sequence;
+            }
+            current = head.get();
+        }
+    }
+
+    // Drops every message in the window (sequence numbers keep counting)
+    @Override
+    public void clear() {
+        Window current;
+        do {
+            current = head.get();
+        } while (!head.compareAndSet(current, Window.empty(current.nextSequence)));
+        current.releaseAll();
+    }
+
+    // Gives back the direct memory and pooled bodies the log holds, call when its chatbox is replaced or
+    // removed. The log is empty afterwards and keeps any later message on the heap.
+    public void close() {
+        arena = null;
+        clear();
+    }
+
+    // Copies a message's columns, putting its body in the arena if there is one with room left
+    private Entry toEntry(Message message) {
+        byte[] content = message.getContentBytes();
+        if (message.isShared()) {
+            return new Entry(message.getMessageID(), message.getSenderID(), message.getTimestampMillis(),
+                    message.getFlags(), BlobPool.shared().acquire(content), null, 0);
+        }
+        OffHeapArena.Slice slice = arena != null ? arena.allocate(content) : null;
+        if (slice != null) {
+            return new Entry(message.getMessageID(), message.getSenderID(), message.getTimestampMillis(),
+                    message.getFlags(), null, slice.chunk(), slice.offset());
+        }
+        return new Entry(message.getMessageID(), message.getSenderID(), message.getTimestampMillis(),
+                message.getFlags(), content, null, 0);
+    }
+
+    // True if a message in the window is hidden
+    public boolean hasHidden() {
+        Window window = head.get();
+        for (int i = 0; i < window.size; i++) {
+            if ((window.segmentOf(i).flags[window.positionOf(i)] & Message.FLAG_HIDDEN) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Sequence numbers of the hidden messages in [fromSequence, toSequence] that are in the window
+    // INPUT: fromSequence (long), toSequence (long)
+    // OUTPUT: ascending sequence numbers, empty if none is hidden
+    public long[] hiddenSequences(long fromSequence, long toSequence) {
+        Window window = head.get();
+        int from = (int) Math.max(0, fromSequence - window.firstSequence());
+        int to = (int) Math.min(window.size - 1L, toSequence - window.firstSequence());
+        long[] hidden = new long[0];
+        int count = 0;
+        for (int i = from; i <= to; i++) {
+            if ((window.segmentOf(i).flags[window.positionOf(i)] & Message.FLAG_HIDDEN) != 0) {
+                if (count == hidden.length) {
+                    hidden = Arrays.copyOf(hidden, Math.max(4, count * 2));
+                }
+                hidden[count++] = window.firstSequence() + i;
+            }
+        }
+        return Arrays.copyOf(hidden, count);
+    }
+
+    // Copy of the window in which hidden messages are tombstones (no body), for users who may not
+    // read them; kept on the heap and not shared with other logs, as it only lives until it is sent
+    // OUTPUT: MessageLog, this log if no message in the window is hidden
+    public MessageLog withoutHiddenContent() {
+        if (!hasHidden()) {
+            return this;
+        }
+        Window window = head.get();
+        MessageLog copy = new MessageLog(windowSize);
+        copy.arena = null;
+        Window projected = Window.empty(window.firstSequence());
+        for (int i = 0; i < window.size; i++) {
+            Message message = window.get(i);
+            Message visible = message.isHidden() ? message.tombstone()
+                    : new Message(message.getMessageID(), message.getSenderID(), message.getContentBytes(),
+                            message.getTimestampMillis(), (byte) (message.getFlags() & ~Message.FLAG_SHARED));
+            projected = projected.append(copy.toEntry(visible), Math.max(windowSize, window.size));
+        }
+        copy.head.set(projected);
+        return copy;
+    }
+
+    // Finds the position of a message by ID
+    // INPUT: messageID (int)
+    // OUTPUT: index, or -1 if not in the window
+    public int indexOfMessage(int messageID) {
+        return head.get().indexOf(messageID);
+    }
+
+    // Sets or clears the hidden flag of a message
+    // INPUT: messageID (int), hidden (boolean)
+    // OUTPUT: sequence number of the message, or -1 if it is not in the window
+    public long setHidden(int messageID, boolean hidden) {
+        while (true) {
+            Window current = head.get();
+            int index = current.indexOf(messageID);
+            if (index < 0) {
+                return -1;
+            }
+            if (head.compareAndSet(current, current.withHidden(index, hidden))) {
+                return current.firstSequence() + index;
+            }
+        }
+    }
+
+    // Returns the messages of the window in [fromSequence, fromSequence + count)
+    // INPUT: fromSequence (long), count (int)
+    // OUTPUT: List of messages, empty if the range is not in the window
+    public List<Message> range(long fromSequence, int count) {
+        Window window = head.get();
+        long from = Math.max(fromSequence, window.firstSequence());
+        long to = Math.min(fromSequence + count, window.nextSequence);
+        List<Message> result = new ArrayList<>((int) Math.max(0, to - from));
+        for (long sequence = from; sequence < to; sequence++) {
+            result.add(window.get((int) (sequence - window.firstSequence())));
+        }
+        return result;
+    }
+
+    // True if every message in [fromSequence, fromSequence + count) that exists is in the window
+    public boolean covers(long fromSequence, int count) {
+        return count <= 0 || Math.max(1, fromSequence) >= firstSequence();
+    }
+
+    // Returns an immutable view of the window as it is now; later appends do not change it
+    public List<Message> snapshot() {
+        return new Snapshot(head.get());
+    }
+
+    // Sequence number of the oldest message in the window (lastSequence() + 1 when empty)
+    public long firstSequence() {
+        return head.get().firstSequence();
+    }
+
+    // Sequence number of the newest message ever appended, 0 if none
+    public long lastSequence() {
+        return head.get().nextSequence - 1;
+    }
+
+    // Returns the timestamp of the newest message, or -1 if empty
+    public long lastTimestamp() {
+        Window window = head.get();
+        return window.size == 0 ? -1 : window.timestampAt(window.size - 1);
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public Message get(int index) {
+        return head.get().get(index);
+    }
+
+    @Override
+    public int size() {
+        return head.get().size;
+    }
+
+    // Iterates a snapshot, so iterating while other threads append never fails
+    @Override
+    public Iterator<Message> iterator() {
+        return snapshot().iterator();
+    }
+
+    // Writes only the messages of the current snapshot, oldest first
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        Window window = head.get();
+        out.defaultWriteObject();
+        out.writeLong(window.nextSequence);
+        out.writeInt(window.size);
+        for (int i = 0; i < window.size; i++) {
+            Segment segment = window.segmentOf(i);
+            int pos = window.positionOf(i);
+            out.writeInt(segment.messageIDs[pos]);
+            out.writeInt(segment.senderIDs[pos]);
+            out.writeLong(segment.timestamps[pos]);
+            out.writeByte(segment.flags[pos]);
+            byte[] content = segment.contentAt(pos);
+            out.writeInt(content.length);
+            out.write(content);
+        }
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        arena = defaultArena;
+        windowSize = defaultWindowSize;
+        long nextSequence = in.readLong();
+        int count = in.readInt();
+        int skip = Math.max(0, count - windowSize); // the window may be smaller than when the log was written
+        Window window = Window.empty(nextSequence - count + skip);
+        for (int i = 0; i < count; i++) {
+            int messageID = in.readInt();
+            int senderID = in.readInt();
+            long timestamp = in.readLong();
+            byte flag = in.readByte();
+            byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            if (i >= skip) {
+                Message message = new Message(messageID, senderID, content, timestamp, flag);
+                window = window.append(toEntry(message), windowSize);
+            }
+        }
+        head = new AtomicReference<>(window);
+    }
+
+    // The columns of one message before it is placed in a segment
+    private record Entry(int messageID, int senderID, long timestamp, byte flags, byte[] content,
+                         OffHeapArena.Chunk chunk, int offset) {
+        void release() {
+            if (chunk != null) {
+                chunk.release();
+            } else if ((flags & Message.FLAG_SHARED) != 0) {
+                BlobPool.shared().release(content);
+            }
+        }
+    }
+
+    /**
+     * Up to SEGMENT_SIZE messages in columns. Segments are never modified once
+     * published; every change builds a new segment (sharing untouched columns).
+     */
+    private static final class Segment {
+        static final Segment EMPTY = new Segment(new int[0], new int[0], new long[0], new byte[0][], new byte[0], null, null);
+
+        final int[] messageIDs;
+        final int[] senderIDs;
+        final long[] timestamps;
+        final byte[][] contents; // null entries live off-heap
+        final byte[] flags;
+        final OffHeapArena.Chunk[] chunks; // null until a body of the segment goes off-heap
+        final int[] offsets;
+
+        Segment(int[] messageIDs, int[] senderIDs, long[] timestamps, byte[][] contents, byte[] flags,
+                OffHeapArena.Chunk[] chunks, int[] offsets) {
+            this.messageIDs = messageIDs;
+            this.senderIDs = senderIDs;
+            this.timestamps = timestamps;
+            this.contents = contents;
+            this.flags = flags;
+            this.chunks = chunks;
+            this.offsets = offsets;
+        }
+
+        int count() {
+            return messageIDs.length;
+        }
+
+        // Returns a copy of this segment with one more message at the end
+        Segment append(Entry entry) {
+            int n = count();
+            int[] ids = Arrays.copyOf(messageIDs, n + 1);
+            int[] senders = Arrays.copyOf(senderIDs, n + 1);
+            long[] times = Arrays.copyOf(timestamps, n + 1);
+            byte[][] bodies = Arrays.copyOf(contents, n + 1);
+            byte[] flagsCopy = Arrays.copyOf(flags, n + 1);
+            OffHeapArena.Chunk[] chunksCopy = chunks;
+            int[] offsetsCopy = offsets;
+            if (chunks != null || entry.chunk() != null) {
+                chunksCopy = chunks != null ? Arrays.copyOf(chunks, n + 1) : new OffHeapArena.Chunk[n + 1];
+                offsetsCopy = offsets != null ? Arrays.copyOf(offsets, n + 1) : new int[n + 1];
+                chunksCopy[n] = entry.chunk();
+                offsetsCopy[n] = entry.offset();
+            }
+            ids[n] = entry.messageID();
+            senders[n] = entry.senderID();
+            times[n] = entry.timestamp();
+            bodies[n] = entry.content();
+            flagsCopy[n] = entry.flags();
+            return new Segment(ids, senders, times, bodies, flagsCopy, chunksCopy, offsetsCopy);
+        }
+
+        // Returns a copy of this segment with one message's hidden flag changed
+        Segment withHidden(int pos, boolean hidden) {
+            byte[] flagsCopy = flags.clone();
+            flagsCopy[pos] = (byte) (hidden ? flagsCopy[pos] | Message.FLAG_HIDDEN : flagsCopy[pos] & ~Message.FLAG_HIDDEN);
+            return new Segment(messageIDs, senderIDs, timestamps, contents, flagsCopy, chunks, offsets);
+        }
+
+        // Returns the body at a position, decoding it from direct memory if needed
+        byte[] contentAt(int pos) {
+            byte[] content = contents[pos];
+            return content != null ? content : chunks[pos].read(offsets[pos]);
+        }
+
+        // Gives the direct memory of a body back to the arena, or its reference back to the pool
+        void release(int pos) {
+            if (chunks != null && chunks[pos] != null) {
+                chunks[pos].release();
+            } else if ((flags[pos] & Message.FLAG_SHARED) != 0) {
+                BlobPool.shared().release(contents[pos]);
+            }
+        }
+    }
+
+    /**
+     * One immutable state of the log: the segment table, how many messages at
+     * the front of the first segment were evicted, and the next sequence number.
+     */
+    private static final class Window {
+        private static final Segment[] NO_SEGMENTS = new Segment[0];
+
+        final Segment[] segments;
+        final int skip; // evicted messages at the start of segments[0]
+        final int size;
+        final long nextSequence;
+
+        Window(Segment[] segments, int skip, int size, long nextSequence) {
+            this.segments = segments;
+            this.skip = skip;
+            this.size = size;
+            this.nextSequence = nextSequence;
+        }
+
+        static Window empty(long nextSequence) {
+            return new Window(NO_SEGMENTS, 0, 0, nextSequence);
+        }
+
+        long firstSequence() {
+            return nextSequence - size;
+        }
+
+        Segment segmentOf(int index) {
+            return segments[(skip + index) >> SEGMENT_SHIFT];
+        }
+
+        int positionOf(int index) {
+            return (skip + index) & (SEGMENT_SIZE - 1);
+        }
+
+        long timestampAt(int index) {
+            return segmentOf(index).timestamps[positionOf(index)];
+        }
+
+        // Returns the window with the entry appended, evicting the oldest message when full
+        Window append(Entry entry, int windowSize) {
+            Segment[] table = segments;
+            int newSkip = skip;
+            int newSize = size + 1;
+            if (size >= windowSize) {
+                newSize = size;
+                newSkip++;
+                if (newSkip == SEGMENT_SIZE) {
+                    table = Arrays.copyOfRange(table, 1, table.length); // first segment fully evicted
+                    newSkip = 0;
+                }
+            }
+            Segment last = table.length > 0 ? table[table.length - 1] : null;
+            if (last == null || last.count() == SEGMENT_SIZE) {
+                table = Arrays.copyOf(table, table.length + 1);
+                table[table.length - 1] = Segment.EMPTY.append(entry);
+            } else {
+                table = table == segments ? table.clone() : table;
+                table[table.length - 1] = last.append(entry);
+            }
+            return new Window(table, newSkip, newSize, nextSequence + 1);
+        }
+
+        // Returns the window with one message's hidden flag changed
+        Window withHidden(int index, boolean hidden) {
+            Segment[] table = segments.clone();
+            int s = (skip + index) >> SEGMENT_SHIFT;
+            table[s] = table[s].withHidden(positionOf(index), hidden);
+            return new Window(table, skip, size, nextSequence);
+        }
+
+        int indexOf(int messageID) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (segmentOf(i).messageIDs[positionOf(i)] == messageID) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Message get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            Segment segment = segmentOf(index);
+            int pos = positionOf(index);
+            return new Message(segment.messageIDs[pos], segment.senderIDs[pos], segment.contentAt(pos),
+                    segment.timestamps[pos], segment.flags[pos], firstSequence() + index);
+        }
+
+        void release(int index) {
+            segmentOf(index).release(positionOf(index));
+        }
+
+        void releaseAll() {
+            for (int i = 0; i < size; i++) {
+                release(i);
+            }
+        }
+    }
+
+    // Read-only list over one Window
+    private static final class Snapshot extends AbstractList<Message> implements RandomAccess {
+        private final Window window;
+
+        Snapshot(Window window) {
+            this.window = window;
+        }
+
+        @Override
+        public Message get(int index) {
+            return window.get(index);
+        }
+
+        @Override
+        public int size() {
+            return window.size;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package Common.ChatBox;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OffHeapArena hands out space for message bodies in direct ByteBuffer chunks
+ * that live outside the Java heap, so large histories do not add to GC work.
+ * Chunks are filled with a bump pointer; a chunk's bytes are given back to
+ * the budget once every body stored in it has been released (the chunk being
+ * filled included, so logs that are closed leave nothing reserved).
+ * When the budget is used up, allocate returns null and callers keep the body
+ * on the heap instead.
+ */
+public class OffHeapArena {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20; // 1 MB
+
+    private final long budgetBytes;
+    private final int chunkSize;
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong storedBodies = new AtomicLong();
+    private final AtomicLong heapFallbacks = new AtomicLong();
+    private Chunk current;
+
+    // Constructor
+    // INPUT: budgetBytes (long) maximum direct memory to reserve, chunkSize (int) size of each direct buffer
+    public OffHeapArena(long budgetBytes, int chunkSize) {
+        if (chunkSize <= Integer.BYTES) {
+            throw new IllegalArgumentException("chunkSize too small: " + chunkSize);
+        }
+        this.budgetBytes = budgetBytes;
+        this.chunkSize = chunkSize;
+    }
+
+    public OffHeapArena(long budgetBytes) {
+        this(budgetBytes, DEFAULT_CHUNK_SIZE);
+    }
+
+    // Copies a body into the arena
+    // INPUT: content (byte[])
+    // OUTPUT: Slice (chunk and offset) holding the body, or null if it must stay on the heap
+    public synchronized Slice allocate(byte[] content) {
+        int needed = Integer.BYTES + content.length; // length prefix + body
+        if (needed > chunkSize) {
+            heapFallbacks.incrementAndGet();
+            return null;
+        }
+        if (current == null || current.remaining() < needed) {
+            if (current != null) {
+                current.retire();
+            }
+            if (reservedBytes.get() + chunkSize > budgetBytes) {
+                current = null;
+                heapFallbacks.incrementAndGet();
+                return null;
+            }
+            reservedBytes.addAndGet(chunkSize);
+            current = new Chunk(ByteBuffer.allocateDirect(chunkSize));
+        }
+        storedBodies.incrementAndGet();
+        return new Slice(current, current.write(content));
+    }
+
+    // Direct memory currently reserved by the arena
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    // Number of bodies currently stored off-heap
+    public long getStoredBodies() {
+        return storedBodies.get();
+    }
+
+    // Number of bodies that did not fit in the budget and were kept on the heap
+    public long getHeapFallbacks() {
+        return heapFallbacks.get();
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapArena[reserved=" + reservedBytes.get() + "/" + budgetBytes
+                + " bytes, bodies=" + storedBodies.get() + ", heapFallbacks=" + heapFallbacks.get() + "]";
+    }
+
+    // Where a body was stored: the chunk and the offset of its length prefix
+    public record Slice(Chunk chunk, int offset) {
+    }
+
+    /**
+     * One direct buffer. Bodies are written as [int length][bytes]. Readers use
+     * absolute gets only, so any number of threads can decode concurrently.
+     * Readers that still reference a released chunk keep the buffer alive, so
+     * a chunk is never reused, only dropped for the GC to free.
+     */
+    public final class Chunk {
+        private final ByteBuffer buffer;
+        private final AtomicInteger live = new AtomicInteger();
+        private int writeOffset;
+        private volatile boolean retired;
+        private boolean freed; // guarded by the arena lock
+
+        private Chunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private int remaining() {
+            return buffer.capacity() - writeOffset;
+        }
+
+        private int write(byte[] content) {
+            int offset = writeOffset;
+            buffer.putInt(offset, content.length);
+            buffer.put(offset + Integer.BYTES, content);
+            writeOffset += Integer.BYTES + content.length;
+            live.incrementAndGet();
+            return offset;
+        }
+
+        private void retire() {
+            retired = true;
+            if (live.get() == 0) {
+                free();
+            }
+        }
+
+        // Gives the chunk's bytes back to the budget, called with the arena lock held
+        private void free() {
+            if (!freed) {
+                freed = true;
+                reservedBytes.addAndGet(-buffer.capacity());
+            }
+        }
+
+        // Copies the body stored at offset back onto the heap
+        public byte[] read(int offset) {
+            byte[] content = new byte[buffer.getInt(offset)];
+            buffer.get(offset + Integer.BYTES, content);
+            return content;
+        }
+
+        // Marks one body in this chunk as no longer used
+        public void release() {
+            storedBodies.decrementAndGet();
+            if (live.decrementAndGet() == 0) {
+                synchronized (OffHeapArena.this) {
+                    if (live.get() == 0 && (retired || current == this)) { // allocate may have written to it meanwhile
+                        if (current == this) {
+                            current = null; // the next body starts a new chunk
+                        }
+                        free();
+                    }
+                }
+            }
+        }
+    }
+}
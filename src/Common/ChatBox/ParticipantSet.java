@@ -0,0 +1,122 @@
+package Common.ChatBox;
+
+import Common.User.User;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * ParticipantSet is an immutable, sorted set of user IDs. It replaces the
+ * full User objects that used to be stored inside every ChatBox, so a chatbox
+ * only carries 4 bytes per participant on the heap, on disk and on the wire.
+ */
+public final class ParticipantSet implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final int[] NO_IDS = new int[0];
+    public static final ParticipantSet EMPTY = new ParticipantSet(NO_IDS);
+
+    // Sorted, duplicate free
+    private final int[] ids;
+
+    private ParticipantSet(int[] ids) {
+        this.ids = ids;
+    }
+
+    // Builds a set from the IDs of the given users
+    // INPUT: users (Collection<User>)
+    // OUTPUT: ParticipantSet
+    public static ParticipantSet of(Collection<? extends User> users) {
+        if (users == null || users.isEmpty()) {
+            return EMPTY;
+        }
+        int[] ids = new int[users.size()];
+        int i = 0;
+        for (User user : users) {
+            ids[i++] = user.getUserID();
+        }
+        return ofIds(ids);
+    }
+
+    // Builds a set from raw user IDs (duplicates are dropped)
+    // INPUT: ids (int[])
+    // OUTPUT: ParticipantSet
+    public static ParticipantSet ofIds(int... ids) {
+        if (ids.length == 0) {
+            return EMPTY;
+        }
+        int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        int size = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[size - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return new ParticipantSet(size == sorted.length ? sorted : Arrays.copyOf(sorted, size));
+    }
+
+    public boolean contains(int userID) {
+        return Arrays.binarySearch(ids, userID) >= 0;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    // Returns a set that also contains userID (this set if already present)
+    public ParticipantSet with(int userID) {
+        int index = Arrays.binarySearch(ids, userID);
+        if (index >= 0) {
+            return this;
+        }
+        int insertAt = -index - 1;
+        int[] grown = new int[ids.length + 1];
+        System.arraycopy(ids, 0, grown, 0, insertAt);
+        grown[insertAt] = userID;
+        System.arraycopy(ids, insertAt, grown, insertAt + 1, ids.length - insertAt);
+        return new ParticipantSet(grown);
+    }
+
+    // Returns a set without userID (this set if not present)
+    public ParticipantSet without(int userID) {
+        int index = Arrays.binarySearch(ids, userID);
+        if (index < 0) {
+            return this;
+        }
+        if (ids.length == 1) {
+            return EMPTY;
+        }
+        int[] shrunk = new int[ids.length - 1];
+        System.arraycopy(ids, 0, shrunk, 0, index);
+        System.arraycopy(ids, index + 1, shrunk, index, ids.length - index - 1);
+        return new ParticipantSet(shrunk);
+    }
+
+    // Returns a copy of the IDs in ascending order
+    public int[] toArray() {
+        return ids.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ParticipantSet other && Arrays.equals(ids, other.ids);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ids);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(ids);
+    }
+}
@@ -2,39 +2,68 @@ package Common.Message;
 
 import java.io.Serial;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 
 public class Message implements Serializable {
 	@Serial
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    // Bits of the packed flags byte
+    public static final byte FLAG_HIDDEN = 1;
+    public static final byte FLAG_SHARED = 2; // same body added to several chatboxes, stored once
+    private static final byte[] NO_CONTENT = new byte[0];
+
 	// Attributes
 	private static int count = 0;
     private final int messageID;
     private final int senderID;
-    private final String content;
-    private final LocalDateTime timestamp; // immutable once set
-    private boolean hidden;
+    private final byte[] content; // UTF-8, decoded on access
+    private final long timestamp; // epoch millis, immutable once set
+    private byte flags;
+    private final long sequence; // position in its chatbox, 0 until the server stores it
 
     // Constructor
     public Message(int senderID, String content) {
         this.messageID = ++count;
         this.senderID = senderID;
-        this.content = content;
-        this.timestamp = LocalDateTime.now(); // this creates a timestamp during creation of message that can NOT be changed 
-        this.hidden = false;
+        this.content = content.getBytes(StandardCharsets.UTF_8);
+        this.timestamp = System.currentTimeMillis(); // this creates a timestamp during creation of message that can NOT be changed
+        this.flags = 0;
+        this.sequence = 0;
     }
 
     public Message(Message message) {
         this.messageID = ++count;
         this.senderID = message.senderID;
-        this.content = message.content;
+        this.content = message.content; // content bytes are never modified, safe to share
         this.timestamp = message.timestamp; // this creates a timestamp during creation of message that can NOT be changed
-        this.hidden = message.hidden;
+        this.flags = message.flags;
+        this.sequence = 0; // the copy gets its own place when stored
+    }
+
+    // Rebuilds a message from its stored fields (used by compact message stores, does not consume an ID)
+    // INPUT: messageID (int), senderID (int), content (UTF-8 byte[]), timestamp (epoch millis), flags (byte)
+    public Message(int messageID, int senderID, byte[] content, long timestamp, byte flags) {
+        this(messageID, senderID, content, timestamp, flags, 0);
+    }
+
+    // Same as above for a message that already has a sequence number in its chatbox
+    // INPUT: ..., sequence (long)
+    public Message(int messageID, int senderID, byte[] content, long timestamp, byte flags, long sequence) {
+        this.messageID = messageID;
+        this.senderID = senderID;
+        this.content = content;
+        this.timestamp = timestamp;
+        this.flags = flags;
+        this.sequence = sequence;
     }
 
     // Getters and Setters
-    // NOTE: we ONLY have getters for messageID, senderID, content + timestamp since they are immutable once created 
-    // only "hidden" can be changed 
+    // NOTE: we ONLY have getters for messageID, senderID, content + timestamp since they are immutable once created
+    // only "hidden" can be changed
     public int getMessageID() {
         return messageID;
     }
@@ -44,24 +73,65 @@ public class Message implements Serializable {
     }
 
     public String getContent() {
+        return new String(content, StandardCharsets.UTF_8);
+    }
+
+    // Returns the raw UTF-8 content without decoding it (callers must not modify the array)
+    public byte[] getContentBytes() {
         return content;
     }
 
     public LocalDateTime getTimestamp() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+    }
+
+    public long getTimestampMillis() {
         return timestamp;
     }
 
+    // Sequence number of the message in its chatbox (1, 2, 3, ...), 0 if not stored yet
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Returns the same message placed at a sequence number (content is shared, not copied)
+    // INPUT: sequence (long)
+    // OUTPUT: Message
+    public Message withSequence(long sequence) {
+        return new Message(messageID, senderID, content, timestamp, flags, sequence);
+    }
+
+    // Returns the same message marked as added to several chatboxes
+    // OUTPUT: Message
+    public Message asShared() {
+        return new Message(messageID, senderID, content, timestamp, (byte) (flags | FLAG_SHARED), sequence);
+    }
+
+    // Returns the message without its body, as users who may not read hidden messages get it;
+    // it keeps its ID, sender, time and sequence so the chatbox has no gap where it was
+    // OUTPUT: Message
+    public Message tombstone() {
+        return new Message(messageID, senderID, NO_CONTENT, timestamp, (byte) ((flags | FLAG_HIDDEN) & ~FLAG_SHARED), sequence);
+    }
+
+    public boolean isShared() {
+        return (flags & FLAG_SHARED) != 0;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
 
     public boolean isHidden() {
-        return hidden;
+        return (flags & FLAG_HIDDEN) != 0;
     }
 
     public void setHidden(boolean hidden) {
-        this.hidden = hidden;
+        this.flags = (byte) (hidden ? flags | FLAG_HIDDEN : flags & ~FLAG_HIDDEN);
     }
 
     @Override
     public String toString() {
-        return  content;
+        return  getContent();
     }
 }
@@ -20,5 +20,22 @@ public enum MessageType {
     REQUEST_CHATBOX_LIST,
     RETURN_CHATBOX_LIST,
     HIDE_CHATBOX,
-    UNHIDE_CHATBOX;
+    UNHIDE_CHATBOX,
+    REQUEST_CHAT_HISTORY,
+    RETURN_CHAT_HISTORY,
+    SEND_BROADCAST,
+    NEW_MESSAGES,
+    REQUEST_CATCH_UP,
+    RETURN_CATCH_UP,
+    THROTTLED,
+    MESSAGE_ACK,
+    MARK_READ,
+    UNREAD_UPDATE,
+    UNREAD_COUNTS,
+    PRESENCE_UPDATE,
+    RESUME_SESSION,
+    SESSION_RESUMED,
+    LOGIN_QUEUED,
+    REQUEST_INBOX,
+    RETURN_INBOX;
 }
@@ -0,0 +1,15 @@
+package Common.Messages;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+import java.util.Map;
+
+// Asks for the messages a client missed: the last sequence number it has of each chatbox (0 if none)
+public record AskCatchUp(Map<Integer, Long> lastSequences) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.REQUEST_CATCH_UP;
+
+    public MessageType getType() {
+        return type;
+    }
+}
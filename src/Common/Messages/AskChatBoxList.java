@@ -6,8 +6,30 @@ import java.io.Serializable;
 
 public class AskChatBoxList implements MessageInterface, Serializable {
     private static final MessageType type = MessageType.REQUEST_CHATBOX_LIST;
+    public static final int PAGE_SIZE = 200;
+    public static final int FIRST_PAGE = -1; // before every ID, the system chatbox 0 included
+    private final int afterChatBoxID; // the page starts after this ID, FIRST_PAGE for the first page
+    private final int limit;
+
+    // Asks for the first page
+    public AskChatBoxList() {
+        this(FIRST_PAGE, PAGE_SIZE);
+    }
+
+    public AskChatBoxList(int afterChatBoxID, int limit) {
+        this.afterChatBoxID = afterChatBoxID;
+        this.limit = limit;
+    }
+
+    public int getAfterChatBoxID() {
+        return afterChatBoxID;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
 
     public MessageType getType() {
         return type;
     }
-}
\ No newline at end of file
+}
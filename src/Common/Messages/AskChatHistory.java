@@ -0,0 +1,14 @@
+package Common.Messages;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+
+// Asks for up to limit messages of a chatbox sent before the given sequence number
+public record AskChatHistory(int chatBoxID, long beforeSequence, int limit) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.REQUEST_CHAT_HISTORY;
+
+    public MessageType getType() {
+        return type;
+    }
+}
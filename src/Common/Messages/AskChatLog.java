@@ -1,13 +1,36 @@
 package Common.Messages;
 
+import Common.Message.Message;
 import Common.MessageInterface;
 import Common.MessageType;
 import java.io.Serializable;
 
-public record AskChatLog(int chatBoxID) implements MessageInterface, Serializable {
+// Asks for the next chunk of a chatbox log, starting at fromSequence and keeping only the messages that match the filters
+// fromMillis/toMillis bound the timestamp (-1 for no bound), senderID is -1 for any sender
+// requestID is chosen by the client and kept across continuations, the server echoes it in each ChatLogChunk
+public record AskChatLog(int chatBoxID, long fromSequence, long fromMillis, long toMillis, int senderID,
+                         boolean includeHidden, long requestID) implements MessageInterface, Serializable {
     private static final MessageType type = MessageType.VIEW_CHATBOX_LOG;
 
+    // Asks for the whole log from the start
+    public AskChatLog(int chatBoxID) {
+        this(chatBoxID, 1, -1, -1, -1, true, 0);
+    }
+
+    // The same request, continued at the given sequence
+    public AskChatLog continueAt(long sequence) {
+        return new AskChatLog(chatBoxID, sequence, fromMillis, toMillis, senderID, includeHidden, requestID);
+    }
+
+    // True if the message passes the filters
+    public boolean matches(Message message) {
+        return (includeHidden || !message.isHidden())
+                && (senderID < 0 || message.getSenderID() == senderID)
+                && (fromMillis < 0 || message.getTimestampMillis() >= fromMillis)
+                && (toMillis < 0 || message.getTimestampMillis() <= toMillis);
+    }
+
     public MessageType getType() {
         return type;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,22 @@
+package Common.Messages;
+
+import Common.ChatBox.ChatBoxSummary;
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+
+// Asks for the next page of the user's own chatboxes, newest activity first, continuing after the
+// last chatbox of the previous page (its last activity and ID)
+public record AskInbox(long afterActivityMillis, int afterChatBoxID, int limit) implements MessageInterface, Serializable {
+    public static final int PAGE_SIZE = 100;
+    private static final MessageType type = MessageType.REQUEST_INBOX;
+
+    // The page after the given chatbox
+    public AskInbox(ChatBoxSummary last) {
+        this(last.lastUpdatedMillis(), last.chatBoxID(), PAGE_SIZE);
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+}
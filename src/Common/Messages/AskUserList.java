@@ -6,8 +6,15 @@ import Common.MessageInterface;
 import Common.MessageType;
 
 
-public record AskUserList() implements MessageInterface,Serializable {
+// Asks for a page of users whose name starts with prefix, after the cursor of the previous page (null for the first page)
+public record AskUserList(String prefix, String after, int limit) implements MessageInterface,Serializable {
     private static final MessageType type = MessageType.REQUEST_USER_LIST;
+    public static final int PAGE_SIZE = 100;
+
+    // Asks for the first page of all users
+    public AskUserList() {
+        this("", null, PAGE_SIZE);
+    }
 
     public MessageType getType() {
         return type;
@@ -0,0 +1,23 @@
+package Common.Messages;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+
+// One bounded part of a chatbox log. Unless it is the last one, the client asks for the next part with
+// AskChatLog.continueAt(nextSequence), so the server never holds more than one chunk of a log.
+// requestID and fromSequence echo the request the chunk answers.
+public record ChatLogChunk(int chatBoxID, long requestID, long fromSequence, String text, long nextSequence,
+                           boolean last) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.RETURN_CHATBOX_LOG;
+
+    // True if this chunk is the answer to the given request, and not to an older one
+    public boolean answers(AskChatLog request) {
+        return chatBoxID == request.chatBoxID() && requestID == request.requestID()
+                && fromSequence == request.fromSequence();
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+}
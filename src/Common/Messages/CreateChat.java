@@ -2,12 +2,12 @@ package Common.Messages;
 
 import Common.MessageInterface;
 import Common.MessageType;
-import Common.User.User;
+import Common.User.UserView;
 
 import java.util.List;
 import java.io.Serializable;
 
-public record CreateChat(List<User> participants, String name) implements MessageInterface,Serializable {
+public record CreateChat(List<UserView> participants, String name) implements MessageInterface,Serializable {
     private static final MessageType type = MessageType.CREATE_CHATBOX;
     public MessageType getType() {
         return type;
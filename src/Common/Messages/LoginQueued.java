@@ -0,0 +1,15 @@
+package Common.Messages;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+
+// Tells a client its login is waiting behind others: its place in the queue (1 = next) and a rough
+// wait in milliseconds (0 if unknown); the LoginResponse follows when the login has run
+public record LoginQueued(int position, long estimatedWaitMillis) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.LOGIN_QUEUED;
+
+    public MessageType getType() {
+        return type;
+    }
+}
@@ -3,27 +3,23 @@ package Common.Messages;
 import Common.MessageInterface;
 import Common.MessageType;
 import Common.User.User;
-import Common.ChatBox.ChatBox;
+import Common.ChatBox.ChatBoxSummary;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.io.Serializable;
 
-public record LoginResponse(User user, List<ChatBox> chatBoxList) implements MessageInterface,Serializable {
+// chatBoxList is the first page of the user's chatboxes, newest activity first, and moreChatBoxes tells
+// whether to ask for the next one (AskInbox); sessionToken lets the client resume the session after a
+// reconnect, null for a failed login
+public record LoginResponse(User user, List<ChatBoxSummary> chatBoxList, String sessionToken, boolean moreChatBoxes) implements MessageInterface,Serializable {
     private static final MessageType type = MessageType.LOGIN_RESPONSE;
 
-    public LoginResponse(User user, List<ChatBox> chatBoxList) {
-        this.user = user;
-        this.chatBoxList = new ArrayList<>();
-        
-        if (chatBoxList != null)
-        {
-        	for (ChatBox chatBox : chatBoxList) {
-                this.chatBoxList.add(chatBox.getEmpty());
-            }
-        }
-        
+    public LoginResponse {
+        chatBoxList = chatBoxList != null ? List.copyOf(chatBoxList) : List.of();
+    }
 
+    public LoginResponse(User user, List<ChatBoxSummary> chatBoxList) {
+        this(user, chatBoxList, null, false);
     }
 
     public MessageType getType() {
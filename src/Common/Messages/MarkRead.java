@@ -0,0 +1,14 @@
+package Common.Messages;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+
+// Tells the server the user has read a chatbox up to and including the given sequence
+public record MarkRead(int chatBoxID, long sequence) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.MARK_READ;
+
+    public MessageType getType() {
+        return type;
+    }
+}
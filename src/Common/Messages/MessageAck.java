@@ -0,0 +1,14 @@
+package Common.Messages;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+
+// Confirms that a SendMessage was accepted; duplicate is true when it had already been accepted before
+public record MessageAck(long submissionID, int chatBoxID, boolean duplicate) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.MESSAGE_ACK;
+
+    public MessageType getType() {
+        return type;
+    }
+}
@@ -0,0 +1,20 @@
+package Common.Messages;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+import java.util.Map;
+
+// Resumes a session after a reconnect instead of logging in again: the token from the last
+// LoginResponse or SessionResumed, and the last sequence number the client has of each chatbox
+public record ResumeSession(String token, Map<Integer, Long> lastSequences) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.RESUME_SESSION;
+
+    public ResumeSession {
+        lastSequences = lastSequences != null ? Map.copyOf(lastSequences) : Map.of();
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+}
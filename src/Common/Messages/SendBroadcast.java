@@ -0,0 +1,15 @@
+package Common.Messages;
+
+import Common.Message.Message;
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+
+// One message added to several chatboxes at once; sequences[i] is its place in chatBoxIDs[i]
+public record SendBroadcast(Message message, int[] chatBoxIDs, long[] sequences) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.SEND_BROADCAST;
+
+    public MessageType getType() {
+        return type;
+    }
+}
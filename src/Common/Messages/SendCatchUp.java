@@ -0,0 +1,38 @@
+package Common.Messages;
+
+import Common.Message.Message;
+import Common.MessageInterface;
+import Common.MessageType;
+import Common.User.UserView;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// The messages of each requested chatbox after the sequence the client reported, in one batch,
+// with the participants needed to display them, and which of the messages the client already
+// has are hidden now (hiding a message does not give it a new sequence)
+public record SendCatchUp(Map<Integer, List<Message>> missed, Map<Integer, Hidden> hidden, List<UserView> participants) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.RETURN_CATCH_UP;
+
+    // The hidden messages among [fromSequence, toSequence], in ascending order
+    public record Hidden(long fromSequence, long toSequence, long[] sequences) implements Serializable {
+
+        // True if the hidden flags of the given messages in the range are the ones listed
+        // INPUT: messages (List<Message>) carrying their sequence numbers
+        public boolean matches(List<Message> messages) {
+            for (Message message : messages) {
+                long sequence = message.getSequence();
+                if (sequence >= fromSequence && sequence <= toSequence
+                        && message.isHidden() != (Arrays.binarySearch(sequences, sequence) >= 0)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+}
@@ -3,9 +3,12 @@ package Common.Messages;
 import Common.MessageInterface;
 import Common.MessageType;
 import Common.ChatBox.ChatBox;
+import Common.User.UserView;
+
+import java.util.List;
 import java.io.Serializable;
 
-public record SendChatBox(ChatBox chatBox) implements MessageInterface,Serializable {
+public record SendChatBox(ChatBox chatBox, List<UserView> participants) implements MessageInterface,Serializable {
     private static final MessageType type = MessageType.RETURN_CHATBOX;
 
     public MessageType getType() {
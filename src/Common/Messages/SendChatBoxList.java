@@ -1,6 +1,6 @@
 package Common.Messages;
 
-import Common.ChatBox.ChatBox;
+import Common.ChatBox.ChatBoxSummary;
 import Common.MessageInterface;
 import Common.MessageType;
 import java.io.Serializable;
@@ -8,17 +8,29 @@ import java.util.List;
 
 public class SendChatBoxList implements MessageInterface, Serializable {
     private static final MessageType type = MessageType.RETURN_CHATBOX_LIST;
-    private final List<ChatBox> chatBoxes;
+    private final List<ChatBoxSummary> chatBoxes; // ordered by chatBoxID
+    private final int afterChatBoxID; // echoed from the request
+    private final boolean hasMore; // true if chatboxes after the last one in this page exist
 
-    public SendChatBoxList(List<ChatBox> chatBoxes) {
+    public SendChatBoxList(List<ChatBoxSummary> chatBoxes, int afterChatBoxID, boolean hasMore) {
         this.chatBoxes = chatBoxes;
+        this.afterChatBoxID = afterChatBoxID;
+        this.hasMore = hasMore;
     }
 
-    public List<ChatBox> getChatBoxes() {
+    public List<ChatBoxSummary> getChatBoxes() {
         return chatBoxes;
     }
 
+    public int getAfterChatBoxID() {
+        return afterChatBoxID;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
     public MessageType getType() {
         return type;
     }
-}
\ No newline at end of file
+}
@@ -1,11 +1,14 @@
 package Common.Messages;
 
+import Common.Message.Message;
 import Common.MessageInterface;
 import Common.MessageType;
 import java.io.Serializable;
+import java.util.List;
 
-public record SendChatLog(String chatBoxLog) implements MessageInterface,Serializable {
-    private static final MessageType type = MessageType.RETURN_CHATBOX_LOG;
+// A page of older messages of a chatbox, in sequence order
+public record SendChatHistory(int chatBoxID, List<Message> messages) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.RETURN_CHAT_HISTORY;
 
     public MessageType getType() {
         return type;
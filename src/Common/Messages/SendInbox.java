@@ -0,0 +1,20 @@
+package Common.Messages;
+
+import Common.ChatBox.ChatBoxSummary;
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+import java.util.List;
+
+// One page of the user's own chatboxes, newest activity first; hasMore if another page follows
+public record SendInbox(List<ChatBoxSummary> chatBoxes, boolean hasMore) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.RETURN_INBOX;
+
+    public SendInbox {
+        chatBoxes = List.copyOf(chatBoxes);
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+}
@@ -1,14 +1,25 @@
-
 package Common.Messages;
 
 import Common.MessageInterface;
 import Common.MessageType;
 import Common.Message.Message;
 import java.io.Serializable;
+import java.util.UUID;
 
-public record SendMessage(Message message, int chatBoxID) implements MessageInterface,Serializable {
+// submissionID is chosen by the client and stays the same when the message is sent again,
+// so the server can recognise a retry
+public record SendMessage(Message message, int chatBoxID, long submissionID) implements MessageInterface,Serializable {
     private static final MessageType type = MessageType.SEND_MESSAGE;
 
+    public SendMessage(Message message, int chatBoxID) {
+        this(message, chatBoxID, newSubmissionID());
+    }
+
+    // Creates a submission ID that is unique across clients with overwhelming probability
+    public static long newSubmissionID() {
+        return UUID.randomUUID().getLeastSignificantBits();
+    }
+
     public MessageType getType() {
         return type;
     }
@@ -0,0 +1,16 @@
+package Common.Messages;
+
+import Common.Message.Message;
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+import java.util.List;
+
+// Messages appended to a chatbox after the ones the client already has, in sequence order
+public record SendNewMessages(int chatBoxID, List<Message> messages) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.NEW_MESSAGES;
+
+    public MessageType getType() {
+        return type;
+    }
+}
@@ -0,0 +1,17 @@
+package Common.Messages;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import Common.User.PresenceDelta;
+
+import java.io.Serializable;
+import java.util.List;
+
+// Presence changes of the users a session is showing, coalesced over one server tick
+public record SendPresence(List<PresenceDelta> deltas) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.PRESENCE_UPDATE;
+
+    public MessageType getType() {
+        return type;
+    }
+}
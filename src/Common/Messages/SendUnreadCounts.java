@@ -0,0 +1,15 @@
+package Common.Messages;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+import java.util.List;
+
+// The activity of every chatbox of a user, sent once after login
+public record SendUnreadCounts(List<UnreadUpdate> updates) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.UNREAD_COUNTS;
+
+    public MessageType getType() {
+        return type;
+    }
+}
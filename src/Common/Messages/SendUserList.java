@@ -2,12 +2,13 @@ package Common.Messages;
 
 import Common.MessageInterface;
 import Common.MessageType;
-import Common.User.User;
+import Common.User.UserView;
 
 import java.util.List;
 import java.io.Serializable;
 
-public record SendUserList(List<User> userList) implements MessageInterface,Serializable {
+// One page of the user directory; prefix and after are echoed from the request, next is null after the last page
+public record SendUserList(List<UserView> userList, String prefix, String after, String next) implements MessageInterface,Serializable {
     private static final MessageType type = MessageType.RETURN_USER_LIST;
 
     public MessageType getType() {
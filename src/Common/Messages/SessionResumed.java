@@ -0,0 +1,23 @@
+package Common.Messages;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import Common.User.User;
+import Common.ChatBox.ChatBoxSummary;
+
+import java.io.Serializable;
+import java.util.List;
+
+// Answer to ResumeSession: the user and a new token, plus the chatboxes the client did not report
+// (created while it was away); user is null if the session could not be resumed and the client must log in
+public record SessionResumed(User user, String sessionToken, List<ChatBoxSummary> newChatBoxes) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.SESSION_RESUMED;
+
+    public SessionResumed {
+        newChatBoxes = newChatBoxes != null ? List.copyOf(newChatBoxes) : List.of();
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+}
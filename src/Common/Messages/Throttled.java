@@ -0,0 +1,14 @@
+package Common.Messages;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+
+// Tells the client a request was dropped because it sent too many of that type; retry after the given delay
+public record Throttled(MessageType requestType, long retryAfterMillis) implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.THROTTLED;
+
+    public MessageType getType() {
+        return type;
+    }
+}
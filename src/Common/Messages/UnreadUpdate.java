@@ -0,0 +1,20 @@
+package Common.Messages;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import java.io.Serializable;
+
+// The activity of one chatbox for one user: its newest sequence and timestamp, and the last sequence
+// the user has read (unread = lastSequence - lastReadSequence)
+public record UnreadUpdate(int chatBoxID, long lastSequence, long lastReadSequence, long lastTimestamp)
+        implements MessageInterface, Serializable {
+    private static final MessageType type = MessageType.UNREAD_UPDATE;
+
+    public long unread() {
+        return Math.max(0, lastSequence - lastReadSequence);
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+}
@@ -0,0 +1,24 @@
+package Common.User;
+
+import java.io.Serializable;
+
+/**
+ * PresenceDelta is one change of a user's online or banned state, pushed by the
+ * server to the sessions that are showing that user.
+ */
+public record PresenceDelta(int userID, Kind kind) implements Serializable {
+
+    public enum Kind { ONLINE, OFFLINE, BANNED, UNBANNED }
+
+    // Applies the change to a view of the same user
+    // INPUT: view (UserView)
+    // OUTPUT: UserView with the changed flag
+    public UserView applyTo(UserView view) {
+        return switch (kind) {
+            case ONLINE -> new UserView(view.userID(), view.username(), view.banned(), true);
+            case OFFLINE -> new UserView(view.userID(), view.username(), view.banned(), false);
+            case BANNED -> new UserView(view.userID(), view.username(), true, view.online());
+            case UNBANNED -> new UserView(view.userID(), view.username(), false, view.online());
+        };
+    }
+}
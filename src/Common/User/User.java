@@ -13,8 +13,9 @@ public class User implements Serializable {
     private final int userID;
     private String username;
     private String password;
-    private transient boolean isOnline;
+    private transient volatile boolean isOnline; // presence lives in memory only
     private boolean isBanned;
+    private transient volatile boolean dirty; // a persisted field changed since the user was last saved
 
     // Constructor
     public User(String username, String password) {
@@ -39,7 +40,10 @@ public class User implements Serializable {
     }
 
     public void setUsername(String username) {
-        this.username = username;
+        if (!username.equals(this.username)) {
+            this.username = username;
+            dirty = true;
+        }
     }
 
     public String getPassword() {
@@ -47,7 +51,10 @@ public class User implements Serializable {
     }
 
     public void setPassword(String password) {
-        this.password = password;
+        if (!password.equals(this.password)) {
+            this.password = password;
+            dirty = true;
+        }
     }
 
     public boolean isOnline() {
@@ -67,7 +74,28 @@ public class User implements Serializable {
     }
 
     public void setBanned(boolean banned) {
-        isBanned = banned;
+        if (banned != isBanned) {
+            isBanned = banned;
+            dirty = true;
+        }
+    }
+
+    // True if the username, password or ban state changed since the user was last saved
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    // Clears the dirty flag before the user is saved
+    // OUTPUT: true if the user had unsaved changes
+    public boolean takeDirty() {
+        boolean wasDirty = dirty;
+        dirty = false;
+        return wasDirty;
+    }
+
+    // Marks the user as having unsaved changes (e.g. after a failed save)
+    public void markDirty() {
+        dirty = true;
     }
 
     @Override
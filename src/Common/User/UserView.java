@@ -0,0 +1,22 @@
+package Common.User;
+
+import java.io.Serializable;
+
+/**
+ * UserView is the compact, password free view of a User that the server sends
+ * to clients whenever they only need to display who someone is.
+ */
+public record UserView(int userID, String username, boolean banned, boolean online) implements Serializable {
+
+    // Creates a view of the given user
+    // INPUT: user (User)
+    // OUTPUT: UserView
+    public static UserView of(User user) {
+        return new UserView(user.getUserID(), user.getUsername(), user.isBanned(), user.isOnline());
+    }
+
+    @Override
+    public String toString() {
+        return username;
+    }
+}
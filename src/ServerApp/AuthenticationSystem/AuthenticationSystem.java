@@ -2,10 +2,17 @@ package ServerApp.AuthenticationSystem;
 
 import Common.Admin.Admin;
 import Common.User.User;
+import ServerApp.PasswordHasher.PasswordHasher;
+import ServerApp.PresenceService.PresenceService;
+import ServerApp.SessionTokens.SessionTokens;
+import ServerApp.UserDirectory.UserDirectory;
 
 import java.io.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.nio.file.*;
 
 /**
@@ -15,14 +22,33 @@ public class AuthenticationSystem {
     // Attributes
     public static ConcurrentHashMap<Integer, User> userDB;
     private final String usersDirectory;
+    private final UserDirectory directory; // usernames in sorted order
+    private volatile PresenceService presence; // null until the server publishes presence changes
+    private final PasswordHasher passwordHasher; // stored passwords are hashes, checked off the connection threads
+    private final SessionTokens sessionTokens; // let reconnecting clients resume without their password
 
     // Constructor
-    // Initializes AuthenticationSystem and loads existing users from files
+    // Initializes AuthenticationSystem with the default password hashing settings
     public AuthenticationSystem() {
+        this(new PasswordHasher());
+    }
+
+    // Initializes AuthenticationSystem with session tokens that last the default time
+    // INPUT: passwordHasher (PasswordHasher)
+    public AuthenticationSystem(PasswordHasher passwordHasher) {
+        this(passwordHasher, new SessionTokens());
+    }
+
+    // Initializes AuthenticationSystem and loads existing users from files
+    // INPUT: passwordHasher (PasswordHasher), sessionTokens (SessionTokens)
+    public AuthenticationSystem(PasswordHasher passwordHasher, SessionTokens sessionTokens) {
+        this.passwordHasher = passwordHasher;
+        this.sessionTokens = sessionTokens;
         this.usersDirectory = "users"; // Directory to store user files
         this.userDB = new ConcurrentHashMap<>();
         createUsersDirectory();
         loadUsersFromFiles(); // Load existing users from files
+        this.directory = new UserDirectory(userDB);
     }
 
     // Creates the users directory if it doesn't exist
@@ -38,10 +64,29 @@ public class AuthenticationSystem {
         }
     }
 
+    // Publishes online and banned changes through the given service
+    public void usePresence(PresenceService presence) {
+        this.presence = presence;
+    }
+
+    // Changes a user's online or banned state and tells the presence service
+    private void changePresence(User user, Runnable change) {
+        PresenceService presence = this.presence;
+        if (presence != null) {
+            presence.beforeChange(user);
+        }
+        change.run();
+        if (presence != null) {
+            presence.changed(user);
+        }
+    }
+
     public boolean banUser(int userID) {
         User userToBan = userDB.get(userID);
         if (userToBan != null && !userToBan.isBanned()) {
-            userToBan.setBanned(true);
+            changePresence(userToBan, () -> userToBan.setBanned(true));
+            sessionTokens.revokeAll(userID);
+            saveIfDirty(userToBan);
             return true;
         }
         return false;
@@ -50,7 +95,8 @@ public class AuthenticationSystem {
     public boolean unbanUser(int userID) {
         User userToUnban = userDB.get(userID);
         if (userToUnban != null && userToUnban.isBanned()) {
-            userToUnban.setBanned(false);
+            changePresence(userToUnban, () -> userToUnban.setBanned(false));
+            saveIfDirty(userToUnban);
             return true;
         }
         return false;
@@ -62,62 +108,166 @@ public class AuthenticationSystem {
     }
 
     
-    // Registers a user in the system
+    // Registers a user in the system, waiting for the password to be hashed
     public boolean registerUser(User user) {
-        if (user != null && !usernameExists(user.getUsername())) {
-            userDB.put(user.getUserID(), user);
-            saveUserToFile(user); // Save the user to its individual file
-            return true;
+        try {
+            return registerUserAsync(user).join();
+        } catch (CompletionException e) {
+            System.err.println("Could not register " + user.getUsername() + ": " + e.getCause());
+            return false;
         }
-        return false;
+    }
+
+    // Registers a user in the system; the password is hashed on the hashing pool
+    // INPUT: user (User) with a plain text (or already hashed) password
+    // OUTPUT: CompletableFuture, true if registered, false if the username exists; failed with
+    //         RejectedExecutionException when too many hashes are waiting
+    public CompletableFuture<Boolean> registerUserAsync(User user) {
+        if (user == null || usernameExists(user.getUsername())) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (passwordHasher.isHashed(user.getPassword())) {
+            return CompletableFuture.completedFuture(addUser(user));
+        }
+        return passwordHasher.hashAsync(user.getPassword()).thenApply(hash -> {
+            user.setPassword(hash);
+            return addUser(user);
+        });
+    }
+
+    // Adds a user whose password is hashed, unless another registration took the name meanwhile
+    private synchronized boolean addUser(User user) {
+        if (usernameExists(user.getUsername())) {
+            return false;
+        }
+        userDB.put(user.getUserID(), user);
+        directory.add(user);
+        user.takeDirty();
+        saveUserToFile(user); // Save the user to its individual file
+        return true;
     }
 
     // Finds a user by username
     public User findUserByUsername(String username) {
-        return userDB.values().stream()
-            .filter(u -> u.getUsername().equals(username))
-            .findFirst()
-            .orElse(null);
+        for (User user : directory.findByName(username)) {
+            if (user.getUsername().equals(username)) {
+                return user;
+            }
+        }
+        return null;
     }
 
     // Checks if a username already exists
     private boolean usernameExists(String username) {
-        return userDB.values().stream().anyMatch(u -> u.getUsername().equals(username));
+        return findUserByUsername(username) != null;
     }
 
-    // Validates user credentials during login
+    // Validates user credentials during login, waiting for the password check
     public User validateCredentials(String username, String password) {
-        for (User user : userDB.values()) {
-            if (user.getUsername().equalsIgnoreCase(username) && user.getPassword().equals(password)) {
+        try {
+            return validateCredentialsAsync(username, password).join();
+        } catch (CompletionException e) {
+            System.err.println("Could not check credentials of " + username + ": " + e.getCause());
+            return null;
+        }
+    }
+
+    // Validates user credentials during login; the password is checked on the hashing pool
+    // INPUT: username (String), password (String)
+    // OUTPUT: CompletableFuture with the user, null for wrong credentials or a double login, failed with
+    //         RejectedExecutionException when too many checks are waiting
+    public CompletableFuture<User> validateCredentialsAsync(String username, String password) {
+        List<User> candidates = directory.findByName(username); // names that differ only in case, usually one
+        CompletableFuture<User> found = CompletableFuture.completedFuture(null);
+        for (User candidate : candidates) {
+            String stored = candidate.getPassword();
+            found = found.thenCompose(match -> match != null ? CompletableFuture.completedFuture(match)
+                    : passwordHasher.verifyAsync(password, stored).thenApply(ok -> ok ? candidate : null));
+        }
+        return found.thenApply(user -> user != null ? admit(user, password) : null);
+    }
+
+    // Marks a user with verified credentials as online
+    private User admit(User user, String password) {
+        if (passwordHasher.needsRehash(user.getPassword())) {
+            user.setPassword(passwordHasher.hash(password)); // plain text or an older cost, replace it
+            saveIfDirty(user);
+        }
+        synchronized (user) {
 //            	 If the user is online already, reject double login
-            	if (user.isOnline()) {
-            		return null;
-            	}
-                if(!user.isBanned()) {
-                    user.setOnline(true);
-                    saveUserToFile(user);// Save updated user to file
-                }
-                return user;
+            if (user.isOnline()) {
+                return null;
+            }
+            if (!user.isBanned()) {
+                changePresence(user, () -> user.setOnline(true)); // in memory only, nothing to save
             }
         }
-        return null;
+        return user;
+    }
+
+    // Issues the token a session of the user can be resumed with after a reconnect
+    // INPUT: user (User) logged in
+    // OUTPUT: String token
+    public String issueSessionToken(User user) {
+        return sessionTokens.issue(user.getUserID());
+    }
+
+    // Resumes a session from its token, without checking the password; the token cannot be used again
+    // INPUT: token (String)
+    // OUTPUT: User, or null if the token is unknown, used or expired or the user is gone or banned
+    public User resumeSession(String token) {
+        int userID = sessionTokens.redeem(token);
+        User user = userID >= 0 ? userDB.get(userID) : null;
+        if (user == null || user.isBanned()) {
+            return null;
+        }
+        synchronized (user) {
+            if (!user.isOnline()) {
+                changePresence(user, () -> user.setOnline(true)); // in memory only, nothing to save
+            }
+        }
+        return user;
+    }
+
+    // Drops the token of a session that logged out
+    // INPUT: token (String), may be null
+    // OUTPUT: none
+    public void endSession(String token) {
+        sessionTokens.revoke(token);
     }
 
-    // Resets user password
+    // Resets user password, waiting for the new password to be hashed
     public boolean resetPassword(int userID, String newPassword) {
+        try {
+            return resetPasswordAsync(userID, newPassword).join();
+        } catch (CompletionException e) {
+            System.err.println("Could not reset the password of user " + userID + ": " + e.getCause());
+            return false;
+        }
+    }
+
+    // Resets user password; the new password is hashed on the hashing pool
+    // INPUT: userID (int), newPassword (String)
+    // OUTPUT: CompletableFuture, true if reset, false if the user does not exist; failed with
+    //         RejectedExecutionException when too many hashes are waiting
+    public CompletableFuture<Boolean> resetPasswordAsync(int userID, String newPassword) {
         User user = userDB.get(userID);
-        if (user != null) {
-            user.setPassword(newPassword);
-            saveUserToFile(user); // Save updated user to file
-            return true;
+        if (user == null) {
+            return CompletableFuture.completedFuture(false);
         }
-        return false;
+        return passwordHasher.hashAsync(newPassword).thenApply(hash -> {
+            user.setPassword(hash);
+            saveIfDirty(user);
+            sessionTokens.revokeAll(userID); // sessions opened with the old password must log in again
+            return true;
+        });
     }
 
     // Deletes a user from the system
     public boolean deleteUser(int userID) {
-        if (userDB.containsKey(userID)) {
-            userDB.remove(userID);
+        User removed = userDB.remove(userID);
+        if (removed != null) {
+            directory.remove(removed);
             deleteUserFile(userID); // Delete user's file
             return true;
         }
@@ -128,8 +278,7 @@ public class AuthenticationSystem {
     public boolean logout(int userID) {
         User user = userDB.get(userID);
         if (user != null && user.isOnline()) {
-            user.setOnline(false);
-            saveUserToFile(user); // Save updated user to file
+            changePresence(user, () -> user.setOnline(false)); // in memory only, nothing to save
             return true;
         }
         return false;
@@ -143,8 +292,15 @@ public class AuthenticationSystem {
     // Updates a user's information in the system
     public boolean updateUser(User user) {
         if (user != null && userDB.containsKey(user.getUserID())) {
-            userDB.put(user.getUserID(), user);
-            saveUserToFile(user); // Save updated user to file
+            User previous = userDB.put(user.getUserID(), user);
+            if (previous != null) {
+                directory.remove(previous); // the username may have changed
+            }
+            directory.add(user);
+            if (previous != user) {
+                user.markDirty(); // a different object, its file is out of date
+            }
+            saveIfDirty(user);
             return true;
         }
         return false;
@@ -155,19 +311,53 @@ public class AuthenticationSystem {
         return userDB.values();
     }
 
+    // Retrieves the session tokens
+    public SessionTokens getSessionTokens() {
+        return sessionTokens;
+    }
+
+    // Retrieves the password hasher
+    public PasswordHasher getPasswordHasher() {
+        return passwordHasher;
+    }
+
+    // Retrieves the sorted username index
+    public UserDirectory getDirectory() {
+        return directory;
+    }
+
     // Retrieves the user database
     public ConcurrentHashMap<Integer, User> getUserDB() {
         return userDB;
     }
 
+    // Saves a user if its username, password or ban state changed since it was last saved
+    // INPUT: user (User)
+    // OUTPUT: none
+    private void saveIfDirty(User user) {
+        if (user.takeDirty()) {
+            saveUserToFile(user);
+        }
+    }
+
     // Saves a single user to its individual file
+    // Writes go to a temporary file that replaces the old one, so a crash never leaves half a user
     private void saveUserToFile(User user) {
-        synchronized (this) { // Ensure thread safety during save
-            String fileName = usersDirectory + File.separator + user.getUserID(); // Filename is userID
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(fileName))) {
+        synchronized (user) { // one writer per user, users are saved independently
+            Path file = Paths.get(usersDirectory, String.valueOf(user.getUserID())); // Filename is userID
+            Path temp = Paths.get(usersDirectory, user.getUserID() + ".tmp");
+            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(temp.toFile()))) {
                 oos.writeObject(user);
             } catch (IOException e) {
-                e.printStackTrace();
+                user.markDirty(); // try again on the next change
+                System.err.println("Error saving user " + user.getUserID() + ": " + e.getMessage());
+                return;
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                user.markDirty();
+                System.err.println("Error saving user " + user.getUserID() + ": " + e.getMessage());
             }
         }
     }
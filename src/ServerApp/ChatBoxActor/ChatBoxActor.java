@@ -0,0 +1,187 @@
+package ServerApp.ChatBoxActor;
+
+import Common.ChatBox.ChatBox;
+import Common.Message.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * ChatBoxActor owns one ChatBox. Every change to the chatbox is posted to the
+ * actor's mailbox and applied by a single task on a shared pool, one mutation
+ * at a time and in the order it was posted. Mutations record what they did in
+ * a Tick; after each batch the actor hands the Tick to its TickListener once,
+ * so persistence and fan-out happen once per batch instead of once per message.
+ *
+ * An actor is only scheduled while its mailbox has work, so thousands of idle
+ * chatboxes cost nothing but their queue.
+ */
+public class ChatBoxActor implements Runnable {
+
+    public static final int MAX_BATCH = 64; // mutations applied before other actors get the thread
+
+    // Called after every batch with the effects of its mutations
+    public interface TickListener {
+        void afterTick(ChatBox chatBox, Tick tick);
+    }
+
+    // Attributes
+    private final ChatBox chatBox;
+    private final Executor executor;
+    private final TickListener listener;
+    private final Queue<BiConsumer<ChatBox, Tick>> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // Constructor
+    // INPUT: chatBox (ChatBox) owned by the actor, executor (Executor) shared pool, listener (TickListener)
+    public ChatBoxActor(ChatBox chatBox, Executor executor, TickListener listener) {
+        this.chatBox = chatBox;
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    public ChatBox getChatBox() {
+        return chatBox;
+    }
+
+    // Posts a mutation without waiting for it
+    // INPUT: mutation (BiConsumer<ChatBox, Tick>)
+    public void tell(BiConsumer<ChatBox, Tick> mutation) {
+        mailbox.add(mutation);
+        schedule();
+    }
+
+    // Posts a mutation that produces a result
+    // INPUT: mutation (BiFunction<ChatBox, Tick, T>)
+    // OUTPUT: future completed once the batch holding the mutation has been persisted and sent out
+    public <T> CompletableFuture<T> ask(BiFunction<ChatBox, Tick, T> mutation) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        tell((box, tick) -> {
+            try {
+                T value = mutation.apply(box, tick);
+                tick.afterFlush(() -> result.complete(value));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                throw e;
+            }
+        });
+        return result;
+    }
+
+    // Number of mutations waiting in the mailbox
+    public int getPendingCount() {
+        return mailbox.size();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this);
+        }
+    }
+
+    // Applies up to MAX_BATCH mutations, then flushes their effects once
+    @Override
+    public void run() {
+        Tick tick = new Tick();
+        try {
+            BiConsumer<ChatBox, Tick> mutation;
+            for (int i = 0; i < MAX_BATCH && (mutation = mailbox.poll()) != null; i++) {
+                try {
+                    mutation.accept(chatBox, tick);
+                } catch (RuntimeException e) {
+                    System.err.println("Error in chatbox " + chatBox.getChatBoxID() + ": " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+            runTick(chatBox, tick, listener);
+        } finally {
+            scheduled.set(false);
+            if (!mailbox.isEmpty()) {
+                schedule(); // more work arrived, give other actors a turn first
+            }
+        }
+    }
+
+    // Flushes a tick through its listener and completes anything waiting on it
+    // (also used to apply mutations directly when actors are disabled)
+    // INPUT: chatBox (ChatBox), tick (Tick), listener (TickListener)
+    public static void runTick(ChatBox chatBox, Tick tick, TickListener listener) {
+        try {
+            if (tick.hasEffects()) {
+                listener.afterTick(chatBox, tick);
+            }
+        } finally {
+            for (Runnable callback : tick.callbacks) {
+                callback.run();
+            }
+        }
+    }
+
+    /**
+     * The effects of the mutations of one batch: messages to append to the
+     * history, whether the chatbox must be saved, and whether participants
+     * must be sent the new state. Broadcast messages are written with the
+     * batch like any other, but the broadcast delivers them itself.
+     */
+    public static final class Tick {
+        private final List<Message> appended = new ArrayList<>();
+        private final List<Message> published = new ArrayList<>(); // appended minus broadcast messages
+        private final List<Runnable> callbacks = new ArrayList<>();
+        private boolean snapshot;
+        private boolean fanOut;
+
+        // Records a message that was added (it must carry its sequence number)
+        public void appended(Message message) {
+            appended.add(message);
+            published.add(message);
+        }
+
+        // Records a broadcast message that was added (it must carry its sequence number)
+        public void broadcastAppended(Message message) {
+            appended.add(message);
+        }
+
+        // Requests a full save of the chatbox
+        public void snapshot() {
+            snapshot = true;
+        }
+
+        // Requests that participants get the new chatbox state
+        public void fanOut() {
+            fanOut = true;
+        }
+
+        // Runs after the tick has been flushed
+        public void afterFlush(Runnable callback) {
+            callbacks.add(callback);
+        }
+
+        public List<Message> getAppended() {
+            return appended;
+        }
+
+        // Messages added by this chatbox's own sends, which the tick delivers
+        public List<Message> getPublished() {
+            return published;
+        }
+
+        public boolean needsSnapshot() {
+            return snapshot;
+        }
+
+        public boolean needsFanOut() {
+            return fanOut;
+        }
+
+        public boolean hasEffects() {
+            return snapshot || fanOut || !appended.isEmpty();
+        }
+    }
+}
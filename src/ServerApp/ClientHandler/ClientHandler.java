@@ -2,34 +2,86 @@ package ServerApp.ClientHandler;
 
 import ServerApp.Server.Server;
 import ServerApp.MessageHandler.MessageHandler;
+import ServerApp.RateLimiter.RateLimiter;
+import ServerApp.UserDirectory.UserDirectory;
 import Common.Admin.Admin;
 import ServerApp.AuthenticationSystem.AuthenticationSystem;
+import ServerApp.Inbox.Inbox;
+import ServerApp.LoginAdmission.LoginAdmission;
 import Common.ChatBox.ChatBox;
+import Common.ChatBox.ChatBoxSummary;
 import Common.Message.Message;
 import Common.User.User;
+import Common.User.PresenceDelta;
+import Common.User.UserView;
 import Common.MessageInterface;
+import Common.MessageType;
 import Common.Messages.*;
 
 import java.net.Socket;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Map;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 
+/**
+ * ClientHandler serves one client connection.
+ *
+ * Traffic runs in two lanes. Control requests (login, logout, bans and other
+ * admin operations) are handled on the reading thread as soon as they arrive,
+ * while everything else is queued for the session's worker, so a ban or
+ * logout never waits behind a large request. Outgoing messages are written
+ * by the session's writer thread, which always sends queued control
+ * responses before queued bulk data such as chatbox updates and history.
+ */
 public class ClientHandler implements Runnable {
 
+    private static final int HISTORY_PAGE_LIMIT = 200; // most messages sent for one history request
+    private static final int MAX_CHATBOX_PAGE = 1000; // most chatbox summaries sent for one list request
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000; // time the writer gets to flush control messages on close
+    private static final long DRAIN_TIMEOUT_MILLIS = 5000; // time the worker gets to finish queued requests on logout
+    // Handled on the reader as they arrive, so none of them may wait on a chatbox actor (hiding a chatbox does)
+    private static final Set<MessageType> CONTROL_REQUESTS = EnumSet.of(MessageType.LOGIN, MessageType.RESUME_SESSION, MessageType.LOGOUT,
+            MessageType.CREATE_USER, MessageType.BAN_USER, MessageType.UNBAN_USER);
+    private static final Set<MessageType> CONTROL_RESPONSES = EnumSet.of(MessageType.LOGIN_RESPONSE, MessageType.LOGIN_QUEUED, MessageType.SESSION_RESUMED,
+            MessageType.LOGOUT_RESPONSE, MessageType.NOTIFICATION, MessageType.THROTTLED);
+
+    // A request or response waiting in a lane, with the time it got there
+    private record Queued(MessageInterface message, long queuedNanos) {
+    }
+
+    private static final Queued STOP = new Queued(null, 0); // the worker stops when it takes this request
+
     // Attributes
     private final Socket clientSocket;
     private final Server server;
     private final MessageHandler messageHandler;
     private final AuthenticationSystem authenticationSystem;
-    private User user;
+    private volatile User user;
+    private final AtomicBoolean loggingIn = new AtomicBoolean(); // a login is waiting for its password check
+    private volatile Runnable queuedLogin; // the login waiting in the login admission queue, if any
+    private volatile String sessionToken; // resumes this session after a reconnect, null until logged in
     private ObjectInputStream input;
     private ObjectOutputStream output;
     private volatile boolean isRunning;
+    private final BlockingQueue<Queued> bulkRequests = new LinkedBlockingQueue<>();
+    private final ArrayDeque<Queued> controlOutbox = new ArrayDeque<>(); // both outboxes and closing are guarded by controlOutbox
+    private final ArrayDeque<Queued> bulkOutbox = new ArrayDeque<>();
+    private boolean closing; // guarded by controlOutbox
+    private final Thread writer;
+    private final Thread worker;
+    private final RateLimiter rateLimiter; // null when requests are not throttled
+    private volatile RateLimiter.Buckets buckets; // the session's own until login, then the user's
 
     // Constructor
     public ClientHandler(Socket clientSocket, Server server, MessageHandler messageHandler,
@@ -39,9 +91,16 @@ public class ClientHandler implements Runnable {
         this.messageHandler = messageHandler;
         this.authenticationSystem = authenticationSystem;
         this.isRunning = true;
+        this.rateLimiter = server.getRateLimiter();
+        this.buckets = rateLimiter != null ? rateLimiter.newSessionBuckets() : null;
+        this.writer = new Thread(this::writeLoop, "client-writer");
+        this.worker = new Thread(this::workLoop, "client-worker");
+        writer.setDaemon(true);
+        worker.setDaemon(true);
         try {
             this.output = new ObjectOutputStream(clientSocket.getOutputStream());
             this.input = new ObjectInputStream(clientSocket.getInputStream());
+            writer.start();
         } catch (IOException e) {
             e.printStackTrace();
             closeConnection();
@@ -58,10 +117,17 @@ public class ClientHandler implements Runnable {
                 handleMessage(request);
             }
 
-            // Main communication loop
+            // Main communication loop: control requests now, the rest in order on the worker
+            worker.start();
             while (isRunning) {
                 MessageInterface request = (MessageInterface) input.readObject();
-                handleMessage(request);
+                if (isControlRequest(request.getType())) {
+                    long received = System.nanoTime();
+                    handleMessage(request);
+                    server.getControlLatency().record(System.nanoTime() - received);
+                } else {
+                    bulkRequests.add(new Queued(request, System.nanoTime()));
+                }
             }
 
         } catch (IOException | ClassNotFoundException e) {
@@ -71,22 +137,97 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    // Handles queued bulk requests one at a time, in the order they arrived, until it takes STOP
+    private void workLoop() {
+        while (true) {
+            Queued next;
+            try {
+                next = bulkRequests.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (next == STOP) {
+                return;
+            }
+            try {
+                handleMessage(next.message());
+            } catch (RuntimeException e) {
+                System.err.println("Error handling request from client: " + e.getMessage());
+                e.printStackTrace();
+            }
+            server.getBulkLatency().record(System.nanoTime() - next.queuedNanos());
+        }
+    }
+
+    // Writes queued messages to the client, control messages first; on close, sends the
+    // remaining control messages, drops queued bulk data and closes the connection
+    private void writeLoop() {
+        while (true) {
+            Queued next;
+            boolean control;
+            synchronized (controlOutbox) {
+                while (controlOutbox.isEmpty() && bulkOutbox.isEmpty() && !closing) {
+                    try {
+                        controlOutbox.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                control = !controlOutbox.isEmpty();
+                if (!control && closing) {
+                    break;
+                }
+                next = control ? controlOutbox.poll() : bulkOutbox.poll();
+            }
+            try {
+                output.reset();
+                output.writeObject(next.message());
+            } catch (IOException e) {
+                System.err.println("Error sending message to client: " + e.getMessage());
+            }
+            (control ? server.getControlLatency() : server.getBulkLatency()).record(System.nanoTime() - next.queuedNanos());
+        }
+        try {
+            output.flush();
+        } catch (IOException e) {
+            // the client is already gone
+        }
+    }
+
+    // True if requests of this type overtake queued bulk requests
+    public static boolean isControlRequest(MessageType type) {
+        return CONTROL_REQUESTS.contains(type);
+    }
+
     // Handles different message types
     private void handleMessage(MessageInterface message) {
+        RateLimiter.Buckets current = buckets; // switched by the login, which may finish on another thread
+        if (current != null && !(user instanceof Admin)) { // admin tools are not throttled
+            long retryAfter = rateLimiter.acquire(current, message.getType());
+            if (retryAfter > 0) {
+                sendMessage(new Throttled(message.getType(), retryAfter));
+                return;
+            }
+        }
         switch (message.getType()) {
             case LOGIN -> handleLogin((Login) message);
+            case RESUME_SESSION -> handleResumeSession((ResumeSession) message);
             case CREATE_USER -> handleCreateUser((CreateUser) message);
             case SEND_MESSAGE -> handleSendMessage((SendMessage) message);
             case LOGOUT -> handleLogout();
             case BAN_USER -> handleBanUser((BanUser) message);
             case UNBAN_USER -> handleUnbanUser((UnbanUser) message);
-            case REQUEST_USER_LIST -> handleRequestUserList();
+            case REQUEST_USER_LIST -> handleRequestUserList((AskUserList) message);
             case REQUEST_CHATBOX -> handleRequestChatBox((AskChatBox) message);
             case CREATE_CHATBOX -> handleCreateChatBox((CreateChat) message);
-            case REQUEST_CHATBOX_LIST -> handleRequestChatBoxList();
+            case REQUEST_CHATBOX_LIST -> handleRequestChatBoxList((AskChatBoxList) message);
             case VIEW_CHATBOX_LOG -> handleViewChatBoxLog((AskChatLog) message);
             case HIDE_CHATBOX -> handleHideChatBox((HideChatBox) message);
             case UNHIDE_CHATBOX -> handleUnhideChatBox((UnhideChatBox) message);
+            case REQUEST_CHAT_HISTORY -> handleRequestChatHistory((AskChatHistory) message);
+            case REQUEST_CATCH_UP -> handleRequestCatchUp((AskCatchUp) message);
+            case MARK_READ -> handleMarkRead((MarkRead) message);
+            case REQUEST_INBOX -> handleRequestInbox((AskInbox) message);
             default -> sendNotification("Unknown message type received.");
         }
     }
@@ -117,42 +258,92 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    private void handleRequestChatBoxList() {
+    // Sends one page of chatbox summaries, ordered by ID, starting after the requested ID
+    private void handleRequestChatBoxList(AskChatBoxList askChatBoxList) {
         if (!authenticationSystem.isAdmin(user.getUserID())) {
             sendNotification("Access denied. Admin privileges required to view chatbox list.");
             return;
         }
 
-        Collection<ChatBox> chatBoxes = server.getChatBoxes().values();
-        List<ChatBox> chatBoxList = new ArrayList<>(chatBoxes);
-        SendChatBoxList response = new SendChatBoxList(chatBoxList);
-        sendMessage(response);
+        int after = askChatBoxList.getAfterChatBoxID();
+        int limit = Math.max(1, Math.min(askChatBoxList.getLimit(), MAX_CHATBOX_PAGE));
+        List<ChatBox> page = messageHandler.getChatBoxPage(after, limit + 1); // one extra tells whether another page exists
+        boolean hasMore = page.size() > limit;
+        List<ChatBoxSummary> summaries = page.stream().limit(limit).map(ChatBoxSummary::of).toList();
+        sendMessage(new SendChatBoxList(summaries, after, hasMore));
     }
     
+    // Sends the next chunk of a chatbox log, the client asks for the following one when it arrives
     private void handleViewChatBoxLog(AskChatLog askChatLog) {
         if (!authenticationSystem.isAdmin(user.getUserID())) {
             sendNotification("Access denied. Admin privileges required to view chat logs.");
             return;
         }
 
-        int chatBoxID = askChatLog.chatBoxID();
+        ChatLogChunk chunk = messageHandler.exportLog(askChatLog);
+        if (chunk != null) {
+            sendMessage(chunk);
+        } else {
+            sendNotification("ChatBox not found.");
+        }
+    }
+
+    // Sends a page of messages older than what the client has loaded
+    private void handleRequestChatHistory(AskChatHistory askChatHistory) {
+        int chatBoxID = askChatHistory.chatBoxID();
         ChatBox chatBox = messageHandler.getChatBox(chatBoxID);
+        if (chatBox == null || !chatBox.hasParticipant(user.getUserID()) || chatBox.isHidden()) {
+            sendNotification("ChatBox not found.");
+            return;
+        }
+        long before = Math.min(askChatHistory.beforeSequence(), chatBox.getLastSequence() + 1);
+        int limit = Math.max(0, Math.min(askChatHistory.limit(), HISTORY_PAGE_LIMIT));
+        long from = Math.max(1, before - limit);
+        List<Message> messages = messageHandler.getMessages(chatBoxID, from, (int) (before - from));
+        sendMessage(new SendChatHistory(chatBoxID, visibleTo(messages)));
+    }
 
-        if (chatBox != null) {
-            StringBuilder chatLogBuilder = new StringBuilder();
-            for (Message message : chatBox.getMessages()) {
-                chatLogBuilder.append(message.getTimestamp()).append(" - ")
-                              .append(message.getSenderID()).append(": ")
-                              .append(message.toString()).append("\n");
+    // Sends the next page of the user's own chatboxes, read off the inbox in activity order
+    private void handleRequestInbox(AskInbox askInbox) {
+        Inbox.Page page = messageHandler.getInbox().page(user.getUserID(),
+                new Inbox.Entry(askInbox.afterActivityMillis(), askInbox.afterChatBoxID()), askInbox.limit());
+        List<ChatBox> chatBoxes = chatBoxesOf(page.entries());
+        sendMessage(new SendInbox(chatBoxes.stream().map(ChatBoxSummary::of).toList(), page.next() != null));
+        sendUnreadCounts(chatBoxes);
+    }
+
+    // The chatboxes of inbox entries, in the same order
+    private List<ChatBox> chatBoxesOf(List<Inbox.Entry> entries) {
+        List<ChatBox> chatBoxes = new ArrayList<>(entries.size());
+        for (Inbox.Entry entry : entries) {
+            ChatBox chatBox = messageHandler.getChatBox(entry.chatBoxID());
+            if (chatBox != null) {
+                chatBoxes.add(chatBox);
             }
-            String chatLog = chatLogBuilder.toString();
-            SendChatLog response = new SendChatLog(chatLog);
-            sendMessage(response);
-        } else {
-            sendNotification("ChatBox not found.");
         }
+        return chatBoxes;
     }
 
+    // Sends the user's unread counts and last activity of the given chatboxes
+    private void sendUnreadCounts(List<ChatBox> chatBoxes) {
+        List<UnreadUpdate> activity = new ArrayList<>(chatBoxes.size());
+        for (ChatBox chatBox : chatBoxes) {
+            activity.add(messageHandler.activityOf(user.getUserID(), chatBox));
+        }
+        sendMessage(new SendUnreadCounts(activity));
+    }
+
+    private void handleMarkRead(MarkRead markRead) {
+        messageHandler.markRead(user.getUserID(), markRead.chatBoxID(), markRead.sequence());
+    }
+
+    // Sends, in one response, every message the client is missing in the chatboxes it reported
+    // and the hidden state of the messages it already has
+    private void handleRequestCatchUp(AskCatchUp askCatchUp) {
+        SendCatchUp catchUp = messageHandler.catchUp(user, askCatchUp.lastSequences());
+        watch(catchUp.participants());
+        sendMessage(catchUp);
+    }
 
     public boolean isAdmin(int userID) {
         User user = AuthenticationSystem.userDB.get(userID);
@@ -160,29 +351,80 @@ public class ClientHandler implements Runnable {
     }
 
 	// Handle Login
+	// Only a few logins run at once, the others wait their turn and are told roughly how long;
+	// the password is checked on the hashing pool and the login finishes there, this thread moves on at once
 	private void handleLogin(Login login) {
+		if (user != null || !loggingIn.compareAndSet(false, true)) {
+			sendNotification("Already logged in.");
+			return;
+		}
+		LoginAdmission admission = server.getLoginAdmission();
+		Runnable start = () -> startLogin(login, admission);
+		queuedLogin = start;
+		int position = admission.admit(start);
+		if (position < 0) {
+			loggingIn.set(false);
+			sendNotification("Server is busy, please try again.");
+			sendMessage(new LoginResponse(null, null));
+		} else if (position > 0) {
+			sendMessage(new LoginQueued(position, admission.estimateWaitMillis(position)));
+		}
+	}
+
+	// Runs a login admitted by the login admission control, which it releases when done
+	private void startLogin(Login login, LoginAdmission admission) {
+		long started = System.nanoTime();
+		queuedLogin = null;
 		String username = login.username();
-		String password = login.password();
+		if (!isRunning) {
+			loggingIn.set(false); // the client left while waiting
+			admission.release(started);
+			return;
+		}
+		authenticationSystem.validateCredentialsAsync(username, login.password())
+				.whenCompleteAsync((authenticatedUser, error) -> { // not inline, releasing may start the next login
+					try {
+						if (error != null) {
+							// Too many logins are waiting for a password check, the client may try again shortly
+							System.err.println("Login of " + username + " refused: " + error.getCause());
+							sendNotification("Server is busy, please try again.");
+							sendMessage(new LoginResponse(null, null));
+						} else {
+							finishLogin(username, authenticatedUser);
+						}
+					} finally {
+						loggingIn.set(false);
+						admission.release(started);
+					}
+				});
+	}
 
-		// Validate credentials using AuthenticationSystem
-		User authenticatedUser = authenticationSystem.validateCredentials(username, password);
+	// Completes a login once the credentials have been checked
+	private void finishLogin(String username, User authenticatedUser) {
 		if (authenticatedUser != null) {
             if(authenticatedUser.isBanned()) {
                 sendNotification("User is banned.");
                 return;
             }
 
-			// Successful login
+			// Successful login, the buckets are switched before the user is published
+			if (rateLimiter != null) {
+				buckets = rateLimiter.bucketsFor(authenticatedUser.getUserID()); // shared by all sessions of the user
+			}
 			this.user = authenticatedUser;
+			server.registerSession(this);
 			System.out.println("User logged in: " + user.getUsername());
 
-			// Retrieve all ChatBoxes the user is part of
-			List<ChatBox> userChatBoxes = server.getChatBoxes().values().stream()
-					.filter(chatBox -> chatBox.getParticipants().contains(user)).map(ChatBox::getEmpty).toList();
+			// The first page of the user's inbox, the client asks for more as needed
+			Inbox.Page page = messageHandler.getInbox().page(user.getUserID(), null, AskInbox.PAGE_SIZE);
+			List<ChatBox> firstPage = chatBoxesOf(page.entries());
+			List<ChatBoxSummary> userChatBoxes = firstPage.stream().map(ChatBoxSummary::of).toList();
 
 			// Create and send LoginResponse
-			LoginResponse loginResponse = new LoginResponse(user, userChatBoxes);
+			sessionToken = authenticationSystem.issueSessionToken(user);
+			LoginResponse loginResponse = new LoginResponse(user, userChatBoxes, sessionToken, page.next() != null);
 			sendMessage(loginResponse);
+			sendUnreadCounts(firstPage); // lets the client order and badge its chatbox list
 		} else {
 			// Failed login
 			System.out.println("Failed login attempt for username: " + username);
@@ -193,7 +435,56 @@ public class ClientHandler implements Runnable {
 		}
 	}
 
-	
+	// Handle ResumeSession
+	// A reconnecting client skips the password check and the chatbox list: it gets a new token, the
+	// chatboxes it did not report and, in one catch-up, the messages it missed in those it did
+	private void handleResumeSession(ResumeSession resumeSession) {
+		if (user != null || !loggingIn.compareAndSet(false, true)) {
+			sendNotification("Already logged in.");
+			return;
+		}
+		try {
+			User resumedUser = authenticationSystem.resumeSession(resumeSession.token());
+			if (resumedUser == null) {
+				sendMessage(new SessionResumed(null, null, null)); // the client logs in again
+				return;
+			}
+			if (rateLimiter != null) {
+				buckets = rateLimiter.bucketsFor(resumedUser.getUserID());
+			}
+			this.user = resumedUser;
+			server.registerSession(this);
+			for (ClientHandler previous : List.copyOf(server.getSessions(user.getUserID()))) {
+				if (previous != this) {
+					previous.closeConnection(); // the connection the client lost, if the server has not noticed yet
+				}
+			}
+			System.out.println("User resumed session: " + user.getUsername());
+
+			Map<Integer, Long> lastSequences = resumeSession.lastSequences();
+			List<ChatBox> memberOf = new ArrayList<>();
+			for (int chatBoxID : messageHandler.getInbox().chatBoxIDsOf(user.getUserID())) {
+				ChatBox chatBox = messageHandler.getChatBox(chatBoxID);
+				if (chatBox != null) {
+					memberOf.add(chatBox);
+				}
+			}
+			List<ChatBoxSummary> newChatBoxes = memberOf.stream()
+					.filter(chatBox -> !lastSequences.containsKey(chatBox.getChatBoxID()))
+					.map(ChatBoxSummary::of).toList();
+			sessionToken = authenticationSystem.issueSessionToken(user);
+			sendMessage(new SessionResumed(user, sessionToken, newChatBoxes));
+			Map<Integer, Long> catchUpFrom = new HashMap<>(lastSequences);
+			for (ChatBoxSummary chatBox : newChatBoxes) {
+				catchUpFrom.put(chatBox.chatBoxID(), 0L); // recent messages of the new chatboxes come along
+			}
+			handleRequestCatchUp(new AskCatchUp(catchUpFrom));
+			sendUnreadCounts(memberOf);
+		} finally {
+			loggingIn.set(false);
+		}
+	}
+
 	// Handle CreateUser
     private void handleCreateUser(CreateUser createUser) {
         // Step 1: Check if the requesting user is an admin
@@ -219,40 +510,71 @@ public class ClientHandler implements Runnable {
             newUser = new User(newUsername, newPassword);
         }
 
-        // Use Admin's addUser method
-        boolean registrationSuccess = authenticationSystem.registerUser(newUser);
+        // The password is hashed on the hashing pool, the reply is sent once it is done
+        authenticationSystem.registerUserAsync(newUser).whenComplete((registrationSuccess, error) -> {
+            if (error != null) {
+                System.err.println("Creating user " + newUsername + " refused: " + error.getCause());
+                sendNotification("Server is busy, please try again.");
+            } else if (registrationSuccess) {
+                System.out.println("Admin " + adminUser.getUsername() + " successfully created user: " + newUsername);
 
-        if (registrationSuccess) {
-            System.out.println("Admin " + adminUser.getUsername() + " successfully created user: " + newUsername);
-
-            // Send a Notification indicating success
-            Notification response = new Notification("User created successfully.");
-            sendMessage(response);
-        } else {
-            System.out.println("Admin " + adminUser.getUsername() + " failed to create user: " + newUsername);
+                // Send a Notification indicating success
+                Notification response = new Notification("User created successfully.");
+                sendMessage(response);
+            } else {
+                System.out.println("Admin " + adminUser.getUsername() + " failed to create user: " + newUsername);
 
-            // Send a Notification indicating failure
-            Notification response = new Notification("Failed to create user. Username may already exist.");
-            sendMessage(response);
-        }
+                // Send a Notification indicating failure
+                Notification response = new Notification("Failed to create user. Username may already exist.");
+                sendMessage(response);
+            }
+        });
     }
   
 	
 	// Handle SendMessage
 	private void handleSendMessage(SendMessage sendMessage) {
-		boolean success = messageHandler.sendMessage(sendMessage.chatBoxID(), sendMessage.message());
-		if (!success) {
+		MessageHandler.Submission result = messageHandler.submitMessage(sendMessage.chatBoxID(), sendMessage.message(),
+				sendMessage.submissionID());
+		if (result == MessageHandler.Submission.REJECTED) {
 			sendNotification("Failed to send message.");
+		} else {
+			sendMessage(new MessageAck(sendMessage.submissionID(), sendMessage.chatBoxID(),
+					result == MessageHandler.Submission.DUPLICATE));
 		}
 	}
 
 	// Handle Logout
+	// Requests the client sent before logging out (on the worker's lane) are still handled first.
+	// The user is marked offline by closeConnection, and only if no other session of theirs is open.
 	public void handleLogout() {
-		authenticationSystem.logout(user.getUserID());
+		authenticationSystem.endSession(sessionToken); // a logged out client cannot resume
+		finishQueuedRequests();
 		sendMessage(new LogoutResponse());
         closeConnection();
 	}
 
+	// Logs the user out at once, dropping the requests still queued (e.g. after a ban)
+	public void forceLogout() {
+		authenticationSystem.endSession(sessionToken);
+		sendMessage(new LogoutResponse());
+		closeConnection();
+	}
+
+	// Lets the worker handle the requests already received, then stop (bounded by DRAIN_TIMEOUT_MILLIS)
+	private void finishQueuedRequests() {
+		isRunning = false; // the reader takes no more requests
+		if (Thread.currentThread() == worker || !worker.isAlive()) {
+			return;
+		}
+		bulkRequests.add(STOP);
+		try {
+			worker.join(DRAIN_TIMEOUT_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	   // Handle BanUser
 	private void handleBanUser(BanUser banUser) {
 	    int userIDToBan = banUser.userID();
@@ -283,11 +605,12 @@ public class ClientHandler implements Runnable {
 	}
 
     // Handle RequestUserList
-    private void handleRequestUserList() {
-        Collection<User> users = authenticationSystem.getAllUsers();
-        List<User> userList = new ArrayList<>(users);
-        SendUserList response = new SendUserList(userList);
-        sendMessage(response);
+    // Sends one page of the user directory, users whose name starts with the requested prefix
+    private void handleRequestUserList(AskUserList askUserList) {
+        UserDirectory.Page page = authenticationSystem.getDirectory()
+                .query(askUserList.prefix(), askUserList.after(), askUserList.limit());
+        watch(page.users());
+        sendMessage(new SendUserList(page.users(), askUserList.prefix(), askUserList.after(), page.next()));
     }
 
     // Handle RequestChatBox
@@ -302,19 +625,8 @@ public class ClientHandler implements Runnable {
 
         ChatBox chatBox = messageHandler.getChatBox(chatBoxID);
         if (chatBox != null) {
-            if (chatBox.getParticipants().contains(user)) {
-                // Update participants with up-to-date User objects
-                HashSet<User> updatedParticipants = new HashSet<>();
-                for (User participant : chatBox.getParticipants()) {
-                    User updatedUser = authenticationSystem.findUser(participant.getUserID());
-                    if (updatedUser != null) {
-                        updatedParticipants.add(updatedUser);
-                    }
-                }
-                chatBox.setParticipants(updatedParticipants);
-
-                SendChatBox response = new SendChatBox(chatBox);
-                sendMessage(response);
+            if (chatBox.hasParticipant(user.getUserID())) {
+                sendChatBoxUpdate(chatBox);
             } else {
                 sendNotification("Access denied. You are not a participant of this chatbox.");
             }
@@ -325,16 +637,16 @@ public class ClientHandler implements Runnable {
 
     // Handle CreateChatBox
     private void handleCreateChatBox(CreateChat createChat) {
-        List<User> participants = createChat.participants();
+        List<UserView> participants = createChat.participants();
 
         List<User> validatedParticipants = new ArrayList<>();
-        for (User userSent : participants) {
-            // Find the user in the authentication system by username
-            User serverUser = authenticationSystem.findUserByUsername(userSent.getUsername());
+        for (UserView userSent : participants) {
+            // Find the user in the authentication system by ID
+            User serverUser = authenticationSystem.findUser(userSent.userID());
             if (serverUser != null) {
                 validatedParticipants.add(serverUser);
             } else {
-                sendNotification("User not found: " + userSent.getUsername());
+                sendNotification("User not found: " + userSent.username());
                 return;
             }
         }
@@ -347,20 +659,22 @@ public class ClientHandler implements Runnable {
         ChatBox chatBox = messageHandler.createChatBox(validatedParticipants, createChat.name());
 
         if (chatBox != null) {
-            SendChatBox response = new SendChatBox(chatBox);
-            sendMessage(response);
+            sendChatBoxUpdate(chatBox);
         } else {
             sendNotification("Failed to create chatbox.");
         }
     }
 	
-	// Send a message to the client
+	// Queues a message for the client in its lane
+	// (called from other clients' threads, chatbox actors and dispatcher shards as well)
 	private void sendMessage(MessageInterface message) {
-		try {
-			output.reset();
-			output.writeObject(message);
-		} catch (IOException e) {
-			System.err.println("Error sending message to client: " + e.getMessage());
+		Queued queued = new Queued(message, System.nanoTime());
+		synchronized (controlOutbox) {
+			if (closing) {
+				return;
+			}
+			(CONTROL_RESPONSES.contains(message.getType()) ? controlOutbox : bulkOutbox).add(queued);
+			controlOutbox.notifyAll();
 		}
 	}
 
@@ -370,9 +684,28 @@ public class ClientHandler implements Runnable {
 		sendMessage(notification);
 	}
 
-	// Closes the client connection and cleans up resources
+	// Closes the client connection and cleans up resources; requests the worker has not
+	// handled yet are dropped (see handleLogout for a close that finishes them first)
 	public void closeConnection() {
 		isRunning = false;
+		synchronized (controlOutbox) {
+			closing = true;
+			controlOutbox.notifyAll();
+		}
+		Runnable waitingLogin = queuedLogin;
+		if (waitingLogin != null && server.getLoginAdmission().cancel(waitingLogin)) {
+			loggingIn.set(false); // left while queued, the slots go to clients still here
+		}
+		bulkRequests.clear();
+		bulkRequests.add(STOP); // stops the worker even if the interrupt is swallowed by a request
+		worker.interrupt();
+		try {
+			if (Thread.currentThread() != writer && writer.isAlive()) {
+				writer.join(CLOSE_TIMEOUT_MILLIS); // let a logout response or ban notice reach the client
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 		try {
 			if (input != null)
 				input.close();
@@ -384,7 +717,7 @@ public class ClientHandler implements Runnable {
 			System.err.println("Error closing client connection: " + e.getMessage());
 		} finally {
 			server.removeClientHandler(this);
-			if (user != null) {
+			if (user != null && server.getSessions(user.getUserID()).isEmpty()) { // not if a resumed session took over
 				authenticationSystem.logout(user.getUserID());
 			}
 		}
@@ -405,9 +738,60 @@ public class ClientHandler implements Runnable {
 		this.user = user;
 	}
 
+    // Sends a message that was added to several of the client's chatboxes at once
+    public void sendBroadcast(SendBroadcast broadcast) {
+        sendMessage(broadcast);
+    }
+
+    // Sends the new activity of one of the client's chatboxes
+    public void sendUnreadUpdate(UnreadUpdate update) {
+        sendMessage(update);
+    }
+
+    // Sends messages appended to a chatbox since the client's last update
+    public void sendNewMessages(SendNewMessages update) {
+        sendMessage(update);
+    }
+
     // Sends an updated chatbox to the client
+    // Admins get the chatbox in full, other users without hidden content (see ChatBox.withoutHiddenContent)
     public void sendChatBoxUpdate(ChatBox chatBox) {
-        SendChatBox response = new SendChatBox(chatBox);
+        List<UserView> participants = resolveParticipants(chatBox);
+        watch(participants);
+        SendChatBox response = new SendChatBox(seesHidden() ? chatBox : chatBox.withoutHiddenContent(), participants);
         sendMessage(response);
     }
+
+    // True if this session's user may read hidden messages and chatboxes
+    private boolean seesHidden() {
+        return user instanceof Admin;
+    }
+
+    // Messages as this session's user may see them: hidden ones become tombstones unless the user is an admin
+    private List<Message> visibleTo(List<Message> messages) {
+        return MessageHandler.visibleTo(user, messages);
+    }
+
+    // Sends presence changes of users this client is showing
+    public void sendPresence(List<PresenceDelta> deltas) {
+        sendMessage(new SendPresence(deltas));
+    }
+
+    // Asks for the presence changes of users sent to this client, so it never has to re-request them
+    private void watch(Collection<UserView> views) {
+        List<Integer> userIDs = new ArrayList<>(views.size());
+        for (UserView view : views) {
+            userIDs.add(view.userID());
+        }
+        server.getPresence().watch(this, userIDs);
+    }
+
+    // Resolves the participant IDs of a chatbox against the user directory, using up-to-date users
+    // INPUT: chatBox (ChatBox)
+    // OUTPUT: List of UserView for the participants
+    private List<UserView> resolveParticipants(ChatBox chatBox) {
+        return chatBox.getParticipants(authenticationSystem.getUserDB()).stream()
+                .map(UserView::of)
+                .toList();
+    }
 }
@@ -0,0 +1,92 @@
+package ServerApp.DedupCache;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DedupCache remembers the submission IDs each sender used recently, so a
+ * message that is sent again (a client retrying after a timeout or a
+ * reconnect) can be recognised and acknowledged without being stored twice.
+ * Each sender keeps at most maxPerSender IDs, and none older than windowMillis.
+ */
+public class DedupCache {
+
+    public static final int DEFAULT_MAX_PER_SENDER = 1024;
+    public static final long DEFAULT_WINDOW_MILLIS = 10 * 60 * 1000L;
+
+    // The recent submission IDs of one sender, oldest first
+    private static final class SenderWindow {
+        final HashSet<Long> ids = new HashSet<>();
+        final ArrayDeque<long[]> order = new ArrayDeque<>(); // {submissionID, seenAtMillis}
+    }
+
+    // Attributes
+    private final int maxPerSender;
+    private final long windowMillis;
+    private final ConcurrentHashMap<Integer, SenderWindow> senders = new ConcurrentHashMap<>();
+
+    // Constructor
+    // INPUT: maxPerSender (int) > 0, windowMillis (long) > 0
+    public DedupCache(int maxPerSender, long windowMillis) {
+        if (maxPerSender <= 0 || windowMillis <= 0) {
+            throw new IllegalArgumentException("maxPerSender and windowMillis must be positive");
+        }
+        this.maxPerSender = maxPerSender;
+        this.windowMillis = windowMillis;
+    }
+
+    public DedupCache() {
+        this(DEFAULT_MAX_PER_SENDER, DEFAULT_WINDOW_MILLIS);
+    }
+
+    // Records a submission
+    // INPUT: senderID (int), submissionID (long)
+    // OUTPUT: true the first time the ID is seen within the window, false for a repeat
+    public boolean firstSeen(int senderID, long submissionID) {
+        SenderWindow window = senders.computeIfAbsent(senderID, id -> new SenderWindow());
+        long now = System.currentTimeMillis();
+        synchronized (window) {
+            expire(window, now);
+            if (!window.ids.add(submissionID)) {
+                return false;
+            }
+            window.order.addLast(new long[]{submissionID, now});
+            if (window.order.size() > maxPerSender) {
+                window.ids.remove(window.order.removeFirst()[0]);
+            }
+            return true;
+        }
+    }
+
+    // Forgets a submission that could not be processed, so a retry is not taken for a repeat
+    // INPUT: senderID (int), submissionID (long)
+    public void forget(int senderID, long submissionID) {
+        SenderWindow window = senders.get(senderID);
+        if (window != null) {
+            synchronized (window) {
+                if (window.ids.remove(submissionID)) {
+                    window.order.removeIf(entry -> entry[0] == submissionID);
+                }
+            }
+        }
+    }
+
+    private void expire(SenderWindow window, long now) {
+        while (!window.order.isEmpty() && now - window.order.peekFirst()[1] > windowMillis) {
+            window.ids.remove(window.order.removeFirst()[0]);
+        }
+    }
+
+    // Number of submission IDs remembered for a sender
+    public int size(int senderID) {
+        SenderWindow window = senders.get(senderID);
+        if (window == null) {
+            return 0;
+        }
+        synchronized (window) {
+            expire(window, System.currentTimeMillis());
+            return window.ids.size();
+        }
+    }
+}
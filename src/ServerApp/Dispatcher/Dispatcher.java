@@ -0,0 +1,175 @@
+package ServerApp.Dispatcher;
+
+import Common.ChatBox.ChatBox;
+import Common.User.User;
+import ServerApp.ClientHandler.ClientHandler;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Dispatcher delivers updates to client sessions off the sender's thread.
+ * Deliveries are partitioned by recipient user ID over a fixed set of
+ * shards, each drained by its own worker, so one recipient always gets its
+ * updates in order while different recipients are served in parallel.
+ *
+ * A chatbox update carries the chatbox's whole recent window, so while one is
+ * still queued for a session, further updates of the same chatbox to that
+ * session are coalesced into it.
+ */
+public class Dispatcher {
+
+    // One queued delivery; key is non-null for coalescable chatbox updates
+    private record Delivery(ClientHandler target, PendingKey key, Consumer<ClientHandler> action, long enqueuedNanos) {
+    }
+
+    private record PendingKey(ClientHandler target, int chatBoxID) {
+    }
+
+    // Attributes
+    private final Shard[] shards;
+    private final Set<PendingKey> pending = ConcurrentHashMap.newKeySet();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+
+    // Constructor
+    // INPUT: shardCount (int) number of worker threads
+    public Dispatcher(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+            shards[i].start();
+        }
+    }
+
+    // Queues the current state of a chatbox for each recipient session
+    // INPUT: chatBox (ChatBox), recipients (Collection<ClientHandler>)
+    // OUTPUT: none
+    public void dispatchChatBox(ChatBox chatBox, Collection<ClientHandler> recipients) {
+        for (ClientHandler recipient : recipients) {
+            PendingKey key = new PendingKey(recipient, chatBox.getChatBoxID());
+            if (pending.add(key)) {
+                enqueue(new Delivery(recipient, key, handler -> handler.sendChatBoxUpdate(chatBox), System.nanoTime()));
+            } else {
+                coalesced.increment(); // the queued update will read the newer state
+            }
+        }
+    }
+
+    // Queues an arbitrary delivery to one session
+    // INPUT: recipient (ClientHandler), action (Consumer<ClientHandler>) run on the recipient's shard
+    // OUTPUT: none
+    public void dispatch(ClientHandler recipient, Consumer<ClientHandler> action) {
+        enqueue(new Delivery(recipient, null, action, System.nanoTime()));
+    }
+
+    private void enqueue(Delivery delivery) {
+        Shard shard = shards[Math.floorMod(shardKey(delivery.target()), shards.length)];
+        shard.queue.add(delivery);
+        enqueued.increment();
+        maxQueueDepth.accumulate(shard.queue.size());
+    }
+
+    private static int shardKey(ClientHandler target) {
+        User user = target.getUser();
+        return user != null ? user.getUserID() : System.identityHashCode(target);
+    }
+
+    // Number of deliveries waiting in all shards
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Shard shard : shards) {
+            depth += shard.queue.size();
+        }
+        return depth;
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.sum();
+    }
+
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    // Time from enqueue until the update was written to the session
+    public LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // Stops the workers; deliveries still queued are dropped
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Dispatcher[shards=" + shards.length + ", queued=" + getQueueDepth() + ", maxQueued=" + getMaxQueueDepth()
+                + ", delivered=" + getDeliveredCount() + ", coalesced=" + getCoalescedCount()
+                + ", failed=" + getFailedCount() + ", latency: " + deliveryLatency + "]";
+    }
+
+    // Worker owning one partition of the recipients
+    private class Shard extends Thread {
+        private final BlockingQueue<Delivery> queue = new LinkedBlockingQueue<>();
+
+        Shard(int index) {
+            super("dispatch-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                Delivery delivery;
+                try {
+                    delivery = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (delivery.key() != null) {
+                    pending.remove(delivery.key()); // later changes queue a new update
+                }
+                try {
+                    delivery.action().accept(delivery.target());
+                    delivered.increment();
+                } catch (RuntimeException e) {
+                    failed.increment();
+                    System.err.println("Error delivering to client: " + e.getMessage());
+                }
+                deliveryLatency.record(System.nanoTime() - delivery.enqueuedNanos());
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ServerApp.Dispatcher;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram records durations in power-of-two nanosecond buckets.
+ * Recording is a couple of LongAdder increments, so any number of threads
+ * can record without contending; percentiles are approximate (upper bound
+ * of the bucket they fall in).
+ */
+public class LatencyHistogram {
+
+    private final LongAdder[] buckets = new LongAdder[64];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    // Records one duration
+    // INPUT: nanos (long)
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets[63 - Long.numberOfLeadingZeros(value | 1)].increment();
+        count.increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / n;
+    }
+
+    // Returns an upper bound for the given percentile
+    // INPUT: percentile (double) between 0 and 100
+    // OUTPUT: nanos, 0 if nothing was recorded
+    public long getPercentileNanos(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) {
+                return i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return maxNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + getMeanNanos() / 1000 + "us, p50<=" + getPercentileNanos(50) / 1000
+                + "us, p99<=" + getPercentileNanos(99) / 1000 + "us, max=" + getMaxNanos() / 1000 + "us";
+    }
+}
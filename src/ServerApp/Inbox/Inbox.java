@@ -0,0 +1,172 @@
+package ServerApp.Inbox;
+
+import Common.ChatBox.ChatBox;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Inbox keeps, for every user, the IDs of the chatboxes the user takes part in,
+ * newest activity first, so a login or a "my chats" request reads one page
+ * straight off a sorted set instead of scanning every chatbox and sorting.
+ *
+ * The order is kept up to date as messages arrive: touch() moves a chatbox
+ * in the inbox of each participant. Chatboxes open to everyone are kept once,
+ * in a shared set, and merged into each page, so a system message does not
+ * touch every user's inbox. Pages continue after a cursor (activity and
+ * chatbox ID of the last entry of the previous page).
+ */
+public class Inbox {
+
+    public static final int MAX_PAGE = 500; // most chatboxes returned for one page
+
+    // A chatbox at its last activity; ordered newest first, then by ID
+    public record Entry(long activityMillis, int chatBoxID) {
+    }
+
+    // One page of an inbox, next is the cursor of the following page or null after the last page
+    public record Page(List<Entry> entries, Entry next) {
+    }
+
+    private static final Comparator<Entry> NEWEST_FIRST = Comparator.comparingLong(Entry::activityMillis).reversed()
+            .thenComparingInt(Entry::chatBoxID);
+    private static final Entry START = new Entry(Long.MAX_VALUE, Integer.MIN_VALUE); // before every entry
+
+    // Attributes
+    private final ConcurrentHashMap<Integer, Long> activity = new ConcurrentHashMap<>(); // chatBoxID -> indexed activity
+    private final ConcurrentHashMap<Integer, NavigableSet<Entry>> inboxes = new ConcurrentHashMap<>(); // userID -> entries
+    private final NavigableSet<Entry> shared = new ConcurrentSkipListSet<>(NEWEST_FIRST); // chatboxes open to everyone
+
+    // Adds a chatbox to the inbox of each of its participants
+    // INPUT: chatBox (ChatBox)
+    // OUTPUT: none
+    public void add(ChatBox chatBox) {
+        activity.compute(chatBox.getChatBoxID(), (chatBoxID, previous) -> {
+            long now = activityOf(chatBox);
+            if (chatBox.isOpenToAll()) {
+                move(shared, chatBoxID, previous, now);
+            } else {
+                for (int userID : chatBox.getParticipantIDs()) {
+                    move(inboxOf(userID), chatBoxID, previous, now);
+                }
+            }
+            return now;
+        });
+    }
+
+    // Moves a chatbox to its current activity in the inbox of each participant, call after messages were added
+    // INPUT: chatBox (ChatBox)
+    // OUTPUT: none
+    public void touch(ChatBox chatBox) {
+        add(chatBox); // re-files the entries under the new activity
+    }
+
+    // Adds a chatbox to the inbox of a user who joined it
+    // INPUT: userID (int), chatBox (ChatBox)
+    // OUTPUT: none
+    public void join(int userID, ChatBox chatBox) {
+        activity.compute(chatBox.getChatBoxID(), (chatBoxID, previous) -> {
+            long now = previous != null ? previous : activityOf(chatBox);
+            if (!chatBox.isOpenToAll()) {
+                inboxOf(userID).add(new Entry(now, chatBoxID));
+            }
+            return now;
+        });
+    }
+
+    // Removes a chatbox from the inbox of a user who left it
+    // INPUT: userID (int), chatBoxID (int)
+    // OUTPUT: none
+    public void leave(int userID, int chatBoxID) {
+        activity.computeIfPresent(chatBoxID, (id, now) -> {
+            NavigableSet<Entry> inbox = inboxes.get(userID);
+            if (inbox != null) {
+                inbox.remove(new Entry(now, chatBoxID));
+            }
+            return now;
+        });
+    }
+
+    // Reads one page of a user's inbox, newest activity first
+    // INPUT: userID (int), after (Entry) cursor from the previous page or null for the first page, limit (int)
+    // OUTPUT: Page of at most limit entries
+    public Page page(int userID, Entry after, int limit) {
+        limit = Math.max(1, Math.min(limit, MAX_PAGE));
+        Entry from = after != null ? after : START;
+        NavigableSet<Entry> own = inboxes.getOrDefault(userID, Collections.emptyNavigableSet());
+        Iterator<Entry> mine = own.tailSet(from, false).iterator();
+        Iterator<Entry> everyone = shared.tailSet(from, false).iterator();
+        Entry nextMine = mine.hasNext() ? mine.next() : null;
+        Entry nextEveryone = everyone.hasNext() ? everyone.next() : null;
+        List<Entry> entries = new ArrayList<>(Math.min(limit, 64));
+        while (nextMine != null || nextEveryone != null) {
+            if (entries.size() == limit) {
+                return new Page(entries, entries.get(entries.size() - 1)); // more entries follow
+            }
+            if (nextEveryone == null || (nextMine != null && NEWEST_FIRST.compare(nextMine, nextEveryone) < 0)) {
+                entries.add(nextMine);
+                nextMine = mine.hasNext() ? mine.next() : null;
+            } else {
+                entries.add(nextEveryone);
+                nextEveryone = everyone.hasNext() ? everyone.next() : null;
+            }
+        }
+        return new Page(entries, null);
+    }
+
+    // IDs of every chatbox a user takes part in, newest activity first
+    // INPUT: userID (int)
+    // OUTPUT: List of chatbox IDs
+    public List<Integer> chatBoxIDsOf(int userID) {
+        List<Integer> chatBoxIDs = new ArrayList<>();
+        Entry after = null;
+        Page page;
+        do {
+            page = page(userID, after, MAX_PAGE);
+            for (Entry entry : page.entries()) {
+                chatBoxIDs.add(entry.chatBoxID());
+            }
+            after = page.next();
+        } while (after != null);
+        return chatBoxIDs;
+    }
+
+    // Number of chatboxes in a user's inbox, counting those open to everyone
+    public int size(int userID) {
+        return inboxes.getOrDefault(userID, Collections.emptyNavigableSet()).size() + shared.size();
+    }
+
+    private NavigableSet<Entry> inboxOf(int userID) {
+        return inboxes.computeIfAbsent(userID, id -> new ConcurrentSkipListSet<>(NEWEST_FIRST));
+    }
+
+    private static void move(NavigableSet<Entry> inbox, int chatBoxID, Long previous, long now) {
+        if (previous != null) {
+            inbox.remove(new Entry(previous, chatBoxID));
+        }
+        inbox.add(new Entry(now, chatBoxID));
+    }
+
+    // Time of the newest message, or the creation time of a chatbox without messages
+    private static long activityOf(ChatBox chatBox) {
+        long lastTimestamp = chatBox.getLastTimestamp();
+        if (lastTimestamp >= 0) {
+            return lastTimestamp;
+        }
+        LocalDateTime created = chatBox.lastUpdated();
+        return created != null ? created.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : -1;
+    }
+
+    @Override
+    public String toString() {
+        return "Inbox[chatBoxes=" + activity.size() + ", users=" + inboxes.size() + ", shared=" + shared.size() + "]";
+    }
+}
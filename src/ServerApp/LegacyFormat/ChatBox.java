@@ -0,0 +1,80 @@
+package ServerApp.LegacyFormat;
+
+import Common.User.User;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The fields of Common.ChatBox.ChatBox as the first version of the server
+ * wrote them (full User participants and a TreeSet of messages ordered by
+ * timestamp). Only used to read old chatbox files, see LegacyFormat.
+ */
+public class ChatBox implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // Attributes
+    private int chatBoxID;
+    private final String name;
+    private Collection<User> participants; // null for the system chatbox
+    private final SortedSet<Message> messages;
+    private boolean isHidden;
+    LocalDateTime creationTime;
+
+    // The comparator old files hold in their message TreeSet
+    private static class SerializableComparator implements Comparator<Message>, Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int compare(Message m1, Message m2) {
+            return m1.getTimestamp().compareTo(m2.getTimestamp());
+        }
+    }
+
+    // Builds a chatbox in the old layout (for writing old-format files in tests)
+    public ChatBox(int chatBoxID, String name, Collection<User> participants, boolean hidden) {
+        this.chatBoxID = chatBoxID;
+        this.name = name;
+        this.participants = participants != null ? new HashSet<>(participants) : null;
+        this.messages = new TreeSet<>(new SerializableComparator());
+        this.isHidden = hidden;
+        this.creationTime = LocalDateTime.now();
+    }
+
+    public void addMessage(Message message) {
+        messages.add(message);
+    }
+
+    // Converts the chatbox to the current layout, keeping its ID; messages are not added
+    // OUTPUT: Common.ChatBox.ChatBox
+    public Common.ChatBox.ChatBox toChatBox() {
+        int[] participantIDs = new int[participants != null ? participants.size() : 0];
+        int i = 0;
+        if (participants != null) {
+            for (User user : participants) {
+                participantIDs[i++] = user.getUserID();
+            }
+        }
+        return Common.ChatBox.ChatBox.restore(chatBoxID, name, participantIDs, participants == null, isHidden, creationTime);
+    }
+
+    // The chatbox's messages in the current layout, oldest first
+    // OUTPUT: List of Common.Message.Message without sequence numbers
+    public List<Common.Message.Message> toMessages() {
+        List<Common.Message.Message> converted = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            converted.add(message.toMessage());
+        }
+        return converted;
+    }
+}
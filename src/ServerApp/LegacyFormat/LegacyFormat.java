@@ -0,0 +1,54 @@
+package ServerApp.LegacyFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+
+/**
+ * LegacyFormat reads chatbox files in either format. Files written by the
+ * first version of the server hold Common.ChatBox.ChatBox and
+ * Common.Message.Message in their original layout; their class descriptors
+ * are recognised by field type and resolved to the ChatBox and Message
+ * classes of this package, which convert themselves to the current classes.
+ * Files in the current format are read as usual.
+ */
+public class LegacyFormat extends ObjectInputStream {
+
+    private static final String CHATBOX = "Common.ChatBox.ChatBox";
+    private static final String COMPARATOR = "Common.ChatBox.ChatBox$SerializableComparator";
+    private static final String MESSAGE = "Common.Message.Message";
+
+    // INPUT: in (InputStream) a chatbox file
+    public LegacyFormat(InputStream in) throws IOException {
+        super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        switch (desc.getName()) {
+            case CHATBOX:
+                if (hasField(desc, "participants", "Ljava/util/Collection;")) {
+                    return ChatBox.class;
+                }
+                break;
+            case COMPARATOR:
+                return Class.forName(ChatBox.class.getName() + "$SerializableComparator");
+            case MESSAGE:
+                if (hasField(desc, "content", "Ljava/lang/String;")) {
+                    return Message.class;
+                }
+                break;
+            default:
+                break;
+        }
+        return super.resolveClass(desc);
+    }
+
+    // True if the stream's class has a field of the given name and type
+    private static boolean hasField(ObjectStreamClass desc, String name, String type) {
+        ObjectStreamField field = desc.getField(name);
+        return field != null && type.equals(field.getTypeString());
+    }
+}
@@ -0,0 +1,46 @@
+package ServerApp.LegacyFormat;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * The fields of Common.Message.Message as the first version of the server
+ * wrote them (content as a String, a LocalDateTime timestamp and a hidden
+ * boolean). Only used to read old chatbox files, see LegacyFormat.
+ */
+public class Message implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // Attributes
+    private final int messageID;
+    private final int senderID;
+    private final String content;
+    private final LocalDateTime timestamp;
+    private boolean hidden;
+
+    // Builds a message in the old layout (for writing old-format files in tests)
+    public Message(int messageID, int senderID, String content, LocalDateTime timestamp, boolean hidden) {
+        this.messageID = messageID;
+        this.senderID = senderID;
+        this.content = content;
+        this.timestamp = timestamp;
+        this.hidden = hidden;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    // Converts the message to the current layout, without a sequence number
+    // OUTPUT: Common.Message.Message
+    public Common.Message.Message toMessage() {
+        byte[] body = content != null ? content.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        long millis = timestamp != null ? timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0;
+        return new Common.Message.Message(messageID, senderID, body, millis,
+                hidden ? Common.Message.Message.FLAG_HIDDEN : 0);
+    }
+}
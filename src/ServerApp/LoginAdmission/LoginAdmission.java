@@ -0,0 +1,155 @@
+package ServerApp.LoginAdmission;
+
+import ServerApp.Dispatcher.LatencyHistogram;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LoginAdmission lets a fixed number of logins run at once and queues the
+ * rest in arrival order, so that when every client reconnects after a
+ * restart the password pool and the server are not flooded, and no client
+ * waits forever behind later arrivals. A full queue turns new logins away.
+ *
+ * A login is started with admit() and must call release() exactly once when
+ * it is finished, whatever the outcome; that starts the next queued login.
+ * Queued logins are started one after another by whichever thread is already
+ * handing slots over, so logins that release at once (a client that left
+ * while waiting) do not nest. A client that leaves can cancel() its login.
+ * How long logins waited and how long they ran are kept in histograms.
+ */
+public class LoginAdmission {
+
+    public static final int DEFAULT_QUEUE = 5000;
+
+    // A login waiting for its turn, with the time it started waiting
+    private record Waiting(Runnable login, long queuedNanos) {
+    }
+
+    // Attributes
+    private final int maxInFlight;
+    private final int maxQueue;
+    private final ArrayDeque<Waiting> queue = new ArrayDeque<>(); // guarded by this
+    private int inFlight; // guarded by this
+    private int releases; // slots to hand over, guarded by this
+    private boolean handingOver; // a thread is starting queued logins, guarded by this
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram loginTime = new LatencyHistogram(); // admitted until released
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    // INPUT: maxInFlight (int) logins running at once, maxQueue (int) logins that may wait
+    public LoginAdmission(int maxInFlight, int maxQueue) {
+        if (maxInFlight <= 0 || maxQueue < 0) {
+            throw new IllegalArgumentException("Invalid login admission settings");
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxQueue = maxQueue;
+    }
+
+    // Starts a login now if there is room, otherwise queues it behind the logins already waiting
+    // INPUT: login (Runnable) starts the login, which calls release() with its start time when done
+    // OUTPUT: 0 if the login was started, its place in the queue (1 = next) if queued, -1 if the queue is full
+    public int admit(Runnable login) {
+        int position;
+        synchronized (this) {
+            if (inFlight < maxInFlight && queue.isEmpty()) {
+                inFlight++;
+                position = 0;
+            } else if (queue.size() >= maxQueue) {
+                rejected.increment();
+                return -1;
+            } else {
+                queue.add(new Waiting(login, System.nanoTime()));
+                queued.increment();
+                return queue.size();
+            }
+        }
+        start(login, 0);
+        return position;
+    }
+
+    // Ends a login that was started by admit() and starts the next waiting one
+    // INPUT: startedAtNanos (long) System.nanoTime() when the login's Runnable started
+    // OUTPUT: none
+    public void release(long startedAtNanos) {
+        loginTime.record(System.nanoTime() - startedAtNanos);
+        synchronized (this) {
+            releases++;
+            if (handingOver) {
+                return; // the thread handing slots over starts the next login
+            }
+            handingOver = true;
+        }
+        while (true) {
+            Waiting next;
+            synchronized (this) {
+                if (releases == 0) {
+                    handingOver = false;
+                    return;
+                }
+                releases--;
+                next = queue.poll();
+                if (next == null) {
+                    inFlight--;
+                    continue;
+                }
+                // the finished login's slot goes to the next one
+            }
+            long waited = System.nanoTime() - next.queuedNanos();
+            start(next.login(), waited);
+        }
+    }
+
+    // Takes a login out of the queue, for a client that left while waiting
+    // INPUT: login (Runnable) the one given to admit()
+    // OUTPUT: true if it was still waiting, false if it was started or never queued
+    public synchronized boolean cancel(Runnable login) {
+        return queue.removeIf(waiting -> waiting.login() == login);
+    }
+
+    // Rough wait for a login at the given queue position, from the average login time
+    // INPUT: position (int) 1 = next
+    // OUTPUT: milliseconds, 0 before any login has finished
+    public long estimateWaitMillis(int position) {
+        long rounds = (position + maxInFlight - 1) / maxInFlight;
+        return TimeUnit.NANOSECONDS.toMillis(rounds * loginTime.getMeanNanos());
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public LatencyHistogram getLoginTime() {
+        return loginTime;
+    }
+
+    private void start(Runnable login, long waitedNanos) {
+        queueWait.record(waitedNanos);
+        admitted.increment();
+        long started = System.nanoTime();
+        try {
+            login.run();
+        } catch (RuntimeException e) {
+            System.err.println("Error starting login: " + e.getMessage());
+            release(started); // do not lose the slot
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LoginAdmission[inFlight=" + getInFlight() + "/" + maxInFlight + ", queued=" + getQueued()
+                + ", admitted=" + admitted.sum() + ", waited=" + queued.sum() + ", rejected=" + rejected.sum()
+                + ", wait " + queueWait + ", login " + loginTime + "]";
+    }
+}
@@ -4,25 +4,73 @@ import Common.Admin.Admin;
 import ServerApp.StorageManager.StorageManager;
 import Common.ChatBox.ChatBox;
 import Common.Message.Message;
+import Common.Messages.AskChatLog;
+import Common.Messages.ChatLogChunk;
+import Common.Messages.SendBroadcast;
+import Common.Messages.SendCatchUp;
+import Common.Messages.SendNewMessages;
+import Common.Messages.UnreadUpdate;
 import Common.User.User;
+import Common.User.UserView;
+import ServerApp.ChatBoxActor.ChatBoxActor;
+import ServerApp.ChatBoxActor.ChatBoxActor.Tick;
 import ServerApp.ClientHandler.ClientHandler;
+import ServerApp.DedupCache.DedupCache;
+import ServerApp.Dispatcher.Dispatcher;
+import ServerApp.Inbox.Inbox;
+import ServerApp.ReadMarkers.ReadMarkers;
 import ServerApp.Server.Server;
+import ServerApp.SystemTopic.SystemTopic;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 
 /**
  * MessageHandler manages message-related operations, acting as an intermediary
  * between ClientHandler and other components.
+ *
+ * Every change to an existing chatbox is written as a mutation that records
+ * its effects in a Tick. Without actors the mutation runs on the calling
+ * thread and its Tick is flushed straight away. After useActors() each
+ * chatbox gets a ChatBoxActor, which applies its mutations one at a time on a
+ * shared pool and flushes them once per batch.
  */
-public class MessageHandler {
+public class MessageHandler implements ChatBoxActor.TickListener {
+
+    private static final int LOG_CHUNK_CHARS = 64 * 1024; // text in one chat log chunk
+    private static final int LOG_SCAN_LIMIT = 5000; // messages looked at for one chat log chunk
+    private static final int LOG_PAGE = 200; // messages read at a time while exporting a log
 
     // Attributes
     private final StorageManager storageManager; // Manages storage operations for chatboxes
     private final ConcurrentHashMap<Integer, ChatBox> chatBoxes; // In-memory chatboxes
+    private final ConcurrentSkipListSet<Integer> chatBoxIDs = new ConcurrentSkipListSet<>(); // keys of chatBoxes, in order
     private final ConcurrentHashMap<Integer, User> userDB; // In-memory users
     private final Server server; // Reference to the Server instance
     private final ChatBox systemChatBox;
+    private final SystemTopic systemTopic; // chatbox 0, pushed to online sessions only
+    private final AtomicLong windowHits = new AtomicLong(); // history reads served from memory
+    private final AtomicLong windowMisses = new AtomicLong(); // history reads that went to disk
+    private final ConcurrentHashMap<Integer, ChatBoxActor> actors = new ConcurrentHashMap<>();
+    private volatile Executor actorExecutor; // null while mutations run on the calling thread
+    private volatile Dispatcher dispatcher; // null while updates are sent on the calling thread
+    private final ConcurrentHashMap<Integer, Integer> privateChatBoxIDs = new ConcurrentHashMap<>(); // userID -> chatBoxID
+    private final DedupCache submissions = new DedupCache(); // recent submission IDs per sender
+    private final ReadMarkers readMarkers;
+    private final Inbox inbox = new Inbox(); // each user's chatboxes, newest activity first
+
+    // Outcome of submitMessage
+    public enum Submission { ACCEPTED, DUPLICATE, REJECTED }
     // Constructor
     // *Initializes MessageHandler with storageManager, chatBoxes, userDB, and server*
     // INPUT: storageManager (StorageManager), chatBoxes (ConcurrentHashMap<Integer, ChatBox>), userDB (ConcurrentHashMap<Integer, User>), server (Server)
@@ -33,28 +81,349 @@ public class MessageHandler {
         this.userDB = userDB;
         this.server = server;
         systemChatBoxTemp = getChatBox(0);
+        if (systemChatBoxTemp == null) {
+            systemChatBoxTemp = loadChatBox(0); // stored but not handed over in chatBoxes
+        }
         if(systemChatBoxTemp == null) {
             systemChatBoxTemp = ChatBox.getSystemChatBox();
             chatBoxes.put(0, systemChatBoxTemp);
             storeChatBox(systemChatBoxTemp);
         }
-            systemChatBoxTemp.setParticipants(userDB.values());
-            systemChatBox = systemChatBoxTemp;
+        systemChatBox = systemChatBoxTemp; // every user is implicitly a participant of the system chatbox
+        systemTopic = new SystemTopic(systemChatBox, storageManager, (from, count) -> getMessages(0, from, count));
+        readMarkers = new ReadMarkers(storageManager);
+        for (ChatBox chatBox : chatBoxes.values()) {
+            chatBoxIDs.add(chatBox.getChatBoxID());
+            indexIfPrivate(chatBox);
+            inbox.add(chatBox);
+        }
+    }
+
+    // *Routes every later chatbox mutation through a per-chatbox actor on the given pool*
+    // INPUT: executor (Executor) shared by all actors
+    // OUTPUT: none
+    public void useActors(Executor executor) {
+        this.actorExecutor = executor;
+    }
+
+    // *Hands chatbox updates to a dispatcher instead of sending them on the calling thread*
+    // INPUT: dispatcher (Dispatcher)
+    // OUTPUT: none
+    public void useDispatcher(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public boolean isUsingActors() {
+        return actorExecutor != null;
+    }
+
+    // *Applies a mutation to a chatbox and waits for its result*
+    // INPUT: chatBox (ChatBox), mutation (BiFunction<ChatBox, Tick, T>)
+    // OUTPUT: result of the mutation, once its effects are persisted and sent out
+    private <T> T perform(ChatBox chatBox, BiFunction<ChatBox, Tick, T> mutation) {
+        return submit(chatBox, mutation).join();
+    }
+
+    // *Applies a mutation to a chatbox*
+    // INPUT: chatBox (ChatBox), mutation (BiFunction<ChatBox, Tick, T>)
+    // OUTPUT: future of the result (already complete when actors are not in use)
+    private <T> CompletableFuture<T> submit(ChatBox chatBox, BiFunction<ChatBox, Tick, T> mutation) {
+        Executor executor = actorExecutor;
+        if (executor == null) {
+            Tick tick = new Tick();
+            T result = mutation.apply(chatBox, tick);
+            ChatBoxActor.runTick(chatBox, tick, this);
+            return CompletableFuture.completedFuture(result);
+        }
+        return actorFor(chatBox, executor).ask(mutation);
+    }
+
+    // *Applies a mutation to a chatbox without waiting for it when actors are in use*
+    // INPUT: chatBox (ChatBox), mutation (BiConsumer<ChatBox, Tick>)
+    // OUTPUT: none
+    private void post(ChatBox chatBox, BiConsumer<ChatBox, Tick> mutation) {
+        Executor executor = actorExecutor;
+        if (executor == null) {
+            Tick tick = new Tick();
+            mutation.accept(chatBox, tick);
+            ChatBoxActor.runTick(chatBox, tick, this);
+        } else {
+            actorFor(chatBox, executor).tell(mutation);
+        }
+    }
+
+    private ChatBoxActor actorFor(ChatBox chatBox, Executor executor) {
+        return actors.computeIfAbsent(chatBox.getChatBoxID(), id -> new ChatBoxActor(chatBox, executor, this));
+    }
+
+    // *Persists and sends out the effects of a batch of mutations*
+    // INPUT: chatBox (ChatBox), tick (Tick)
+    // OUTPUT: none
+    @Override
+    public void afterTick(ChatBox chatBox, Tick tick) {
+        storageManager.appendMessages(chatBox, tick.getAppended()); // only new messages are written
+        if (tick.needsSnapshot()) {
+            storeChatBox(chatBox);
+        }
+        if (tick.needsFanOut()) {
+            updateParticipants(chatBox.getChatBoxID()); // one update per batch, however many messages it held
+        }
+        if (!tick.getAppended().isEmpty()) {
+            inbox.touch(chatBox); // moves it to the top of its participants' inboxes
+            notifyActivity(chatBox, tick.getAppended());
+        }
+        if (chatBox.isOpenToAll() && !tick.getPublished().isEmpty()) {
+            publish(chatBox, List.copyOf(tick.getPublished())); // broadcasts reach open chatboxes through SendBroadcast
+        }
+    }
+
+    // *Adds a message to a chatbox and records it for the history file*
+    // INPUT: chatBox (ChatBox), message (Message), tick (Tick)
+    // OUTPUT: none
+    private static void append(ChatBox chatBox, Message message, Tick tick) {
+        long sequence = chatBox.addMessage(message);
+        if (sequence > 0) {
+            tick.appended(message.withSequence(sequence));
+            if (!chatBox.isOpenToAll()) {
+                tick.fanOut(); // open chatboxes are published as new messages instead of the whole window
+            }
+        }
+    }
+
+    // *Sends only the new messages of an open chatbox to every online session*
+    // INPUT: chatBox (ChatBox), messages (List<Message>) carrying their sequence numbers
+    // OUTPUT: none
+    private void publish(ChatBox chatBox, List<Message> messages) {
+        SendNewMessages update = new SendNewMessages(chatBox.getChatBoxID(), messages);
+        Dispatcher current = dispatcher;
+        for (ClientHandler recipient : recipientsOf(chatBox)) {
+            if (current != null) {
+                current.dispatch(recipient, handler -> handler.sendNewMessages(update));
+            } else {
+                recipient.sendNewMessages(update);
+            }
+        }
+    }
+
+    // *Starts system notifications for a logged-in user and returns what they missed*
+    // INPUT: userID (int), lastSeen (long) last system message the user's client has, 0 if none
+    // OUTPUT: List of messages in sequence order
+    public List<Message> catchUpSystemTopic(int userID, long lastSeen) {
+        List<Message> missed = systemTopic.subscribe(userID, lastSeen);
+        return missed != null ? missed : List.of();
+    }
+
+    // *Retrieves the messages of a chatbox after the given sequence number that are still in its window*
+    // Older gaps are not filled in: the client starts again from the window, as it would on a first download.
+    // INPUT: chatBoxID (int), lastSeen (long) last sequence the client has, 0 if none
+    // OUTPUT: List of messages in sequence order or null if chatbox not found
+    public List<Message> getMessagesAfter(int chatBoxID, long lastSeen) {
+        ChatBox chatBox = chatBoxes.get(chatBoxID);
+        if (chatBox == null) {
+            return null;
+        }
+        long from = Math.max(lastSeen + 1, chatBox.getFirstSequenceInWindow());
+        long count = chatBox.getLastSequence() - from + 1;
+        return count > 0 ? getMessages(chatBoxID, from, (int) count) : List.of();
+    }
+
+    // *Builds a user's catch-up: what they missed in each chatbox they reported, as they may see it*
+    // The client's cached messages are not sent again, so for the part of that range still in the window
+    // the catch-up lists which messages are hidden now; a client whose copy differs loads the chatbox again.
+    // INPUT: user (User), lastSequences (Map<Integer, Long>) chatBoxID -> last sequence the client has, 0 if none
+    // OUTPUT: SendCatchUp
+    public SendCatchUp catchUp(User user, Map<Integer, Long> lastSequences) {
+        int userID = user.getUserID();
+        Map<Integer, List<Message>> missed = new HashMap<>();
+        Map<Integer, SendCatchUp.Hidden> hidden = new HashMap<>();
+        Map<Integer, UserView> participants = new HashMap<>();
+        for (Map.Entry<Integer, Long> entry : lastSequences.entrySet()) {
+            ChatBox chatBox = chatBoxes.get(entry.getKey());
+            if (chatBox == null || !chatBox.hasParticipant(userID) || (chatBox.isHidden() && !(user instanceof Admin))) {
+                continue; // the client learns about removed or hidden chatboxes through the usual updates
+            }
+            int chatBoxID = chatBox.getChatBoxID();
+            long lastSeen = Math.max(0, entry.getValue());
+            List<Message> messages = chatBox.isOpenToAll()
+                    ? catchUpSystemTopic(userID, lastSeen)
+                    : getMessagesAfter(chatBoxID, lastSeen);
+            missed.put(chatBoxID, visibleTo(user, messages));
+            long from = Math.max(1, chatBox.getFirstSequenceInWindow());
+            long to = Math.min(lastSeen, chatBox.getLastSequence());
+            if (from <= to) {
+                hidden.put(chatBoxID, new SendCatchUp.Hidden(from, to, chatBox.getHiddenSequences(from, to)));
+            }
+            if (!chatBox.isOpenToAll()) {
+                for (User participant : chatBox.getParticipants(userDB)) {
+                    participants.putIfAbsent(participant.getUserID(), UserView.of(participant));
+                }
+            } else {
+                for (Message message : messages) { // everyone takes part, only the senders are needed
+                    User sender = userDB.get(message.getSenderID());
+                    if (sender != null) {
+                        participants.putIfAbsent(sender.getUserID(), UserView.of(sender));
+                    }
+                }
+            }
+        }
+        return new SendCatchUp(missed, hidden, new ArrayList<>(participants.values()));
+    }
+
+    // *Messages as a user may see them: hidden ones become tombstones unless the user is an admin*
+    // INPUT: user (User), messages (List<Message>)
+    // OUTPUT: List of messages, the same list if nothing had to change
+    public static List<Message> visibleTo(User user, List<Message> messages) {
+        if (messages == null || user instanceof Admin) {
+            return messages;
+        }
+        List<Message> visible = null;
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if (message.isHidden()) {
+                if (visible == null) {
+                    visible = new ArrayList<>(messages); // copied only if something is hidden
+                }
+                visible.set(i, message.tombstone());
+            }
+        }
+        return visible != null ? visible : messages;
+    }
+
+    // *Formats the next chunk of a chatbox log*
+    // A chunk stops after LOG_CHUNK_CHARS characters of text or LOG_SCAN_LIMIT scanned messages, so
+    // neither a long log nor a filter that matches little makes one request expensive.
+    // INPUT: request (AskChatLog) chatbox, position and filters
+    // OUTPUT: ChatLogChunk or null if chatbox not found
+    public ChatLogChunk exportLog(AskChatLog request) {
+        ChatBox chatBox = chatBoxes.get(request.chatBoxID());
+        if (chatBox == null) {
+            return null;
+        }
+        long last = chatBox.getLastSequence();
+        long sequence = Math.max(1, request.fromSequence());
+        long scanEnd = Math.min(last, sequence + LOG_SCAN_LIMIT - 1);
+        StringBuilder text = new StringBuilder();
+        while (sequence <= scanEnd && text.length() < LOG_CHUNK_CHARS) {
+            int count = (int) Math.min(LOG_PAGE, scanEnd - sequence + 1);
+            List<Message> page = getMessages(request.chatBoxID(), sequence, count);
+            if (page == null || page.isEmpty()) {
+                sequence += count; // nothing stored for this range, skip it
+                continue;
+            }
+            for (Message message : page) {
+                sequence = message.getSequence() + 1;
+                if (request.matches(message)) {
+                    text.append(message.getTimestamp()).append(" - ")
+                        .append(message.getSenderID()).append(": ")
+                        .append(message).append("\n");
+                    if (text.length() >= LOG_CHUNK_CHARS) {
+                        break;
+                    }
+                }
+            }
+        }
+        return new ChatLogChunk(request.chatBoxID(), request.requestID(), request.fromSequence(), text.toString(),
+                sequence, sequence > last);
+    }
+
+    // *Saves the per-user state of a user whose last session has ended*
+    // INPUT: userID (int)
+    // OUTPUT: none
+    public void userWentOffline(int userID) {
+        systemTopic.unsubscribe(userID); // catches up on next login
+        readMarkers.save(userID);
+    }
+
+    // *Sends each online participant the new activity of a chatbox (a few numbers, no messages)*
+    // Senders have read their own messages, so their markers move along.
+    // INPUT: chatBox (ChatBox), appended (List<Message>) carrying their sequence numbers
+    // OUTPUT: none
+    private void notifyActivity(ChatBox chatBox, List<Message> appended) {
+        int chatBoxID = chatBox.getChatBoxID();
+        for (Message message : appended) {
+            readMarkers.markRead(message.getSenderID(), chatBoxID, message.getSequence());
+        }
+        Message newest = appended.get(appended.size() - 1);
+        long lastSequence = Math.max(newest.getSequence(), chatBox.getLastSequence());
+        Dispatcher current = dispatcher;
+        for (ClientHandler recipient : recipientsOf(chatBox)) {
+            int userID = recipient.getUser().getUserID();
+            UnreadUpdate update = new UnreadUpdate(chatBoxID, lastSequence, readMarkers.getLastRead(userID, chatBoxID),
+                    newest.getTimestampMillis());
+            if (current != null) {
+                current.dispatch(recipient, handler -> handler.sendUnreadUpdate(update));
+            } else {
+                recipient.sendUnreadUpdate(update);
+            }
+        }
+    }
+
+    // *Builds the activity of a chatbox for one user*
+    // INPUT: userID (int), chatBox (ChatBox)
+    // OUTPUT: UnreadUpdate
+    public UnreadUpdate activityOf(int userID, ChatBox chatBox) {
+        return new UnreadUpdate(chatBox.getChatBoxID(), chatBox.getLastSequence(),
+                readMarkers.getLastRead(userID, chatBox.getChatBoxID()), chatBox.getLastTimestamp());
+    }
+
+    // *Records that a user has read a chatbox up to a sequence and tells the user's other sessions*
+    // INPUT: userID (int), chatBoxID (int), sequence (long)
+    // OUTPUT: true if the marker moved, false otherwise
+    public boolean markRead(int userID, int chatBoxID, long sequence) {
+        ChatBox chatBox = chatBoxes.get(chatBoxID);
+        if (chatBox == null || !chatBox.hasParticipant(userID)
+                || !readMarkers.markRead(userID, chatBoxID, Math.min(sequence, chatBox.getLastSequence()))) {
+            return false;
+        }
+        UnreadUpdate update = activityOf(userID, chatBox);
+        for (ClientHandler session : server.getSessions(userID)) {
+            session.sendUnreadUpdate(update);
+        }
+        return true;
+    }
+
+    public ReadMarkers getReadMarkers() {
+        return readMarkers;
+    }
+
+    public Inbox getInbox() {
+        return inbox;
+    }
+
+    public SystemTopic getSystemTopic() {
+        return systemTopic;
     }
 
     // *Finds the ClientHandler for a given user ID*
     // INPUT: userID (int)
     // OUTPUT: ClientHandler or null if not found
     private ClientHandler findClientHandler(int userID) {
-        return server.getClientHandlers().stream()
-                .filter(handler -> handler.getUser() != null && handler.getUser().getUserID() == userID)
-                .findFirst()
-                .orElse(null);
+        return server.getSessions(userID).stream().findFirst().orElse(null);
+    }
+
+    // *Finds the logged-in sessions that take part in a chatbox*
+    // INPUT: chatBox (ChatBox)
+    // OUTPUT: List of ClientHandler
+    private List<ClientHandler> recipientsOf(ChatBox chatBox) {
+        List<ClientHandler> recipients = new ArrayList<>();
+        if (chatBox.isOpenToAll()) {
+            for (ClientHandler clientHandler : server.getClientHandlers()) {
+                if (clientHandler.getUser() != null) {
+                    recipients.add(clientHandler);
+                }
+            }
+        } else {
+            // Look up each participant's sessions instead of walking every connected client
+            for (int userID : chatBox.getParticipantIDs()) {
+                recipients.addAll(server.getSessions(userID));
+            }
+        }
+        return recipients;
     }
 
     public void forceLogout(int userID){
         ClientHandler clientHandler = findClientHandler(userID);
-        if(clientHandler != null){clientHandler.handleLogout();}
+        if(clientHandler != null){clientHandler.forceLogout();}
 
     }
 
@@ -64,8 +433,11 @@ public class MessageHandler {
 
     public ChatBox createChatBox(List<User> participants, String name) {
         ChatBox chatBox = new ChatBox(participants, name);
-        chatBoxes.put(chatBox.getChatBoxID(), chatBox);
-        storeChatBox(chatBox);
+        if (!storeChatBox(chatBox)) {
+            return null;
+        }
+        indexIfPrivate(chatBox);
+        inbox.add(chatBox);
         return chatBox;
     }
 
@@ -77,15 +449,35 @@ public class MessageHandler {
         return chatBoxes.get(chatBoxID);
     }
 
+    // *Retrieves a page of chatboxes in ID order, read from a sorted index instead of sorting every chatbox*
+    // INPUT: afterChatBoxID (int) the page starts after this ID, limit (int) most chatboxes returned
+    // OUTPUT: List of ChatBox, ordered by ID
+    public List<ChatBox> getChatBoxPage(int afterChatBoxID, int limit) {
+        List<ChatBox> page = new ArrayList<>(Math.min(limit, 256));
+        for (int chatBoxID : chatBoxIDs.tailSet(afterChatBoxID, false)) {
+            if (page.size() >= limit) {
+                break;
+            }
+            ChatBox chatBox = chatBoxes.get(chatBoxID);
+            if (chatBox != null) {
+                page.add(chatBox);
+            }
+        }
+        return page;
+    }
+
     // *Updates all participants in the chatbox with the latest chatbox state*
     // INPUT: chatBoxID (int)
     // OUTPUT: none
     private void updateParticipants(int chatBoxID) {
         ChatBox chatBox = chatBoxes.get(chatBoxID);
         if (chatBox != null) {
-            for (User participant : chatBox.getParticipants()) {
-                ClientHandler clientHandler = findClientHandler(participant.getUserID());
-                if (clientHandler != null) {
+            List<ClientHandler> recipients = recipientsOf(chatBox);
+            Dispatcher current = dispatcher;
+            if (current != null) {
+                current.dispatchChatBox(chatBox, recipients); // delivered by the recipients' shards, the caller does not wait
+            } else {
+                for (ClientHandler clientHandler : recipients) {
                     clientHandler.sendChatBoxUpdate(chatBox); // Send the updated chatbox to the client via the client handler
                 }
             }
@@ -98,22 +490,114 @@ public class MessageHandler {
     public boolean sendMessage(int chatBoxID, Message message) {
         ChatBox chatBox = chatBoxes.get(chatBoxID);
         if (chatBox != null && (chatBoxID!=0 || userDB.get(message.getSenderID() )instanceof Admin)) {
-            chatBox.addMessage(new Message(message));
-            storeChatBox(chatBox); // Store updated chatbox in persistent storage
-            updateParticipants(chatBoxID); // Update all participants with the new chatbox
+            Message copy = new Message(message);
+            post(chatBox, (box, tick) -> append(box, copy, tick)); // ordered per chatbox, the sender does not wait
             return true;
         }
         return false;
     }
 
+    // *Sends a message unless the same submission was already accepted*
+    // A client sends a retried message with the same submission ID; the retry is acknowledged but not stored again.
+    // INPUT: chatBoxID (int), message (Message), submissionID (long) chosen by the sender's client
+    // OUTPUT: ACCEPTED, DUPLICATE (already accepted, nothing done) or REJECTED
+    public Submission submitMessage(int chatBoxID, Message message, long submissionID) {
+        if (!submissions.firstSeen(message.getSenderID(), submissionID)) {
+            return Submission.DUPLICATE;
+        }
+        if (sendMessage(chatBoxID, message)) {
+            return Submission.ACCEPTED;
+        }
+        submissions.forget(message.getSenderID(), submissionID); // a later retry may succeed
+        return Submission.REJECTED;
+    }
+
     // *Sends a message to all chatboxes*
     // INPUT: message (Message)
     // OUTPUT: none
     public void sendMessageToAllChatBoxes(Message message) {
-        for (ChatBox chatBox : chatBoxes.values()) {
-            chatBox.addMessage(message);
-            storeChatBox(chatBox); // Store updated chatbox in persistent storage
-            updateParticipants(chatBox.getChatBoxID()); // Update all participants with the new chatbox
+        broadcast(message, chatBoxes.values());
+    }
+
+    // *Sends a system message from an admin to the private chatbox of each given user*
+    // INPUT: senderID (int), content (String), userIDs (Collection<Integer>)
+    // OUTPUT: number of chatboxes the message was added to
+    public int sendSystemMessage(int senderID, String content, Collection<Integer> userIDs) {
+        List<ChatBox> targets = new ArrayList<>(userIDs.size());
+        for (int userID : userIDs) {
+            ChatBox chatBox = chatBoxes.get(getPrivateChatBoxID(userID));
+            if (chatBox != null) {
+                targets.add(chatBox);
+            }
+        }
+        return broadcast(new Message(senderID, content), targets);
+    }
+
+    // *Adds one message to many chatboxes, persists it in one pass and sends it to each online session once*
+    // The same Message (ID and UTF-8 body) is referenced by every chatbox instead of being copied per chatbox,
+    // and no chatbox file is rewritten; sessions get one SendBroadcast instead of one chatbox update per chatbox.
+    // Each chatbox writes the message with its own batch, so its history stays in sequence order.
+    // INPUT: message (Message), targets (Collection<ChatBox>)
+    // OUTPUT: number of chatboxes the message was added to
+    public int broadcast(Message message, Collection<ChatBox> targets) {
+        Message shared = message.asShared(); // one body in memory and on disk, however many chatboxes hold it
+        List<ChatBox> boxes = new ArrayList<>(targets);
+        List<CompletableFuture<Long>> sequences = new ArrayList<>(boxes.size());
+        for (ChatBox chatBox : boxes) {
+            CompletableFuture<Long> sequence = submit(chatBox, (box, tick) -> { // ordered with other changes of the chatbox
+                long added = box.addMessage(shared);
+                if (added > 0) {
+                    tick.broadcastAppended(shared.withSequence(added));
+                }
+                return added;
+            });
+            sequences.add(sequence.exceptionally(error -> {
+                System.err.println("Broadcast to chatbox " + chatBox.getChatBoxID() + " failed: " + error.getMessage());
+                return 0L; // the other chatboxes still get it
+            }));
+        }
+        CompletableFuture.allOf(sequences.toArray(new CompletableFuture<?>[0]))
+                .thenRun(() -> finishBroadcast(shared, boxes, sequences))
+                .exceptionally(error -> {
+                    System.err.println("Error delivering broadcast " + shared.getMessageID() + ": " + error.getMessage());
+                    return null;
+                });
+        return boxes.size();
+    }
+
+    // *Delivers a broadcast once per session*
+    // The chatboxes have already written it, moved up in their inboxes and sent their unread counts in afterTick.
+    private void finishBroadcast(Message message, List<ChatBox> boxes, List<CompletableFuture<Long>> sequences) {
+        Map<ClientHandler, List<Integer>> bySession = new HashMap<>(); // session -> indexes into boxes
+        List<ClientHandler> everyone = null;
+        for (int i = 0; i < boxes.size(); i++) {
+            ChatBox chatBox = boxes.get(i);
+            long sequence = sequences.get(i).join();
+            if (sequence <= 0) {
+                continue;
+            }
+            if (chatBox.isOpenToAll() && everyone == null) {
+                everyone = recipientsOf(chatBox);
+            }
+            for (ClientHandler recipient : chatBox.isOpenToAll() ? everyone : recipientsOf(chatBox)) {
+                bySession.computeIfAbsent(recipient, handler -> new ArrayList<>()).add(i);
+            }
+        }
+        Dispatcher current = dispatcher;
+        for (Map.Entry<ClientHandler, List<Integer>> entry : bySession.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            int[] chatBoxIDs = new int[indexes.size()];
+            long[] sequenceNumbers = new long[indexes.size()];
+            for (int j = 0; j < indexes.size(); j++) {
+                chatBoxIDs[j] = boxes.get(indexes.get(j)).getChatBoxID();
+                sequenceNumbers[j] = sequences.get(indexes.get(j)).join();
+            }
+            SendBroadcast update = new SendBroadcast(message, chatBoxIDs, sequenceNumbers);
+            if (current != null) {
+                current.dispatch(entry.getKey(), handler -> handler.sendBroadcast(update));
+            } else {
+                entry.getKey().sendBroadcast(update);
+            }
         }
     }
 
@@ -142,11 +626,18 @@ public class MessageHandler {
     public boolean addParticipantToChatBox(int chatBoxID, ClientHandler clientHandler) {
         ChatBox chatBox = chatBoxes.get(chatBoxID);
         if (chatBox != null) {
-            boolean added = chatBox.addParticipant(clientHandler.getUser());
+            User user = clientHandler.getUser();
+            boolean added = perform(chatBox, (box, tick) -> {
+                boolean joined = box.addParticipant(user);
+                if (joined) {
+                    tick.snapshot(); // Store updated chatbox to reflect the new participant
+                }
+                return joined;
+            });
             if (added) {
-                storeChatBox(chatBox); // Store updated chatbox to reflect the new participant
-                return true;
+                inbox.join(user.getUserID(), chatBox);
             }
+            return added;
         }
         return false;
     }
@@ -157,15 +648,17 @@ public class MessageHandler {
     public boolean removeParticipantFromChatBox(int chatBoxID, int userID) {
         ChatBox chatBox = chatBoxes.get(chatBoxID);
         if (chatBox != null) {
-            User userToRemove = chatBox.getParticipants().stream()
-                .filter(user -> user.getUserID() == userID)
-                .findFirst()
-                .orElse(null);
-            boolean removed = chatBox.removeParticipant(userToRemove);
+            boolean removed = perform(chatBox, (box, tick) -> {
+                boolean left = box.removeParticipant(userID);
+                if (left) {
+                    tick.snapshot(); // Store updated chatbox to reflect the removed participant
+                }
+                return left;
+            });
             if (removed) {
-                storeChatBox(chatBox); // Store updated chatbox to reflect the removed participant
-                return true;
+                inbox.leave(userID, chatBoxID);
             }
+            return removed;
         }
         return false;
     }
@@ -181,13 +674,39 @@ public class MessageHandler {
         return null;
     }
 
+    // *Retrieves a range of messages by sequence number, reading from the history file when it is older than the window*
+    // INPUT: chatBoxID (int), fromSequence (long), count (int)
+    // OUTPUT: List of messages in sequence order or null if chatbox not found
+    public List<Message> getMessages(int chatBoxID, long fromSequence, int count) {
+        ChatBox chatBox = chatBoxes.get(chatBoxID);
+        if (chatBox == null) {
+            return null;
+        }
+        if (chatBox.isInWindow(fromSequence, count)) {
+            windowHits.incrementAndGet();
+            return chatBox.getMessages(fromSequence, count);
+        }
+        windowMisses.incrementAndGet();
+        return storageManager.readMessages(chatBoxID, fromSequence, count);
+    }
+
+    // Number of history reads answered from the in-memory windows
+    public long getWindowHits() {
+        return windowHits.get();
+    }
+
+    // Number of history reads that had to go to the history files
+    public long getWindowMisses() {
+        return windowMisses.get();
+    }
+
     // *Loads a chatbox into memory from storage*
     // INPUT: chatBoxID (int)
     // OUTPUT: Loaded ChatBox or null if not found
     public ChatBox loadChatBox(int chatBoxID) {
         ChatBox chatBox = storageManager.retrieveChatBox(chatBoxID);
         if (chatBox != null) {
-            chatBoxes.put(chatBoxID, chatBox); // Add the chatbox to the in-memory collection
+            putChatBox(chatBox); // Add the chatbox to the in-memory collection
         }
         return chatBox;
     }
@@ -196,29 +715,41 @@ public class MessageHandler {
     // INPUT: chatBox (ChatBox)
     // OUTPUT: true if stored successfully, false otherwise
     public boolean storeChatBox(ChatBox chatBox) {
-        if (chatBox != null) {
-            chatBoxes.put(chatBox.getChatBoxID(), chatBox); // Update the in-memory collection
-            return storageManager.storeChatBox(chatBox); // Store the chatbox in persistent storage
+        if (chatBox != null && storageManager.storeChatBox(chatBox)) { // Store the chatbox in persistent storage
+            putChatBox(chatBox); // Update the in-memory collection
+            return true;
         }
         return false;
     }
 
+    // Puts a chatbox in the in-memory collection, closing a different one it replaces
+    private void putChatBox(ChatBox chatBox) {
+        ChatBox previous = chatBoxes.put(chatBox.getChatBoxID(), chatBox);
+        chatBoxIDs.add(chatBox.getChatBoxID());
+        if (previous != null && previous != chatBox) {
+            previous.close(); // gives its off-heap message bodies back
+        }
+    }
+
     // *Hides a specific message in a chatbox*
     // INPUT: chatBoxID (int), messageID (int)
     // OUTPUT: true if message hidden successfully, false otherwise
     public boolean hideMessage(int chatBoxID, int messageID) {
         ChatBox chatBox = chatBoxes.get(chatBoxID);
         if (chatBox != null) {
-            Message messageToHide = chatBox.getMessages().stream()
-                .filter(message -> message.getMessageID() == messageID)
-                .findFirst()
-                .orElse(null);
-            if (messageToHide != null) {
-                messageToHide.setHidden(true);
-                storeChatBox(chatBox); // Store updated chatbox to reflect hidden message
-                updateParticipants(chatBoxID); // Update all participants with the latest chatbox state
-                return true;
-            }
+            return perform(chatBox, (box, tick) -> {
+                long sequence = box.setMessageHidden(messageID, true);
+                if (sequence < 0) {
+                    sequence = storageManager.findSequence(chatBoxID, messageID); // older than the window
+                }
+                if (sequence > 0) {
+                    storageManager.setMessageHidden(chatBoxID, sequence, true); // flag is updated in place in the history file
+                    tick.snapshot(); // Store updated chatbox to reflect hidden message
+                    tick.fanOut(); // Update all participants with the latest chatbox state
+                    return true;
+                }
+                return false;
+            });
         }
         return false;
     }
@@ -229,10 +760,12 @@ public class MessageHandler {
     public boolean hideChatBox(int chatBoxID) {
         ChatBox chatBox = chatBoxes.get(chatBoxID);
         if (chatBox != null) {
-            chatBox.hideChatBox(); // Set chatbox to hidden
-            storeChatBox(chatBox); // Store updated chatbox to reflect hidden status
-            updateParticipants(chatBoxID); // Update all participants with the latest chatbox state
-            return true;
+            return perform(chatBox, (box, tick) -> {
+                box.hideChatBox(); // Set chatbox to hidden
+                tick.snapshot(); // Store updated chatbox to reflect hidden status
+                tick.fanOut(); // Update all participants with the latest chatbox state
+                return true;
+            });
         }
         return false;
     }
@@ -241,29 +774,48 @@ public class MessageHandler {
     // INPUT: userID (int)
     // OUTPUT: chatBoxID (int) or -1 if failed
     private int getPrivateChatBoxID(int userID) {
-        // Implement logic to retrieve or create a private chatbox for the user
-        // For example, search for a chatbox with only this user or create a new one
-        // Placeholder implementation:
-        for (ChatBox chatBox : chatBoxes.values()) {
-            if (chatBox.getParticipants().size() == 1 && chatBox.getParticipants().iterator().next().getUserID() == userID) {
-                return chatBox.getChatBoxID();
-            }
+        // Looked up in an index kept by user instead of scanning every chatbox
+        Integer indexed = privateChatBoxIDs.get(userID);
+        if (indexed != null && isPrivateChatBoxOf(chatBoxes.get(indexed), userID)) {
+            return indexed;
+        }
+        User user = userDB.get(userID);
+        if (user == null) {
+            return -1;
         }
         // If no existing private chatbox, create a new one
-        ChatBox newChatBox = new ChatBox(List.of(userDB.get(userID)));
+        ChatBox newChatBox = new ChatBox(List.of(user));
         if (storeChatBox(newChatBox)) {
+            privateChatBoxIDs.put(userID, newChatBox.getChatBoxID());
+            inbox.add(newChatBox);
             return newChatBox.getChatBoxID();
         }
         return -1;
     }
+
+    // Checks if a chatbox is the private chatbox of a user (only that user takes part in it)
+    private static boolean isPrivateChatBoxOf(ChatBox chatBox, int userID) {
+        return chatBox != null && !chatBox.isOpenToAll() && chatBox.getParticipantCount() == 1
+                && chatBox.hasParticipant(userID);
+    }
+
+    // Adds a chatbox to the private chatbox index if only one user takes part in it
+    private void indexIfPrivate(ChatBox chatBox) {
+        int[] participantIDs = chatBox.getParticipantIDs();
+        if (!chatBox.isOpenToAll() && participantIDs.length == 1) {
+            privateChatBoxIDs.putIfAbsent(participantIDs[0], chatBox.getChatBoxID());
+        }
+    }
     
     public boolean unhideChatBox(int chatBoxID) {
         ChatBox chatBox = chatBoxes.get(chatBoxID);
         if (chatBox != null) {
-            chatBox.setHidden(false); // Set chatbox to unhidden
-            storeChatBox(chatBox); // Store updated chatbox to reflect unhidden status
-            updateParticipants(chatBoxID); // Update all participants with the latest chatbox state
-            return true;
+            return perform(chatBox, (box, tick) -> {
+                box.setHidden(false); // Set chatbox to unhidden
+                tick.snapshot(); // Store updated chatbox to reflect unhidden status
+                tick.fanOut(); // Update all participants with the latest chatbox state
+                return true;
+            });
         }
         return false;
     }
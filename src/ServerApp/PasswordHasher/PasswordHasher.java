@@ -0,0 +1,230 @@
+package ServerApp.PasswordHasher;
+
+import ServerApp.Dispatcher.LatencyHistogram;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PasswordHasher stores passwords as salted PBKDF2 hashes
+ * ("pbkdf2$iterations$salt$hash", Base64) and checks them on its own small,
+ * bounded pool, so a burst of logins waits for a hashing thread instead of
+ * holding connection threads. When the queue is full, verification fails at
+ * once with a RejectedExecutionException rather than piling up.
+ *
+ * A successful check is remembered for a short time under an HMAC of the
+ * password and the stored hash, with a key that never leaves the process, so
+ * a client reconnecting right away is not charged the full cost again. A
+ * changed password changes the stored hash and so misses the cache.
+ *
+ * Passwords saved before hashing are plain text; they still verify (in
+ * constant time) and needsRehash() tells the caller to replace them.
+ */
+public class PasswordHasher {
+
+    public static final int DEFAULT_ITERATIONS = 210_000;
+    public static final int DEFAULT_QUEUE = 256;
+    public static final long DEFAULT_CACHE_MILLIS = 60_000;
+    private static final String PREFIX = "pbkdf2$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int CACHE_CAPACITY = 10_000; // verified credentials remembered at most
+
+    // Attributes
+    private final int iterations;
+    private final ThreadPoolExecutor executor;
+    private final long cacheNanos;
+    private final ConcurrentHashMap<String, Long> verified = new ConcurrentHashMap<>(); // credential digest -> expiry (nanoTime)
+    private final SecretKeySpec digestKey;
+    private final SecureRandom random = new SecureRandom();
+    private final LatencyHistogram hashLatency = new LatencyHistogram();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    // Hasher with the default cost, half the cores and the default queue and cache time
+    public PasswordHasher() {
+        this(DEFAULT_ITERATIONS, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), DEFAULT_QUEUE, DEFAULT_CACHE_MILLIS);
+    }
+
+    // INPUT: iterations (int) PBKDF2 cost, threads (int) hashing threads, queueCapacity (int) checks that may wait,
+    //        cacheMillis (long) how long a verified credential is remembered, 0 to not remember
+    public PasswordHasher(int iterations, int threads, int queueCapacity, long cacheMillis) {
+        if (iterations <= 0 || threads <= 0 || queueCapacity <= 0 || cacheMillis < 0) {
+            throw new IllegalArgumentException("Invalid password hashing settings");
+        }
+        this.iterations = iterations;
+        this.cacheNanos = TimeUnit.MILLISECONDS.toNanos(cacheMillis);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        this.digestKey = new SecretKeySpec(key, "HmacSHA256");
+    }
+
+    // Hashes a password with a new salt on the calling thread
+    // INPUT: password (String)
+    // OUTPUT: String to store in place of the password
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    // Hashes a password with a new salt on the hashing pool
+    // INPUT: password (String)
+    // OUTPUT: CompletableFuture<String> with the value to store, failed with RejectedExecutionException if the pool is full
+    public CompletableFuture<String> hashAsync(String password) {
+        try {
+            return CompletableFuture.supplyAsync(() -> hash(password), executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Checks a password against a stored hash (or plain text password) on the calling thread
+    // INPUT: password (String), stored (String)
+    // OUTPUT: true if they match
+    public boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        String digest = credentialDigest(password, stored);
+        Long expiry = verified.get(digest);
+        if (expiry != null && expiry - System.nanoTime() > 0) {
+            cacheHits.increment();
+            return true;
+        }
+        boolean matches;
+        if (isHashed(stored)) {
+            String[] parts = stored.split("\\$");
+            try {
+                Base64.Decoder decoder = Base64.getDecoder();
+                byte[] expected = decoder.decode(parts[3]);
+                matches = MessageDigest.isEqual(expected, pbkdf2(password, decoder.decode(parts[2]), Integer.parseInt(parts[1])));
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                System.err.println("Malformed password hash: " + e.getMessage());
+                return false;
+            }
+        } else {
+            matches = MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8), password.getBytes(StandardCharsets.UTF_8));
+        }
+        if (matches && cacheNanos > 0) {
+            remember(digest);
+        }
+        return matches;
+    }
+
+    // Checks a password on the hashing pool; a remembered credential completes on the calling thread
+    // INPUT: password (String), stored (String)
+    // OUTPUT: CompletableFuture<Boolean>, failed with RejectedExecutionException if the pool is full
+    public CompletableFuture<Boolean> verifyAsync(String password, String stored) {
+        if (password != null && stored != null) {
+            Long expiry = verified.get(credentialDigest(password, stored));
+            if (expiry != null && expiry - System.nanoTime() > 0) {
+                cacheHits.increment();
+                return CompletableFuture.completedFuture(true);
+            }
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> verify(password, stored), executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // True if the stored value is a hash made by this class
+    public boolean isHashed(String stored) {
+        return stored != null && stored.startsWith(PREFIX);
+    }
+
+    // True if the stored value is plain text or was hashed at a lower cost than the current one
+    public boolean needsRehash(String stored) {
+        if (!isHashed(stored)) {
+            return true;
+        }
+        String[] parts = stored.split("\\$");
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private byte[] pbkdf2(String password, byte[] salt, int rounds) {
+        long start = System.nanoTime();
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, rounds, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e); // part of every Java runtime
+        } finally {
+            spec.clearPassword();
+            hashLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    // HMAC of the password and the stored hash, the cache never holds anything a password can be read from
+    private String credentialDigest(String password, String stored) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(digestKey);
+            mac.update(stored.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private void remember(String digest) {
+        long now = System.nanoTime();
+        if (verified.size() >= CACHE_CAPACITY) {
+            // Drop expired entries; if all are fresh, forget everything rather than grow
+            verified.values().removeIf(expiry -> expiry - now <= 0);
+            if (verified.size() >= CACHE_CAPACITY) {
+                verified.clear();
+            }
+        }
+        verified.put(digest, now + cacheNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "PasswordHasher[iterations=" + iterations + ", threads=" + executor.getMaximumPoolSize()
+                + ", queued=" + executor.getQueue().size() + ", cacheHits=" + cacheHits.sum()
+                + ", rejected=" + rejected.sum() + ", hash " + hashLatency + "]";
+    }
+}
@@ -0,0 +1,174 @@
+package ServerApp.PresenceService;
+
+import Common.User.PresenceDelta;
+import Common.User.User;
+import ServerApp.ClientHandler.ClientHandler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PresenceService pushes online/offline and banned/unbanned changes to the
+ * sessions that are showing the changed users, instead of clients re-asking
+ * for the whole user list.
+ *
+ * A session watches the users whose views the server has sent it (directory
+ * pages, chatbox participants). Changed users are only marked; once per tick
+ * the service compares their current state with the last one it published,
+ * so a user who logs in and out within one tick produces nothing, and each
+ * session gets one SendPresence for all its changes.
+ */
+public class PresenceService {
+
+    private static final int ONLINE = 1;
+    private static final int BANNED = 2;
+
+    // Attributes
+    private final Map<Integer, User> users;
+    private final ConcurrentHashMap<Integer, Integer> lastPublished = new ConcurrentHashMap<>(); // userID -> state sessions last heard of
+    private final Set<Integer> changed = ConcurrentHashMap.newKeySet(); // users changed since the last tick
+    private final ConcurrentHashMap<Integer, Set<ClientHandler>> watchers = new ConcurrentHashMap<>(); // userID -> sessions showing the user
+    private final ConcurrentHashMap<ClientHandler, Set<Integer>> watched = new ConcurrentHashMap<>(); // session -> userIDs it shows
+    private ScheduledExecutorService ticker; // null until start()
+    private final LongAdder published = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    // INPUT: users (Map<Integer, User>) the user map the current states are read from
+    public PresenceService(Map<Integer, User> users) {
+        this.users = users;
+    }
+
+    // Starts pushing the collected changes once per tick
+    // INPUT: tickMillis (long)
+    // OUTPUT: none
+    public synchronized void start(long tickMillis) {
+        if (ticker == null) {
+            ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "presence");
+                thread.setDaemon(true);
+                return thread;
+            });
+            ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    // Records the state of a user that is about to change, call before changing it
+    // INPUT: user (User)
+    // OUTPUT: none
+    public void beforeChange(User user) {
+        lastPublished.putIfAbsent(user.getUserID(), stateOf(user)); // only the first time the user changes
+    }
+
+    // Marks a user as changed, call after changing it
+    // INPUT: user (User)
+    // OUTPUT: none
+    public void changed(User user) {
+        changed.add(user.getUserID());
+    }
+
+    // Lets a session receive the changes of the given users
+    // INPUT: session (ClientHandler), userIDs (Collection<Integer>)
+    // OUTPUT: none
+    public void watch(ClientHandler session, Collection<Integer> userIDs) {
+        Set<Integer> ids = watched.computeIfAbsent(session, s -> ConcurrentHashMap.newKeySet());
+        for (int userID : userIDs) {
+            if (ids.add(userID)) {
+                watchers.computeIfAbsent(userID, id -> ConcurrentHashMap.newKeySet()).add(session);
+            }
+        }
+    }
+
+    // Stops sending changes to a session (logout or disconnect)
+    // INPUT: session (ClientHandler)
+    // OUTPUT: none
+    public void forget(ClientHandler session) {
+        Set<Integer> ids = watched.remove(session);
+        if (ids == null) {
+            return;
+        }
+        for (int userID : ids) {
+            watchers.computeIfPresent(userID, (id, sessions) -> {
+                sessions.remove(session);
+                return sessions.isEmpty() ? null : sessions;
+            });
+        }
+    }
+
+    // Takes the changes collected since the last tick, leaving out those that were undone within it
+    // INPUT: none
+    // OUTPUT: List of PresenceDelta
+    public List<PresenceDelta> drainChanges() {
+        List<PresenceDelta> deltas = new ArrayList<>();
+        Iterator<Integer> iterator = changed.iterator();
+        while (iterator.hasNext()) {
+            int userID = iterator.next();
+            iterator.remove(); // a change made after this is marked again and goes out next tick
+            User user = users.get(userID);
+            Integer published = lastPublished.get(userID);
+            if (user == null || published == null) {
+                continue;
+            }
+            int before = published;
+            int now = stateOf(user);
+            if (before == now) {
+                coalesced.increment();
+                continue;
+            }
+            lastPublished.put(userID, now);
+            if ((before & ONLINE) != (now & ONLINE)) {
+                deltas.add(new PresenceDelta(user.getUserID(), (now & ONLINE) != 0 ? PresenceDelta.Kind.ONLINE : PresenceDelta.Kind.OFFLINE));
+            }
+            if ((before & BANNED) != (now & BANNED)) {
+                deltas.add(new PresenceDelta(user.getUserID(), (now & BANNED) != 0 ? PresenceDelta.Kind.BANNED : PresenceDelta.Kind.UNBANNED));
+            }
+        }
+        return deltas;
+    }
+
+    // Sends each watching session one message with the changes of this tick
+    // INPUT: none
+    // OUTPUT: none
+    public void tick() {
+        try {
+            Map<ClientHandler, List<PresenceDelta>> bySession = new HashMap<>();
+            for (PresenceDelta delta : drainChanges()) {
+                for (ClientHandler session : watchers.getOrDefault(delta.userID(), Set.of())) {
+                    bySession.computeIfAbsent(session, s -> new ArrayList<>()).add(delta);
+                }
+            }
+            for (Map.Entry<ClientHandler, List<PresenceDelta>> entry : bySession.entrySet()) {
+                entry.getKey().sendPresence(entry.getValue());
+                published.add(entry.getValue().size());
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error publishing presence changes: " + e.getMessage()); // keep the ticker alive
+        }
+    }
+
+    private static int stateOf(User user) {
+        return (user.isOnline() ? ONLINE : 0) | (user.isBanned() ? BANNED : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "Presence[published=" + published.sum() + ", coalesced=" + coalesced.sum()
+                + ", watchedUsers=" + watchers.size() + ", sessions=" + watched.size() + "]";
+    }
+}
@@ -0,0 +1,152 @@
+package ServerApp.RateLimiter;
+
+import Common.MessageType;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RateLimiter enforces a token bucket per user and message type. Each bucket
+ * is kept as a single long, the time at which it would be full again
+ * (generic cell rate algorithm), so checking a request does not allocate:
+ * a request is allowed while that time is no more than burst - 1 intervals
+ * ahead of now, and every allowed request pushes it one interval further.
+ *
+ * All sessions of a user share the user's Buckets; a session that has not
+ * logged in yet uses its own.
+ */
+public class RateLimiter {
+
+    private static final MessageType[] TYPES = MessageType.values();
+
+    // Allowed rate of one message type: ratePerSecond on average, up to burst at once
+    public record Limit(double ratePerSecond, int burst) {
+        public Limit {
+            if (ratePerSecond <= 0 || burst <= 0) {
+                throw new IllegalArgumentException("rate and burst must be positive: " + ratePerSecond + "/" + burst);
+            }
+        }
+
+        long intervalNanos() {
+            return (long) (1_000_000_000L / ratePerSecond);
+        }
+
+        // Parses "rate/burst", e.g. "20/40"
+        public static Limit parse(String text) {
+            String[] parts = text.trim().split("/");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("expected rate/burst: " + text);
+            }
+            return new Limit(Double.parseDouble(parts[0]), Integer.parseInt(parts[1]));
+        }
+
+        @Override
+        public String toString() {
+            return ratePerSecond + "/" + burst;
+        }
+    }
+
+    // The bucket state of one user (or one anonymous session), one slot per message type
+    public static final class Buckets {
+        private final long[] fullAt = new long[TYPES.length]; // nanoTime from which the bucket is full
+
+        private Buckets() {
+            Arrays.fill(fullAt, System.nanoTime()); // every bucket starts full
+        }
+    }
+
+    // Attributes
+    private final long[] intervals = new long[TYPES.length]; // 0 for unlimited types
+    private final long[] tolerances = new long[TYPES.length];
+    private final LongAdder[] rejected = new LongAdder[TYPES.length];
+    private final ConcurrentHashMap<Integer, Buckets> bucketsByUser = new ConcurrentHashMap<>();
+
+    // Constructor
+    // INPUT: limits (Map<MessageType, Limit>) types without a limit are not throttled
+    public RateLimiter(Map<MessageType, Limit> limits) {
+        for (MessageType type : TYPES) {
+            rejected[type.ordinal()] = new LongAdder();
+            Limit limit = limits.get(type);
+            if (limit != null) {
+                intervals[type.ordinal()] = limit.intervalNanos();
+                tolerances[type.ordinal()] = (limit.burst() - 1) * limit.intervalNanos();
+            }
+        }
+    }
+
+    // The limits used unless configured otherwise: the requests that rewrite or resend chatboxes
+    public static Map<MessageType, Limit> defaultLimits() {
+        Map<MessageType, Limit> limits = new EnumMap<>(MessageType.class);
+        limits.put(MessageType.LOGIN, new Limit(1, 5));
+        limits.put(MessageType.RESUME_SESSION, new Limit(1, 5));
+        limits.put(MessageType.SEND_MESSAGE, new Limit(10, 30));
+        limits.put(MessageType.REQUEST_CHATBOX, new Limit(5, 20));
+        limits.put(MessageType.REQUEST_CHAT_HISTORY, new Limit(5, 20));
+        limits.put(MessageType.REQUEST_CATCH_UP, new Limit(2, 10));
+        limits.put(MessageType.CREATE_CHATBOX, new Limit(0.5, 5));
+        return limits;
+    }
+
+    // Retrieves the shared buckets of a user
+    // INPUT: userID (int)
+    // OUTPUT: Buckets
+    public Buckets bucketsFor(int userID) {
+        return bucketsByUser.computeIfAbsent(userID, id -> new Buckets());
+    }
+
+    // Creates buckets for a session that is not logged in
+    public Buckets newSessionBuckets() {
+        return new Buckets();
+    }
+
+    // Takes one token for a request
+    // INPUT: buckets (Buckets), type (MessageType)
+    // OUTPUT: 0 if the request may go ahead, otherwise the milliseconds until it would be allowed
+    public long acquire(Buckets buckets, MessageType type) {
+        int slot = type.ordinal();
+        long interval = intervals[slot];
+        if (interval == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        synchronized (buckets) {
+            long fullAt = buckets.fullAt[slot];
+            long start = fullAt - now > 0 ? fullAt : now; // an idle bucket refills up to its burst
+            long ahead = start - now;
+            if (ahead > tolerances[slot]) {
+                rejected[slot].increment();
+                return Math.max(1, (ahead - tolerances[slot]) / 1_000_000);
+            }
+            buckets.fullAt[slot] = start + interval;
+            return 0;
+        }
+    }
+
+    // Number of requests of a type that were rejected
+    public long getRejectedCount(MessageType type) {
+        return rejected[type.ordinal()].sum();
+    }
+
+    public long getRejectedTotal() {
+        long total = 0;
+        for (LongAdder count : rejected) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("RateLimiter[rejected=").append(getRejectedTotal());
+        for (MessageType type : TYPES) {
+            long count = getRejectedCount(type);
+            if (count > 0) {
+                builder.append(", ").append(type).append('=').append(count);
+            }
+        }
+        return builder.append("]").toString();
+    }
+}
@@ -0,0 +1,72 @@
+package ServerApp.ReadMarkers;
+
+import ServerApp.StorageManager.StorageManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ReadMarkers remembers, for each user and chatbox, the sequence number of
+ * the last message the user has read. A chatbox's unread count is then just
+ * its last sequence minus the marker, so it never has to be recounted from
+ * the messages. A user's markers are loaded on first use and saved when the
+ * user goes offline.
+ */
+public class ReadMarkers {
+
+    private static final String CURSORS_PREFIX = "read-";
+
+    // Attributes
+    private final StorageManager storageManager;
+    private final ConcurrentHashMap<Integer, ConcurrentHashMap<Integer, Long>> markers = new ConcurrentHashMap<>(); // userID -> chatBoxID -> sequence
+
+    // Constructor
+    // INPUT: storageManager (StorageManager)
+    public ReadMarkers(StorageManager storageManager) {
+        this.storageManager = storageManager;
+    }
+
+    private ConcurrentHashMap<Integer, Long> markersOf(int userID) {
+        return markers.computeIfAbsent(userID,
+                id -> new ConcurrentHashMap<>(storageManager.loadCursors(CURSORS_PREFIX + id)));
+    }
+
+    // Retrieves the last sequence a user has read in a chatbox, 0 if none
+    public long getLastRead(int userID, int chatBoxID) {
+        return markersOf(userID).getOrDefault(chatBoxID, 0L);
+    }
+
+    // Moves a user's marker forward (never backwards)
+    // INPUT: userID (int), chatBoxID (int), sequence (long)
+    // OUTPUT: true if the marker moved
+    public boolean markRead(int userID, int chatBoxID, long sequence) {
+        ConcurrentHashMap<Integer, Long> userMarkers = markersOf(userID);
+        while (sequence > 0) {
+            Long current = userMarkers.get(chatBoxID);
+            if (current != null && current >= sequence) {
+                return false;
+            }
+            if (current == null ? userMarkers.putIfAbsent(chatBoxID, sequence) == null
+                    : userMarkers.replace(chatBoxID, current, sequence)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Unread messages of a chatbox for a user
+    // INPUT: userID (int), chatBoxID (int), lastSequence (long) of the chatbox
+    public long getUnread(int userID, int chatBoxID, long lastSequence) {
+        return Math.max(0, lastSequence - getLastRead(userID, chatBoxID));
+    }
+
+    // Saves a user's markers
+    // INPUT: userID (int)
+    // OUTPUT: none
+    public void save(int userID) {
+        Map<Integer, Long> userMarkers = markers.get(userID);
+        if (userMarkers != null) {
+            storageManager.saveCursors(CURSORS_PREFIX + userID, Map.copyOf(userMarkers));
+        }
+    }
+}
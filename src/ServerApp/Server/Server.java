@@ -3,16 +3,29 @@ package ServerApp.Server;
 import Common.User.User;
 import Common.Admin.Admin;
 import ServerApp.ClientHandler.ClientHandler;
+import ServerApp.Dispatcher.Dispatcher;
+import ServerApp.Dispatcher.LatencyHistogram;
+import ServerApp.LoginAdmission.LoginAdmission;
+import ServerApp.PasswordHasher.PasswordHasher;
+import ServerApp.PresenceService.PresenceService;
+import ServerApp.RateLimiter.RateLimiter;
+import ServerApp.SessionTokens.SessionTokens;
 import ServerApp.MessageHandler.MessageHandler;
 import ServerApp.StorageManager.StorageManager;
 import ServerApp.AuthenticationSystem.AuthenticationSystem;
+import ServerApp.ServerConfig.ServerConfig;
 import Common.ChatBox.ChatBox;
+import Common.ChatBox.MessageLog;
+import Common.ChatBox.OffHeapArena;
 
 import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Server is the main server class responsible for accepting client
@@ -24,27 +37,69 @@ public class Server {
     // Attributes
     private ServerSocket serverSocket;
     private final List<ClientHandler> clientHandlers;
+    private final ConcurrentHashMap<Integer, Set<ClientHandler>> sessionsByUser; // logged-in sessions by user ID
+    private Dispatcher dispatcher; // null when updates are delivered on the sender's thread
     private final ConcurrentHashMap<String, String> activeClients; // Tracks active clients (ID -> IP)
     private final MessageHandler messageHandler;
     private final ConcurrentHashMap<Integer, User> userDB;
     private final ConcurrentHashMap<Integer, ChatBox> chatBoxes;
     private final StorageManager storageManager;
     private final AuthenticationSystem authenticationSystem;
+    private final ServerConfig config;
+    private final RateLimiter rateLimiter; // null when requests are not throttled
+    private final LoginAdmission loginAdmission; // caps logins running at once, queues the rest in order
+    private final PresenceService presence; // pushes online/banned changes to the sessions showing those users
+    private final LatencyHistogram controlLatency = new LatencyHistogram(); // control requests handled and responses written
+    private final LatencyHistogram bulkLatency = new LatencyHistogram(); // everything else, from queued to handled or written
 
-    // Constructor initializes the server with necessary components.
+    // Constructor initializes the server with the default configuration.
     public Server() {
+        this(new ServerConfig());
+    }
+
+    // Constructor initializes the server with necessary components.
+    // INPUT: config (ServerConfig)
+    public Server(ServerConfig config) {
         System.out.println("Initializing Server...");
+        this.config = config;
+        if (config.isOffHeapEnabled()) {
+            // Must be installed before chatboxes are loaded so their bodies go off-heap
+            MessageLog.useOffHeapArena(new OffHeapArena(config.getOffHeapBudgetBytes()));
+            System.out.println("Off-heap message storage enabled, budget: " + config.getOffHeapBudgetBytes() + " bytes.");
+        }
+        MessageLog.setDefaultWindowSize(config.getMessageWindowSize()); // older messages stay in the history files
         this.clientHandlers = new CopyOnWriteArrayList<>();
+        this.sessionsByUser = new ConcurrentHashMap<>();
         this.activeClients = new ConcurrentHashMap<>();
         this.storageManager = new StorageManager();
         this.chatBoxes = new ConcurrentHashMap<>(storageManager.getChatBoxRecords());
-        this.authenticationSystem = new AuthenticationSystem(); // Updated to remove file path
+        this.authenticationSystem = new AuthenticationSystem(new PasswordHasher(config.getPasswordIterations(),
+                config.getPasswordThreads(), config.getPasswordQueue(), config.getPasswordCacheMillis()),
+                new SessionTokens(config.getSessionTokenMillis()));
         this.userDB = authenticationSystem.getUserDB();
         this.messageHandler = new MessageHandler(storageManager, chatBoxes, userDB, this);
+        if (config.getDispatchShards() > 0) {
+            dispatcher = new Dispatcher(config.getDispatchShards());
+            messageHandler.useDispatcher(dispatcher);
+            System.out.println("Fan-out dispatcher started with " + config.getDispatchShards() + " shards.");
+        }
+        this.loginAdmission = new LoginAdmission(config.getLoginConcurrency(), config.getLoginQueue());
+        this.rateLimiter = config.isRateLimitingEnabled() ? new RateLimiter(config.getRateLimits()) : null;
+        this.presence = new PresenceService(userDB);
+        authenticationSystem.usePresence(presence);
+        presence.start(config.getPresenceTickMillis());
+        messageHandler.getSystemTopic().start(config.getCursorFlushMillis());
+        if (config.isActorsEnabled()) {
+            messageHandler.useActors(createActorPool(config.getActorThreads()));
+            System.out.println("ChatBox actors enabled on " + config.getActorThreads() + " threads.");
+        }
 
         // Debug logs
         System.out.println("StorageManager initialized with " + chatBoxes.size() + " chatboxes.");
         System.out.println("AuthenticationSystem loaded " + userDB.size() + " users.");
+        if (MessageLog.getOffHeapArena() != null) {
+            System.out.println(MessageLog.getOffHeapArena());
+        }
         System.out.println("Server initialization complete.");
 
         // Create initial users if they don't exist
@@ -87,25 +142,27 @@ public class Server {
 
     // Creates initial chatboxes (run once)
     private void createInitialChatBoxes() {
+        // Get Bob and Sally from userDB
+        User bob = userDB.values().stream().filter(u -> u.getUsername().equals("Bob Admin")).findFirst().orElse(null);
+        User sally = userDB.values().stream().filter(u -> u.getUsername().equals("Sally User")).findFirst().orElse(null);
+
         // Check if chatbox between Bob and Sally exists
-        boolean chatBoxExists = chatBoxes.values().stream().anyMatch(chatBox -> {
-            Collection<User> participants = chatBox.getParticipants();
-            return participants.stream().anyMatch(u -> u.getUsername().equals("Bob Admin")) &&
-                   participants.stream().anyMatch(u -> u.getUsername().equals("Sally User")) &&
-                   chatBox.getChatBoxID()!=0;
-        });
+        boolean chatBoxExists = bob != null && sally != null && chatBoxes.values().stream().anyMatch(chatBox ->
+                !chatBox.isOpenToAll() &&
+                chatBox.hasParticipant(bob.getUserID()) &&
+                chatBox.hasParticipant(sally.getUserID()));
 
         if (!chatBoxExists) {
-            // Get Bob and Sally from userDB
-            User bob = userDB.values().stream().filter(u -> u.getUsername().equals("Bob Admin")).findFirst().orElse(null);
-            User sally = userDB.values().stream().filter(u -> u.getUsername().equals("Sally User")).findFirst().orElse(null);
-
             if (bob != null && sally != null) {
                 List<User> participants = Arrays.asList(bob, sally);
                 ChatBox chatBox = messageHandler.createChatBox(participants, "Test Box 1");
 
 
-                System.out.println("Created chatbox between Bob Admin and Sally User with ID: " + chatBox.getChatBoxID());
+                if (chatBox != null) {
+                    System.out.println("Created chatbox between Bob Admin and Sally User with ID: " + chatBox.getChatBoxID());
+                } else {
+                    System.out.println("Error: Could not create chatbox between Bob and Sally.");
+                }
             } else {
                 System.out.println("Error: Could not find Bob or Sally to create chatbox.");
             }
@@ -163,6 +220,8 @@ public class Server {
     // OUTPUT: none
     public void stopServer() {
         System.out.println("Stopping server...");
+        presence.shutdown();
+        messageHandler.getSystemTopic().shutdown(); // saves the cursors of users who left since the last flush
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
@@ -179,6 +238,8 @@ public class Server {
     // OUTPUT: none
     public void removeClientHandler(ClientHandler handler) {
         clientHandlers.remove(handler);
+        unregisterSession(handler);
+        presence.forget(handler);
         String clientIP = handler.getClientSocket().getInetAddress().getHostAddress();
         activeClients.values().removeIf(ip -> ip.equals(clientIP));
         System.out.println("Client disconnected: " + clientIP);
@@ -187,6 +248,74 @@ public class Server {
         System.out.println("Number of connected clients: " + clientHandlers.size());
     }
 
+    // Records a session as logged in so updates for its user can find it without scanning all clients
+    // INPUT: handler (ClientHandler) with its user set
+    // OUTPUT: none
+    public void registerSession(ClientHandler handler) {
+        User user = handler.getUser();
+        if (user != null) {
+            sessionsByUser.computeIfAbsent(user.getUserID(), id -> ConcurrentHashMap.newKeySet()).add(handler);
+        }
+    }
+
+    // Forgets a session (logout or disconnect)
+    // INPUT: handler (ClientHandler)
+    // OUTPUT: none
+    public void unregisterSession(ClientHandler handler) {
+        User user = handler.getUser();
+        if (user != null && getSessions(user.getUserID()).contains(handler)) {
+            sessionsByUser.computeIfPresent(user.getUserID(), (id, sessions) -> {
+                sessions.remove(handler);
+                return sessions.isEmpty() ? null : sessions;
+            });
+            if (getSessions(user.getUserID()).isEmpty()) {
+                messageHandler.userWentOffline(user.getUserID());
+            }
+        }
+    }
+
+    // Retrieves the logged-in sessions of a user
+    // INPUT: userID (int)
+    // OUTPUT: Set<ClientHandler>, empty if the user is offline
+    public Set<ClientHandler> getSessions(int userID) {
+        return sessionsByUser.getOrDefault(userID, Set.of());
+    }
+
+    // Time control traffic (logins, logouts, bans, notifications) took from arrival or queueing until handled or written
+    public LatencyHistogram getControlLatency() {
+        return controlLatency;
+    }
+
+    // Same for bulk traffic (messages, chatbox updates, history)
+    public LatencyHistogram getBulkLatency() {
+        return bulkLatency;
+    }
+
+    // Retrieves the request rate limiter, null if requests are not throttled
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    // Retrieves the authentication system
+    public AuthenticationSystem getAuthenticationSystem() {
+        return authenticationSystem;
+    }
+
+    // Retrieves the login admission control (logins in flight, queue wait and login time)
+    public LoginAdmission getLoginAdmission() {
+        return loginAdmission;
+    }
+
+    // Retrieves the presence service
+    public PresenceService getPresence() {
+        return presence;
+    }
+
+    // Retrieves the fan-out dispatcher, null if updates are delivered on the sender's thread
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
     // Retrieves the list of active client handlers.
     // INPUT: none
     // OUTPUT: List<ClientHandler>
@@ -208,18 +337,47 @@ public class Server {
         return chatBoxes;
     }
 
+    // Creates the pool shared by all chatbox actors (daemon threads, they hold no state of their own)
+    private static ExecutorService createActorPool(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "chatbox-actor-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Retrieves the server configuration.
+    // INPUT: none
+    // OUTPUT: ServerConfig
+    public ServerConfig getConfig() {
+        return config;
+    }
+
     // Main method to start the server.
     public static void main(String[] args) {
         System.out.println("Launching Server application...");
-        Server server = new Server();
+        Server server = new Server(ServerConfig.fromSystemProperties());
 
         // Add a shutdown hook to properly close the server socket on exit
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutting down server...");
+            if (server.getDispatcher() != null) {
+                System.out.println(server.getDispatcher());
+            }
+            System.out.println("Control latency: " + server.getControlLatency());
+            System.out.println("Bulk latency: " + server.getBulkLatency());
+            System.out.println(server.getPresence());
+            System.out.println(server.getAuthenticationSystem().getPasswordHasher());
+            System.out.println(server.getAuthenticationSystem().getSessionTokens());
+            System.out.println(server.getLoginAdmission());
+            if (server.getRateLimiter() != null) {
+                System.out.println(server.getRateLimiter());
+            }
             server.stopServer();
         }));
 
-        server.startServer(1234);
+        server.startServer(server.getConfig().getPort());
     }
 
     // Method to get the external IP address
@@ -0,0 +1,296 @@
+package ServerApp.ServerConfig;
+
+import Common.ChatBox.MessageLog;
+import Common.MessageType;
+import ServerApp.LoginAdmission.LoginAdmission;
+import ServerApp.PasswordHasher.PasswordHasher;
+import ServerApp.RateLimiter.RateLimiter;
+import ServerApp.SessionTokens.SessionTokens;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * ServerConfig holds the tunable settings of one Server instance. A new
+ * ServerConfig starts with the defaults; fromSystemProperties() overrides
+ * them from -Dchat.* properties so the server can be tuned without code changes.
+ */
+public class ServerConfig {
+
+    // Attributes
+    private int port = 1234;
+    private long offHeapBudgetBytes = 0; // 0 keeps message bodies on the heap
+    private int messageWindowSize = MessageLog.DEFAULT_WINDOW_SIZE; // recent messages kept in memory per chatbox
+    private boolean actorsEnabled = false; // true runs every chatbox's changes on its own actor
+    private int actorThreads = Runtime.getRuntime().availableProcessors(); // pool shared by all chatbox actors
+    private int dispatchShards = Runtime.getRuntime().availableProcessors(); // 0 delivers updates on the sender's thread
+    private boolean rateLimitingEnabled = true;
+    private long presenceTickMillis = 200; // presence changes are coalesced and pushed once per tick
+    private long cursorFlushMillis = 5000; // how often changed system topic cursors are saved
+    private int passwordIterations = PasswordHasher.DEFAULT_ITERATIONS; // PBKDF2 cost of new password hashes
+    private int passwordThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2); // threads checking passwords
+    private int passwordQueue = PasswordHasher.DEFAULT_QUEUE; // password checks that may wait before logins are turned away
+    private long passwordCacheMillis = PasswordHasher.DEFAULT_CACHE_MILLIS; // how long a verified login is remembered
+    private int loginConcurrency = Math.max(2, Runtime.getRuntime().availableProcessors()); // logins running at once
+    private int loginQueue = LoginAdmission.DEFAULT_QUEUE; // logins that may wait before new ones are turned away
+    private long sessionTokenMillis = SessionTokens.DEFAULT_TTL_MILLIS; // how long a dropped client can resume its session
+    private final Map<MessageType, RateLimiter.Limit> rateLimits = new EnumMap<>(RateLimiter.defaultLimits());
+
+    // Reads the settings from system properties, falling back to the defaults
+    // INPUT: none
+    // OUTPUT: ServerConfig
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        config.setPort(Integer.getInteger("chat.port", config.port));
+        config.setOffHeapBudgetBytes(Long.getLong("chat.offheap.budgetMB", config.offHeapBudgetBytes >> 20) << 20);
+        config.setMessageWindowSize(Integer.getInteger("chat.window.size", config.messageWindowSize));
+        config.setActorsEnabled(Boolean.parseBoolean(System.getProperty("chat.actors", String.valueOf(config.actorsEnabled))));
+        config.setActorThreads(Integer.getInteger("chat.actors.threads", config.actorThreads));
+        config.setDispatchShards(Integer.getInteger("chat.dispatch.shards", config.dispatchShards));
+        config.setPresenceTickMillis(Long.getLong("chat.presence.tick", config.presenceTickMillis));
+        config.setCursorFlushMillis(Long.getLong("chat.cursors.flush.ms", config.cursorFlushMillis));
+        config.setPasswordIterations(Integer.getInteger("chat.password.iterations", config.passwordIterations));
+        config.setPasswordThreads(Integer.getInteger("chat.password.threads", config.passwordThreads));
+        config.setPasswordQueue(Integer.getInteger("chat.password.queue", config.passwordQueue));
+        config.setPasswordCacheMillis(Long.getLong("chat.password.cache.ms", config.passwordCacheMillis));
+        config.setLoginConcurrency(Integer.getInteger("chat.login.concurrency", config.loginConcurrency));
+        config.setLoginQueue(Integer.getInteger("chat.login.queue", config.loginQueue));
+        config.setSessionTokenMillis(Long.getLong("chat.session.ttl.ms", config.sessionTokenMillis));
+        config.setRateLimitingEnabled(Boolean.parseBoolean(System.getProperty("chat.ratelimit", String.valueOf(config.rateLimitingEnabled))));
+        for (MessageType type : MessageType.values()) {
+            // e.g. -Dchat.ratelimit.send_message=20/40, or =off to lift the limit
+            String limit = System.getProperty("chat.ratelimit." + type.name().toLowerCase());
+            if (limit != null) {
+                config.setRateLimit(type, limit.equalsIgnoreCase("off") ? null : RateLimiter.Limit.parse(limit));
+            }
+        }
+        return config;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public ServerConfig setPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    // Direct memory the server may use for message bodies, 0 when off-heap storage is disabled
+    public long getOffHeapBudgetBytes() {
+        return offHeapBudgetBytes;
+    }
+
+    public ServerConfig setOffHeapBudgetBytes(long offHeapBudgetBytes) {
+        this.offHeapBudgetBytes = offHeapBudgetBytes;
+        return this;
+    }
+
+    public boolean isOffHeapEnabled() {
+        return offHeapBudgetBytes > 0;
+    }
+
+    // Number of recent messages each chatbox keeps in memory, older ones are read from disk
+    public int getMessageWindowSize() {
+        return messageWindowSize;
+    }
+
+    public ServerConfig setMessageWindowSize(int messageWindowSize) {
+        if (messageWindowSize <= 0) {
+            throw new IllegalArgumentException("messageWindowSize must be positive: " + messageWindowSize);
+        }
+        this.messageWindowSize = messageWindowSize;
+        return this;
+    }
+
+    // True if chatbox changes are applied by per-chatbox actors instead of the client threads
+    public boolean isActorsEnabled() {
+        return actorsEnabled;
+    }
+
+    public ServerConfig setActorsEnabled(boolean actorsEnabled) {
+        this.actorsEnabled = actorsEnabled;
+        return this;
+    }
+
+    public int getActorThreads() {
+        return actorThreads;
+    }
+
+    public ServerConfig setActorThreads(int actorThreads) {
+        if (actorThreads <= 0) {
+            throw new IllegalArgumentException("actorThreads must be positive: " + actorThreads);
+        }
+        this.actorThreads = actorThreads;
+        return this;
+    }
+
+    // Number of fan-out workers, 0 when updates are delivered on the sender's thread
+    public int getDispatchShards() {
+        return dispatchShards;
+    }
+
+    public ServerConfig setDispatchShards(int dispatchShards) {
+        if (dispatchShards < 0) {
+            throw new IllegalArgumentException("dispatchShards must not be negative: " + dispatchShards);
+        }
+        this.dispatchShards = dispatchShards;
+        return this;
+    }
+
+    // Interval at which coalesced presence changes are pushed to interested sessions
+    public long getPresenceTickMillis() {
+        return presenceTickMillis;
+    }
+
+    public ServerConfig setPresenceTickMillis(long presenceTickMillis) {
+        if (presenceTickMillis <= 0) {
+            throw new IllegalArgumentException("presenceTickMillis must be positive: " + presenceTickMillis);
+        }
+        this.presenceTickMillis = presenceTickMillis;
+        return this;
+    }
+
+    // Interval at which the system topic saves the cursors of users who went offline
+    public long getCursorFlushMillis() {
+        return cursorFlushMillis;
+    }
+
+    public ServerConfig setCursorFlushMillis(long cursorFlushMillis) {
+        if (cursorFlushMillis <= 0) {
+            throw new IllegalArgumentException("cursorFlushMillis must be positive: " + cursorFlushMillis);
+        }
+        this.cursorFlushMillis = cursorFlushMillis;
+        return this;
+    }
+
+    // PBKDF2 iterations for new password hashes; older, cheaper hashes are replaced at the next login
+    public int getPasswordIterations() {
+        return passwordIterations;
+    }
+
+    public ServerConfig setPasswordIterations(int passwordIterations) {
+        if (passwordIterations <= 0) {
+            throw new IllegalArgumentException("passwordIterations must be positive: " + passwordIterations);
+        }
+        this.passwordIterations = passwordIterations;
+        return this;
+    }
+
+    // Threads that check passwords, apart from the connection threads
+    public int getPasswordThreads() {
+        return passwordThreads;
+    }
+
+    public ServerConfig setPasswordThreads(int passwordThreads) {
+        if (passwordThreads <= 0) {
+            throw new IllegalArgumentException("passwordThreads must be positive: " + passwordThreads);
+        }
+        this.passwordThreads = passwordThreads;
+        return this;
+    }
+
+    // Password checks that may wait for a thread; logins beyond that are refused until the queue drains
+    public int getPasswordQueue() {
+        return passwordQueue;
+    }
+
+    public ServerConfig setPasswordQueue(int passwordQueue) {
+        if (passwordQueue <= 0) {
+            throw new IllegalArgumentException("passwordQueue must be positive: " + passwordQueue);
+        }
+        this.passwordQueue = passwordQueue;
+        return this;
+    }
+
+    // How long a verified password is remembered, 0 to check every login in full
+    public long getPasswordCacheMillis() {
+        return passwordCacheMillis;
+    }
+
+    public ServerConfig setPasswordCacheMillis(long passwordCacheMillis) {
+        if (passwordCacheMillis < 0) {
+            throw new IllegalArgumentException("passwordCacheMillis must not be negative: " + passwordCacheMillis);
+        }
+        this.passwordCacheMillis = passwordCacheMillis;
+        return this;
+    }
+
+    // Logins that run at once; the rest wait in arrival order
+    public int getLoginConcurrency() {
+        return loginConcurrency;
+    }
+
+    public ServerConfig setLoginConcurrency(int loginConcurrency) {
+        if (loginConcurrency <= 0) {
+            throw new IllegalArgumentException("loginConcurrency must be positive: " + loginConcurrency);
+        }
+        this.loginConcurrency = loginConcurrency;
+        return this;
+    }
+
+    // Logins that may wait for their turn, 0 to turn away every login that cannot run at once
+    public int getLoginQueue() {
+        return loginQueue;
+    }
+
+    public ServerConfig setLoginQueue(int loginQueue) {
+        if (loginQueue < 0) {
+            throw new IllegalArgumentException("loginQueue must not be negative: " + loginQueue);
+        }
+        this.loginQueue = loginQueue;
+        return this;
+    }
+
+    // How long after login or its last resume a client can resume its session without the password
+    public long getSessionTokenMillis() {
+        return sessionTokenMillis;
+    }
+
+    public ServerConfig setSessionTokenMillis(long sessionTokenMillis) {
+        if (sessionTokenMillis <= 0) {
+            throw new IllegalArgumentException("sessionTokenMillis must be positive: " + sessionTokenMillis);
+        }
+        this.sessionTokenMillis = sessionTokenMillis;
+        return this;
+    }
+
+    // True if requests are throttled per user and message type
+    public boolean isRateLimitingEnabled() {
+        return rateLimitingEnabled;
+    }
+
+    public ServerConfig setRateLimitingEnabled(boolean rateLimitingEnabled) {
+        this.rateLimitingEnabled = rateLimitingEnabled;
+        return this;
+    }
+
+    // Limits per message type; types that are not listed are not throttled
+    public Map<MessageType, RateLimiter.Limit> getRateLimits() {
+        return new EnumMap<>(rateLimits);
+    }
+
+    // Sets the limit of one message type, null lifts it
+    public ServerConfig setRateLimit(MessageType type, RateLimiter.Limit limit) {
+        if (limit == null) {
+            rateLimits.remove(type);
+        } else {
+            rateLimits.put(type, limit);
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerConfig[port=" + port + ", offHeapBudgetBytes=" + offHeapBudgetBytes
+                + ", messageWindowSize=" + messageWindowSize
+                + ", actorsEnabled=" + actorsEnabled + ", actorThreads=" + actorThreads
+                + ", dispatchShards=" + dispatchShards + ", presenceTickMillis=" + presenceTickMillis
+                + ", cursorFlushMillis=" + cursorFlushMillis
+                + ", passwordIterations=" + passwordIterations + ", passwordThreads=" + passwordThreads
+                + ", passwordQueue=" + passwordQueue + ", passwordCacheMillis=" + passwordCacheMillis
+                + ", loginConcurrency=" + loginConcurrency + ", loginQueue=" + loginQueue
+                + ", sessionTokenMillis=" + sessionTokenMillis
+                + ", rateLimits=" + (rateLimitingEnabled ? rateLimits : "off") + "]";
+    }
+}
@@ -0,0 +1,136 @@
+package ServerApp.SessionTokens;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SessionTokens hands out the opaque tokens a client presents to resume its
+ * session after a dropped connection, without sending its password again.
+ *
+ * Tokens are random, kept only in memory and looked up in a hash map. Each
+ * token can be redeemed once: a resumed session gets a new one, so a token
+ * seen by someone else stops working as soon as its owner reconnects. Tokens
+ * expire after a fixed time, and all of a user's tokens are dropped when the
+ * user logs out, is banned or gets a new password. A restarted server knows
+ * no tokens, its clients log in again.
+ */
+public class SessionTokens {
+
+    public static final long DEFAULT_TTL_MILLIS = 15 * 60_000;
+    private static final int TOKEN_BYTES = 24;
+    private static final int MAX_TOKENS = 100_000; // tokens kept at most, expired ones are dropped first
+
+    // The user a token resumes, and when it stops working
+    private record Grant(int userID, long expiresNanos) {
+    }
+
+    // Attributes
+    private final long ttlNanos;
+    private final ConcurrentHashMap<String, Grant> grants = new ConcurrentHashMap<>(); // token -> grant
+    private final ConcurrentHashMap<Integer, Set<String>> byUser = new ConcurrentHashMap<>(); // userID -> its tokens
+    private final SecureRandom random = new SecureRandom();
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+
+    // Tokens that work for the default time
+    public SessionTokens() {
+        this(DEFAULT_TTL_MILLIS);
+    }
+
+    // INPUT: ttlMillis (long) how long a token can be redeemed after it was issued
+    public SessionTokens(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Session token lifetime must be positive: " + ttlMillis);
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    // Issues a new token for a user
+    // INPUT: userID (int)
+    // OUTPUT: String token
+    public String issue(int userID) {
+        long now = System.nanoTime();
+        if (grants.size() >= MAX_TOKENS) {
+            purgeExpired(now);
+        }
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        grants.put(token, new Grant(userID, now + ttlNanos));
+        byUser.computeIfAbsent(userID, id -> ConcurrentHashMap.newKeySet()).add(token);
+        issued.increment();
+        return token;
+    }
+
+    // Redeems a token; it cannot be used again
+    // INPUT: token (String)
+    // OUTPUT: userID the token was issued to, or -1 if it is unknown, used or expired
+    public int redeem(String token) {
+        Grant grant = token != null ? grants.remove(token) : null;
+        if (grant == null) {
+            refused.increment();
+            return -1;
+        }
+        forgetToken(grant.userID(), token);
+        if (grant.expiresNanos() - System.nanoTime() <= 0) {
+            refused.increment();
+            return -1;
+        }
+        resumed.increment();
+        return grant.userID();
+    }
+
+    // Drops one token (explicit logout of that session)
+    // INPUT: token (String)
+    // OUTPUT: none
+    public void revoke(String token) {
+        Grant grant = token != null ? grants.remove(token) : null;
+        if (grant != null) {
+            forgetToken(grant.userID(), token);
+        }
+    }
+
+    // Drops every token of a user (ban, password change)
+    // INPUT: userID (int)
+    // OUTPUT: none
+    public void revokeAll(int userID) {
+        Set<String> tokens = byUser.remove(userID);
+        if (tokens != null) {
+            for (String token : tokens) {
+                grants.remove(token);
+            }
+        }
+    }
+
+    public int size() {
+        return grants.size();
+    }
+
+    private void forgetToken(int userID, String token) {
+        byUser.computeIfPresent(userID, (id, tokens) -> {
+            tokens.remove(token);
+            return tokens.isEmpty() ? null : tokens;
+        });
+    }
+
+    private void purgeExpired(long now) {
+        grants.entrySet().removeIf(entry -> {
+            if (entry.getValue().expiresNanos() - now > 0) {
+                return false;
+            }
+            forgetToken(entry.getValue().userID(), entry.getKey());
+            return true;
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "SessionTokens[active=" + grants.size() + ", issued=" + issued.sum()
+                + ", resumed=" + resumed.sum() + ", refused=" + refused.sum() + "]";
+    }
+}
@@ -1,31 +1,96 @@
 package ServerApp.StorageManager;
 
 import Common.ChatBox.ChatBox;
+import Common.Message.Message;
+import ServerApp.LegacyFormat.LegacyFormat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.nio.file.*;
 
 /**
  * StorageManager handles the persistent storage and retrieval of ChatBox objects.
+ *
+ * Each chatbox is stored as three files in the chatboxes directory:
+ *   <id>      a snapshot of the ChatBox (metadata and its in-memory window)
+ *   <id>.log  an append-only history of every message, one record per message
+ *   <id>.idx  the offset of each record in the log, 8 bytes per sequence number
+ * Named tables of per-user sequence numbers are kept in <name>.cursors.
+ *
+ * Bodies of shared messages (the same message added to many chatboxes) are
+ * written once to blobs.dat, addressed by their SHA-256 digest; their history
+ * records hold the blob's offset instead of the body. blobs.idx lists each
+ * blob with the number of history records referencing it.
+ * Sending a message only appends to the log and index; older ranges are read
+ * back on demand, so the heap never has to hold a chatbox's whole history.
  */
-public class StorageManager implements Serializable {
+public final class StorageManager implements Serializable {
 
     @Serial
     private static final long serialVersionUID = 1L;
 
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String CURSORS_SUFFIX = ".cursors";
+    private static final int FLAGS_OFFSET = 8 + 4 + 4 + 8; // sequence, messageID, senderID, timestamp
+    private static final int BLOB_REFERENCE = -1; // body length of a record whose body is in the blob file
+    private static final String BLOBS_FILE = "blobs.dat";
+    private static final String BLOB_INDEX_FILE = "blobs.idx";
+    private static final int DIGEST_BYTES = 32;
+    private static final int BLOB_INDEX_RECORD = DIGEST_BYTES + Long.BYTES + Integer.BYTES; // digest, offset, references
+
     // Attributes
     private final ConcurrentHashMap<Integer, ChatBox> chatBoxRecords;
+    private final ConcurrentHashMap<Integer, Object> chatBoxLocks;
+    private final ConcurrentHashMap<String, Object> cursorLocks = new ConcurrentHashMap<>(); // one per cursors table
     private final String chatBoxesDirectory;
+    // The blob tables mirror blobs.idx and are loaded from it again after deserialization
+    private transient Object blobLock = new Object();
+    private transient HashMap<ByteBuffer, Blob> blobsByDigest = new HashMap<>(); // guarded by blobLock
+    private transient HashMap<Long, Blob> blobsByOffset = new HashMap<>(); // guarded by blobLock
+
+    // A stored shared body: where it is and where its reference count is kept
+    private static final class Blob {
+        final ByteBuffer digest;
+        final long offset;
+        final long indexPosition;
+        int references;
+
+        Blob(ByteBuffer digest, long offset, long indexPosition, int references) {
+            this.digest = digest;
+            this.offset = offset;
+            this.indexPosition = indexPosition;
+            this.references = references;
+        }
+    }
 
     // Constructor
     // Initializes StorageManager and loads existing chatboxes from files
     public StorageManager() {
         this.chatBoxRecords = new ConcurrentHashMap<>();
+        this.chatBoxLocks = new ConcurrentHashMap<>();
         this.chatBoxesDirectory = "chatboxes"; // Directory to store chatbox files
         createChatBoxesDirectory();
+        loadBlobIndex();
         loadChatBoxesFromFiles(); // Load existing chatboxes from files
     }
 
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        blobLock = new Object();
+        blobsByDigest = new HashMap<>();
+        blobsByOffset = new HashMap<>();
+        loadBlobIndex();
+    }
+
     // Creates the chatboxes directory if it doesn't exist
     private void createChatBoxesDirectory() {
         File directory = new File(chatBoxesDirectory);
@@ -39,10 +104,17 @@ public class StorageManager implements Serializable {
         }
     }
 
-    // Stores a chatbox in memory and saves it to an individual file
+    // Stores a chatbox in memory and saves it to an individual file.
+    // A different chatbox that already uses the same ID is never replaced, so its history cannot pass to the new one.
     public boolean storeChatBox(ChatBox chatBox) {
         if (chatBox != null) {
-            chatBoxRecords.put(chatBox.getChatBoxID(), chatBox);
+            ChatBox previous = chatBoxRecords.putIfAbsent(chatBox.getChatBoxID(), chatBox);
+            if (previous == null && chatBox.getLastSequence() == 0) {
+                discardHistory(chatBox.getChatBoxID()); // leftover files of an older chatbox with the same ID
+            } else if (previous != null && previous != chatBox) {
+                System.err.println("Refusing to store chatbox " + chatBox.getChatBoxID() + ": the ID belongs to another chatbox.");
+                return false;
+            }
             saveChatBoxToFile(chatBox); // Save the chatbox to its individual file
             return true;
         }
@@ -59,6 +131,405 @@ public class StorageManager implements Serializable {
         return chatBoxRecords;
     }
 
+    // Appends a message that was just added to a chatbox to its history file
+    // INPUT: chatBox (ChatBox), sequence (long) given by the chatbox, message (Message)
+    // OUTPUT: true if written, false otherwise
+    public boolean appendMessage(ChatBox chatBox, long sequence, Message message) {
+        return appendMessages(chatBox, List.of(message.withSequence(sequence)));
+    }
+
+    // Appends messages that were just added to a chatbox to its history file, opening the files once.
+    // Concurrent senders may arrive out of sequence order; the index entry of each record is written
+    // at its sequence's slot, so the log itself does not need to be in order.
+    // The snapshot is rewritten once per window so reloading replays at most one window of records.
+    // INPUT: chatBox (ChatBox), messages (List<Message>) each carrying the sequence given by the chatbox
+    // OUTPUT: true if written, false otherwise
+    public boolean appendMessages(ChatBox chatBox, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return true;
+        }
+        int chatBoxID = chatBox.getChatBoxID();
+        int windowSize = chatBox.getWindowSize();
+        boolean snapshotDue = false;
+        synchronized (lockFor(chatBoxID)) {
+            File logFile = logFile(chatBoxID);
+            try (DataOutputStream log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)));
+                 RandomAccessFile index = new RandomAccessFile(indexFile(chatBoxID), "rw")) {
+                long offset = logFile.length();
+                for (Message message : messages) {
+                    long sequence = message.getSequence();
+                    byte[] content = message.getContentBytes();
+                    long blobOffset = message.isShared() ? storeBlob(content) : -1;
+                    log.writeLong(sequence);
+                    log.writeInt(message.getMessageID());
+                    log.writeInt(message.getSenderID());
+                    log.writeLong(message.getTimestampMillis());
+                    log.writeByte(message.getFlags());
+                    if (blobOffset >= 0) {
+                        log.writeInt(BLOB_REFERENCE);
+                        log.writeLong(blobOffset);
+                    } else {
+                        log.writeInt(content.length);
+                        log.write(content);
+                    }
+                    long position = (sequence - 1) * Long.BYTES;
+                    index.seek(index.length());
+                    while (index.length() < position) {
+                        index.writeLong(-1); // slot of a sequence another sender has not written yet
+                    }
+                    index.seek(position);
+                    index.writeLong(offset);
+                    offset += FLAGS_OFFSET + 1 + Integer.BYTES + (blobOffset >= 0 ? Long.BYTES : content.length);
+                    snapshotDue |= sequence % windowSize == 0;
+                }
+                log.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+        chatBoxRecords.putIfAbsent(chatBoxID, chatBox);
+        if (snapshotDue) {
+            saveChatBoxToFile(chatBox);
+        }
+        return true;
+    }
+
+    // Reads a range of messages back from a chatbox's history file
+    // INPUT: chatBoxID (int), fromSequence (long) first sequence number, count (int) maximum messages
+    // OUTPUT: List of messages in sequence order (empty if none)
+    public List<Message> readMessages(int chatBoxID, long fromSequence, int count) {
+        List<Message> messages = new ArrayList<>();
+        long first = Math.max(1, fromSequence);
+        synchronized (lockFor(chatBoxID)) {
+            File indexFile = indexFile(chatBoxID);
+            long available = indexFile.length() / Long.BYTES - (first - 1);
+            int wanted = (int) Math.min(count, Math.max(0, available));
+            if (wanted == 0) {
+                return messages;
+            }
+            try (RandomAccessFile index = new RandomAccessFile(indexFile, "r");
+                 RandomAccessFile log = new RandomAccessFile(logFile(chatBoxID), "r")) {
+                byte[] offsets = new byte[wanted * Long.BYTES]; // one read for the whole index range
+                index.seek((first - 1) * Long.BYTES);
+                index.readFully(offsets);
+                ByteBuffer entries = ByteBuffer.wrap(offsets);
+                for (int i = 0; i < wanted; i++) {
+                    long offset = entries.getLong();
+                    if (offset >= 0) {
+                        messages.add(readRecordAt(log, offset));
+                    }
+                }
+            } catch (EOFException e) {
+                // a record was only partly written, stop at the last complete one
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return messages;
+    }
+
+    // Updates the hidden flag of a message in the history file in place
+    // INPUT: chatBoxID (int), sequence (long), hidden (boolean)
+    // OUTPUT: true if the message exists, false otherwise
+    public boolean setMessageHidden(int chatBoxID, long sequence, boolean hidden) {
+        synchronized (lockFor(chatBoxID)) {
+            long offset = recordOffset(chatBoxID, sequence);
+            if (offset < 0) {
+                return false;
+            }
+            try (RandomAccessFile file = new RandomAccessFile(logFile(chatBoxID), "rw")) {
+                file.seek(offset + FLAGS_OFFSET);
+                byte flags = file.readByte();
+                flags = (byte) (hidden ? flags | Message.FLAG_HIDDEN : flags & ~Message.FLAG_HIDDEN);
+                file.seek(offset + FLAGS_OFFSET);
+                file.writeByte(flags);
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    // Scans a chatbox's history for a message ID (only needed for messages no longer in memory)
+    // INPUT: chatBoxID (int), messageID (int)
+    // OUTPUT: sequence number of the message, or -1 if not found
+    public long findSequence(int chatBoxID, int messageID) {
+        synchronized (lockFor(chatBoxID)) {
+            File logFile = logFile(chatBoxID);
+            if (!logFile.exists()) {
+                return -1;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+                while (true) {
+                    Message message = readRecord(in);
+                    if (message.getMessageID() == messageID) {
+                        return message.getSequence();
+                    }
+                }
+            } catch (EOFException e) {
+                return -1;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return -1;
+            }
+        }
+    }
+
+    // Deletes the history and index files of a chatbox
+    private void discardHistory(int chatBoxID) {
+        synchronized (lockFor(chatBoxID)) {
+            releaseBlobsOf(chatBoxID);
+            logFile(chatBoxID).delete();
+            indexFile(chatBoxID).delete();
+        }
+    }
+
+    // Reads the history record that starts at offset
+    private Message readRecordAt(RandomAccessFile log, long offset) throws IOException {
+        byte[] header = new byte[FLAGS_OFFSET + 1 + Integer.BYTES];
+        log.seek(offset);
+        log.readFully(header);
+        ByteBuffer fields = ByteBuffer.wrap(header);
+        long sequence = fields.getLong();
+        int messageID = fields.getInt();
+        int senderID = fields.getInt();
+        long timestamp = fields.getLong();
+        byte flags = fields.get();
+        int length = fields.getInt();
+        byte[] content;
+        if (length == BLOB_REFERENCE) {
+            content = readBlob(log.readLong());
+        } else {
+            content = new byte[length];
+            log.readFully(content);
+        }
+        return new Message(messageID, senderID, content, timestamp, flags, sequence);
+    }
+
+    // Reads one history record from a sequential stream
+    private Message readRecord(DataInputStream in) throws IOException {
+        long sequence = in.readLong();
+        int messageID = in.readInt();
+        int senderID = in.readInt();
+        long timestamp = in.readLong();
+        byte flags = in.readByte();
+        int length = in.readInt();
+        byte[] content;
+        if (length == BLOB_REFERENCE) {
+            content = readBlob(in.readLong());
+        } else {
+            content = new byte[length];
+            in.readFully(content);
+        }
+        return new Message(messageID, senderID, content, timestamp, flags, sequence);
+    }
+
+    // Writes a shared body to the blob file unless an identical one is already there, and counts one more reference to it
+    // INPUT: content (byte[])
+    // OUTPUT: offset of the blob in the blob file
+    private long storeBlob(byte[] content) throws IOException {
+        ByteBuffer digest = ByteBuffer.wrap(digestOf(content));
+        synchronized (blobLock) {
+            Blob blob = blobsByDigest.get(digest);
+            if (blob == null) {
+                File blobsFile = new File(chatBoxesDirectory, BLOBS_FILE);
+                File indexFile = new File(chatBoxesDirectory, BLOB_INDEX_FILE);
+                long offset = blobsFile.length();
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(blobsFile, true)))) {
+                    out.writeInt(content.length);
+                    out.write(content);
+                }
+                blob = new Blob(digest, offset, indexFile.length(), 0);
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)))) {
+                    out.write(digest.array());
+                    out.writeLong(offset);
+                    out.writeInt(0);
+                }
+                blobsByDigest.put(digest, blob);
+                blobsByOffset.put(offset, blob);
+            }
+            blob.references++;
+            writeBlobReferences(blob);
+            return blob.offset;
+        }
+    }
+
+    // Reads a shared body from the blob file
+    private byte[] readBlob(long offset) throws IOException {
+        try (RandomAccessFile blobs = new RandomAccessFile(new File(chatBoxesDirectory, BLOBS_FILE), "r")) {
+            blobs.seek(offset);
+            byte[] content = new byte[blobs.readInt()];
+            blobs.readFully(content);
+            return content;
+        }
+    }
+
+    // Drops the references a chatbox's history holds on shared bodies; a blob nobody references is forgotten
+    private void releaseBlobsOf(int chatBoxID) {
+        File logFile = logFile(chatBoxID);
+        if (!logFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            while (true) {
+                in.skipNBytes(FLAGS_OFFSET + 1);
+                int length = in.readInt();
+                if (length != BLOB_REFERENCE) {
+                    in.skipNBytes(length);
+                    continue;
+                }
+                long offset = in.readLong();
+                synchronized (blobLock) {
+                    Blob blob = blobsByOffset.get(offset);
+                    if (blob != null) {
+                        blob.references--;
+                        writeBlobReferences(blob);
+                        if (blob.references <= 0) {
+                            blobsByOffset.remove(offset);
+                            blobsByDigest.remove(blob.digest);
+                        }
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // end of the history
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeBlobReferences(Blob blob) throws IOException {
+        try (RandomAccessFile index = new RandomAccessFile(new File(chatBoxesDirectory, BLOB_INDEX_FILE), "rw")) {
+            index.seek(blob.indexPosition + DIGEST_BYTES + Long.BYTES);
+            index.writeInt(blob.references);
+        }
+    }
+
+    // Loads the blobs that are still referenced from the blob index
+    private void loadBlobIndex() {
+        File indexFile = new File(chatBoxesDirectory, BLOB_INDEX_FILE);
+        if (!indexFile.exists()) {
+            return;
+        }
+        synchronized (blobLock) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                for (long position = 0; position + BLOB_INDEX_RECORD <= indexFile.length(); position += BLOB_INDEX_RECORD) {
+                    byte[] digest = new byte[DIGEST_BYTES];
+                    in.readFully(digest);
+                    long offset = in.readLong();
+                    int references = in.readInt();
+                    if (references > 0) {
+                        Blob blob = new Blob(ByteBuffer.wrap(digest), offset, position, references);
+                        blobsByDigest.put(blob.digest, blob);
+                        blobsByOffset.put(offset, blob);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error loading blob index: " + indexFile.getName());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static byte[] digestOf(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // Number of distinct shared bodies stored and still referenced
+    public int getBlobCount() {
+        synchronized (blobLock) {
+            return blobsByDigest.size();
+        }
+    }
+
+    // Looks up where a sequence number's record starts in the log, -1 if it does not exist
+    private long recordOffset(int chatBoxID, long sequence) {
+        File indexFile = indexFile(chatBoxID);
+        long position = (sequence - 1) * Long.BYTES;
+        if (sequence < 1 || indexFile.length() < position + Long.BYTES) {
+            return -1;
+        }
+        try (RandomAccessFile index = new RandomAccessFile(indexFile, "r")) {
+            index.seek(position);
+            return index.readLong();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Saves a table of per-user sequence numbers (e.g. how far each user has read a topic)
+    // INPUT: name (String), cursors (Map<Integer, Long>) userID -> sequence
+    // OUTPUT: true if successful, false otherwise
+    public boolean saveCursors(String name, Map<Integer, Long> cursors) {
+        synchronized (cursorLocks.computeIfAbsent(name, key -> new Object())) { // other tables and chatboxes are not held up
+            File file = cursorsFile(name);
+            File temp = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(cursors.size());
+                for (Map.Entry<Integer, Long> entry : cursors.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    // Loads a table saved with saveCursors
+    // INPUT: name (String)
+    // OUTPUT: Map<Integer, Long> userID -> sequence, empty if none was saved
+    public Map<Integer, Long> loadCursors(String name) {
+        synchronized (cursorLocks.computeIfAbsent(name, key -> new Object())) {
+            Map<Integer, Long> cursors = new HashMap<>();
+            File file = cursorsFile(name);
+            if (!file.exists()) {
+                return cursors;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    cursors.put(in.readInt(), in.readLong());
+                }
+            } catch (IOException e) {
+                System.err.println("Error loading cursors: " + file.getName());
+                e.printStackTrace();
+            }
+            return cursors;
+        }
+    }
+
+    private Object lockFor(int chatBoxID) {
+        return chatBoxLocks.computeIfAbsent(chatBoxID, id -> new Object());
+    }
+
+    private File logFile(int chatBoxID) {
+        return new File(chatBoxesDirectory + File.separator + chatBoxID + LOG_SUFFIX);
+    }
+
+    private File indexFile(int chatBoxID) {
+        return new File(chatBoxesDirectory + File.separator + chatBoxID + INDEX_SUFFIX);
+    }
+
+    private File cursorsFile(String name) {
+        return new File(chatBoxesDirectory + File.separator + name + CURSORS_SUFFIX);
+    }
+
     // Saves a single chatbox to its individual file
     private void saveChatBoxToFile(ChatBox chatBox) {
         synchronized (this) { // Ensure thread safety during save
@@ -76,8 +547,23 @@ public class StorageManager implements Serializable {
         synchronized (this) { // Ensure thread safety during load
             try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(Paths.get(chatBoxesDirectory))) {
                 for (Path path : directoryStream) {
-                    try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(path.toFile()))) {
-                        ChatBox chatBox = (ChatBox) ois.readObject();
+                    String fileName = path.getFileName().toString();
+                    if (fileName.matches("\\d+(\\" + LOG_SUFFIX + "|\\" + INDEX_SUFFIX + ")?")) {
+                        // New chatboxes must not reuse the ID of any chatbox that left files behind
+                        ChatBox.reserveChatBoxID(Integer.parseInt(fileName.substring(0, fileName.indexOf('.') < 0 ? fileName.length() : fileName.indexOf('.'))));
+                    }
+                    if (Files.isDirectory(path) || !fileName.matches("\\d+")) {
+                        continue; // history and index files are read on demand
+                    }
+                    try (ObjectInputStream ois = new LegacyFormat(new FileInputStream(path.toFile()))) {
+                        Object snapshot = ois.readObject();
+                        ChatBox chatBox;
+                        if (snapshot instanceof ServerApp.LegacyFormat.ChatBox legacy) {
+                            chatBox = convertLegacyChatBox(legacy);
+                        } else {
+                            chatBox = (ChatBox) snapshot;
+                            replayHistory(chatBox);
+                        }
                         chatBoxRecords.put(chatBox.getChatBoxID(), chatBox);
                     } catch (IOException | ClassNotFoundException e) {
                         System.err.println("Error loading chatbox from file: " + path.getFileName());
@@ -91,4 +577,33 @@ public class StorageManager implements Serializable {
             }
         }
     }
+
+    // Converts a chatbox saved by the first version of the server: its messages get sequence numbers and
+    // are written to the history file, then the snapshot is rewritten in the current format
+    private ChatBox convertLegacyChatBox(ServerApp.LegacyFormat.ChatBox legacy) {
+        ChatBox chatBox = legacy.toChatBox();
+        discardHistory(chatBox.getChatBoxID()); // old files never had a history, anything there is stale
+        List<Message> sequenced = new ArrayList<>();
+        for (Message message : legacy.toMessages()) {
+            long sequence = chatBox.addMessage(message);
+            if (sequence > 0) {
+                sequenced.add(message.withSequence(sequence));
+            }
+        }
+        if (appendMessages(chatBox, sequenced)) {
+            saveChatBoxToFile(chatBox);
+            System.out.println("Converted chatbox " + chatBox.getChatBoxID() + " from the old file format.");
+        } else {
+            System.err.println("Error converting chatbox " + chatBox.getChatBoxID() + ", the old file is kept.");
+        }
+        return chatBox;
+    }
+
+    // Brings a loaded snapshot up to date with messages appended after it was written
+    private void replayHistory(ChatBox chatBox) {
+        List<Message> missed = readMessages(chatBox.getChatBoxID(), chatBox.getLastSequence() + 1, Integer.MAX_VALUE);
+        for (Message message : missed) {
+            chatBox.addMessage(message);
+        }
+    }
 }
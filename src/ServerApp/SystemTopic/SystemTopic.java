@@ -0,0 +1,119 @@
+package ServerApp.SystemTopic;
+
+import Common.ChatBox.ChatBox;
+import Common.Message.Message;
+import ServerApp.StorageManager.StorageManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+
+/**
+ * SystemTopic models the system notifications chatbox as a topic every user
+ * is subscribed to by default. Nobody is listed as a participant: a new
+ * notification is appended to the topic once and pushed only to the sessions
+ * that are online. For each user the topic remembers the last sequence they
+ * have been given; when they log in again and catch up, a client that has
+ * no notifications cached is sent what was published since, read from the
+ * topic's history.
+ *
+ * Cursors change on every logout, so they are kept in memory and saved only
+ * when changed, once per flush interval and at shutdown.
+ */
+public class SystemTopic {
+
+    public static final int CATCH_UP_LIMIT = 100; // most recent notifications sent to a returning user
+    private static final String CURSORS_NAME = "system";
+
+    // Attributes
+    private final ChatBox topic;
+    private final StorageManager storageManager;
+    private final BiFunction<Long, Integer, List<Message>> reader; // (fromSequence, count) -> messages
+    private final ConcurrentHashMap<Integer, Long> cursors; // userID -> last sequence the user has been given
+    private final AtomicBoolean dirty = new AtomicBoolean(); // cursors changed since the last save
+    private ScheduledExecutorService flusher; // null until start()
+
+    // Constructor
+    // INPUT: topic (ChatBox) holding the notifications, storageManager (StorageManager),
+    //        reader (BiFunction<Long, Integer, List<Message>>) reads a range of the topic from memory or disk
+    public SystemTopic(ChatBox topic, StorageManager storageManager, BiFunction<Long, Integer, List<Message>> reader) {
+        this.topic = topic;
+        this.storageManager = storageManager;
+        this.reader = reader;
+        this.cursors = new ConcurrentHashMap<>(storageManager.loadCursors(CURSORS_NAME));
+    }
+
+    public ChatBox getTopic() {
+        return topic;
+    }
+
+    // Starts saving changed cursors once per interval
+    // INPUT: flushMillis (long)
+    // OUTPUT: none
+    public synchronized void start(long flushMillis) {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "system-cursors");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Stops the periodic saves and saves what changed since the last one
+    public synchronized void shutdown() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+        }
+        flush();
+    }
+
+    // Saves the cursors if any changed since the last save
+    // INPUT: none
+    // OUTPUT: true if they were written
+    public boolean flush() {
+        if (!dirty.getAndSet(false)) {
+            return false;
+        }
+        if (!storageManager.saveCursors(CURSORS_NAME, Map.copyOf(cursors))) {
+            dirty.set(true); // try again next time
+            return false;
+        }
+        return true;
+    }
+
+    // Starts live delivery for a user and returns the notifications they missed while offline
+    // INPUT: userID (int), lastSeen (long) last sequence the user's client already has, 0 to use the stored cursor
+    // OUTPUT: List of Message in sequence order, at most CATCH_UP_LIMIT
+    public List<Message> subscribe(int userID, long lastSeen) {
+        long last = topic.getLastSequence();
+        long seen = lastSeen > 0 ? lastSeen : getCursor(userID);
+        long from = Math.max(seen + 1, last - CATCH_UP_LIMIT + 1);
+        cursors.put(userID, last); // anything published from now on is delivered live
+        if (from > last) {
+            return List.of();
+        }
+        return reader.apply(from, (int) (last - from + 1));
+    }
+
+    // Stops live delivery for a user; they have been given everything published so far
+    // The cursor is saved with the next flush.
+    // INPUT: userID (int)
+    // OUTPUT: none
+    public void unsubscribe(int userID) {
+        cursors.put(userID, topic.getLastSequence());
+        dirty.set(true);
+    }
+
+    // Retrieves the last sequence a user has been given, 0 if none
+    public long getCursor(int userID) {
+        return cursors.getOrDefault(userID, 0L);
+    }
+}
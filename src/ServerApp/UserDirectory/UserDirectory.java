@@ -0,0 +1,101 @@
+package ServerApp.UserDirectory;
+
+import Common.User.User;
+import Common.User.UserView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * UserDirectory is a sorted index of usernames. Keys are the lower case username followed
+ * by the userID, so users are listed by name, names differing only in case stay apart and a
+ * key can be handed to the client as the cursor of the next page. The users themselves stay
+ * in the user map, so banned/online flags in a page are always current.
+ */
+public final class UserDirectory {
+    public static final int MAX_PAGE = 500; // most users returned for one query
+
+    private final ConcurrentSkipListMap<String, Integer> index = new ConcurrentSkipListMap<>(); // key -> userID
+    private final Map<Integer, User> users;
+
+    // One page of a directory query, next is null after the last page
+    public record Page(List<UserView> users, String next) {
+    }
+
+    // INPUT: users (Map<Integer, User>) the user map the index resolves against
+    public UserDirectory(Map<Integer, User> users) {
+        this.users = users;
+        for (User user : users.values()) {
+            add(user);
+        }
+    }
+
+    // Adds a user to the index
+    // INPUT: user (User)
+    // OUTPUT: none
+    public void add(User user) {
+        index.put(keyOf(user.getUsername(), user.getUserID()), user.getUserID());
+    }
+
+    // Removes a user from the index
+    // INPUT: user (User)
+    // OUTPUT: none
+    public void remove(User user) {
+        index.remove(keyOf(user.getUsername(), user.getUserID()));
+    }
+
+    // Users whose name matches the given name ignoring case
+    // INPUT: username (String)
+    // OUTPUT: List of users, usually zero or one
+    public List<User> findByName(String username) {
+        String name = username.toLowerCase(Locale.ROOT) + '\0';
+        List<User> found = new ArrayList<>(1);
+        for (Integer userID : index.subMap(name, name + '\uffff').values()) {
+            User user = users.get(userID);
+            if (user != null) {
+                found.add(user);
+            }
+        }
+        return found;
+    }
+
+    // Lists users whose name starts with the prefix (ignoring case), in name order
+    // INPUT: prefix (String) empty for all users, after (String) cursor from the previous page or null, limit (int)
+    // OUTPUT: Page of at most limit users
+    public Page query(String prefix, String after, int limit) {
+        String from = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
+        String to = from + '\uffff';
+        limit = Math.max(1, Math.min(limit, MAX_PAGE));
+        if (after != null && after.compareTo(to) >= 0) {
+            return new Page(List.of(), null); // cursor is past the prefix
+        }
+        Map<String, Integer> range = after != null && after.compareTo(from) >= 0
+                ? index.subMap(after, false, to, false)
+                : index.subMap(from, true, to, false);
+        List<UserView> page = new ArrayList<>(Math.min(limit, 64));
+        String last = null;
+        for (Map.Entry<String, Integer> entry : range.entrySet()) {
+            if (page.size() == limit) {
+                return new Page(page, last); // more users match
+            }
+            User user = users.get(entry.getValue());
+            if (user != null) {
+                page.add(UserView.of(user));
+                last = entry.getKey();
+            }
+        }
+        return new Page(page, null);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    private static String keyOf(String username, int userID) {
+        // The userID is zero padded so users with the same name sort by ID
+        return username.toLowerCase(Locale.ROOT) + '\0' + String.format("%010d", userID);
+    }
+}
@@ -15,7 +15,17 @@ import org.junit.runners.Suite;
 	TestServer.class,
 	TestAuthenticationSystem.class,
 	TestMessageHandler.class,
-	TestStorageManager.class
+	TestStorageManager.class,
+	TestRateLimiter.class,
+	TestUserDirectory.class,
+	TestPresenceService.class,
+	TestPasswordHasher.class,
+	TestSessionTokens.class,
+	TestLoginAdmission.class,
+	TestInbox.class,
+	TestDispatcher.class,
+	TestSystemTopic.class,
+	TestClientHandler.class
 })
 public class AllTests {
 }
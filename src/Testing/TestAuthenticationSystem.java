@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import Common.User.User;
 import ServerApp.AuthenticationSystem.AuthenticationSystem;
+import ServerApp.PasswordHasher.PasswordHasher;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -41,11 +42,66 @@ class TestAuthenticationSystem {
         assertFalse(user.isBanned());
     }
 
+    @Test
+    void testPresenceIsNotSaved() {
+        User user = new User("testUsername40", "testPassword40");
+        authSystem.registerUser(user);
+        assertEquals(user, authSystem.validateCredentials("testUsername40", "testPassword40"));
+        assertTrue(user.isOnline());
+        assertFalse(user.isDirty());
+        assertTrue(authSystem.logout(user.getUserID()));
+        assertFalse(user.isDirty());
+    }
+
+    @Test
+    void testBanIsSaved() {
+        User user = new User("testUsername50", "testPassword50");
+        authSystem.registerUser(user);
+        assertTrue(authSystem.banUser(user.getUserID()));
+        assertFalse(user.isDirty());
+        assertTrue(new AuthenticationSystem().findUser(user.getUserID()).isBanned()); // read back from its file
+        assertTrue(authSystem.unbanUser(user.getUserID()));
+        assertFalse(new AuthenticationSystem().findUser(user.getUserID()).isBanned());
+    }
+
     @Test
     void testResetPassword() {
         User user = new User("testUsername30", "testPassword30");
         authSystem.registerUser(user);
         assertTrue(authSystem.resetPassword(user.getUserID(), "newPassword"));
-        assertEquals("newPassword", authSystem.findUser(user.getUserID()).getPassword());
+        assertNotEquals("newPassword", authSystem.findUser(user.getUserID()).getPassword()); // stored as a hash
+        assertNull(authSystem.validateCredentials("testUsername30", "testPassword30"));
+        assertEquals(user, authSystem.validateCredentials("testUsername30", "newPassword"));
+    }
+
+    @Test
+    void testRegisterAndResetOnHashingPool() {
+        AuthenticationSystem pooled = new AuthenticationSystem(new PasswordHasher(1000, 1, 4, 0));
+        String username = "testUsername70-" + System.nanoTime(); // users are saved, keep reruns apart
+        User user = new User(username, "testPassword70");
+        assertTrue(pooled.registerUserAsync(user).join());
+        assertNotEquals("testPassword70", user.getPassword()); // hashed before it was stored
+        assertFalse(pooled.registerUserAsync(new User(username, "other")).join()); // name taken
+        assertTrue(pooled.resetPasswordAsync(user.getUserID(), "newPassword70").join());
+        assertEquals(user, pooled.validateCredentials(username, "newPassword70"));
+        assertFalse(pooled.resetPasswordAsync(-1, "nobody").join());
+    }
+
+    @Test
+    void testResumeSession() {
+        User user = new User("testUsername60", "testPassword60");
+        authSystem.registerUser(user);
+        String token = authSystem.issueSessionToken(user);
+        assertEquals(user, authSystem.resumeSession(token));
+        assertTrue(user.isOnline());
+        assertNull(authSystem.resumeSession(token)); // used up
+        String next = authSystem.issueSessionToken(user);
+        assertTrue(authSystem.resetPassword(user.getUserID(), "newPassword60"));
+        assertNull(authSystem.resumeSession(next)); // dropped with the old password
+        String afterBan = authSystem.issueSessionToken(user);
+        authSystem.logout(user.getUserID());
+        assertTrue(authSystem.banUser(user.getUserID()));
+        assertNull(authSystem.resumeSession(afterBan));
+        assertTrue(authSystem.unbanUser(user.getUserID()));
     }
 }
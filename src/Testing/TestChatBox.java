@@ -3,12 +3,21 @@ package Testing;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import Common.ChatBox.BlobPool;
 import Common.ChatBox.ChatBox;
+import Common.ChatBox.ChatBoxSummary;
+import Common.ChatBox.MessageLog;
+import Common.ChatBox.OffHeapArena;
 import Common.User.User;
 import Common.Message.Message;
 
@@ -45,7 +54,26 @@ class TestChatBox {
     	chatBox.addParticipant(user1);
     	chatBox.addParticipant(user2);
     	chatBox.setParticipants(participants);
-    	assertNotNull(chatBox.getParticipants());
+    	assertNotNull(chatBox.getParticipantIDs());
+    }
+    
+    @Test
+    void testParticipantIDs() {
+    	chatBox.addParticipant(user2);
+    	chatBox.addParticipant(user1);
+    	assertFalse(chatBox.addParticipant(user1));
+    	assertEquals(2, chatBox.getParticipantCount());
+    	assertArrayEquals(new int[] {user1.getUserID(), user2.getUserID()}, chatBox.getParticipantIDs());
+    	assertTrue(chatBox.hasParticipant(user1.getUserID()));
+    }
+    
+    @Test
+    void testResolveParticipants() {
+    	chatBox.addParticipant(user1);
+    	chatBox.addParticipant(user2);
+    	Map<Integer, User> directory = new HashMap<>();
+    	directory.put(user1.getUserID(), user1);
+    	assertEquals(List.of(user1), chatBox.getParticipants(directory));
     }
     
     @Test 
@@ -54,12 +82,208 @@ class TestChatBox {
     	assertTrue(chatBox.removeParticipant(user1));
     }
     
+    @Test
+    void testMessagesSequencedAndHidden() {
+    	Message first = new Message(101, 1, "first".getBytes(StandardCharsets.UTF_8), 1000L, (byte) 0);
+    	Message second = new Message(102, 2, "second \u00e9".getBytes(StandardCharsets.UTF_8), 2000L, (byte) 0);
+    	chatBox.addMessage(second);
+    	chatBox.addMessage(first);
+    	assertEquals(2, chatBox.getMessages().size());
+    	assertEquals("second \u00e9", chatBox.getMessages().get(0).getContent()); // kept in arrival order
+    	assertEquals(2, chatBox.getLastSequence());
+    	assertEquals(2, chatBox.setMessageHidden(first.getMessageID(), true));
+    	assertTrue(chatBox.getMessagesList().stream().anyMatch(Message::isHidden));
+    	assertEquals(-1, chatBox.setMessageHidden(-1, true));
+    }
+    
+    @Test
+    void testOffHeapBodies() {
+    	OffHeapArena arena = new OffHeapArena(1024, 256);
+    	MessageLog.useOffHeapArena(arena);
+    	try {
+    		ChatBox offHeap = new ChatBox("Off Heap");
+    		for (int i = 0; i < 100; i++) {
+    			offHeap.addMessage(new Message(1, "message " + i));
+    		}
+    		assertEquals("message 99", offHeap.getMessages().get(99).getContent());
+    		assertTrue(arena.getReservedBytes() <= arena.getBudgetBytes());
+    		assertTrue(arena.getHeapFallbacks() > 0); // budget too small for all 100 bodies
+    	} finally {
+    		MessageLog.useOffHeapArena(null);
+    	}
+    }
+    
+    @Test
+    void testClosedChatBoxesGiveOffHeapMemoryBack() throws Exception {
+    	OffHeapArena arena = new OffHeapArena(1 << 20, 256);
+    	MessageLog.useOffHeapArena(arena);
+    	try {
+    		long reservedAtStart = arena.getReservedBytes();
+    		ChatBox offHeap = new ChatBox("Off Heap");
+    		for (int i = 0; i < 100; i++) {
+    			offHeap.addMessage(new Message(1, "message " + i));
+    		}
+    		offHeap.setMessageHidden(offHeap.getMessages().get(0).getMessageID(), true);
+    		ChatBox projected = offHeap.withoutHiddenContent(); // kept on the heap
+    		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+    			out.writeObject(offHeap);
+    		}
+    		ChatBox reloaded;
+    		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+    			reloaded = (ChatBox) in.readObject(); // bodies go off-heap again
+    		}
+    		assertTrue(arena.getReservedBytes() > reservedAtStart);
+    		assertEquals("message 99", reloaded.getMessages().get(99).getContent());
+    		offHeap.close();
+    		projected.close();
+    		reloaded.close();
+    		assertEquals(reservedAtStart, arena.getReservedBytes());
+    		assertEquals(0, arena.getStoredBodies());
+    		offHeap.addMessage(new Message(1, "after close"));
+    		assertEquals(reservedAtStart, arena.getReservedBytes()); // a closed chatbox keeps new bodies on the heap
+    		assertEquals("after close", offHeap.getMessages().get(0).getContent());
+    	} finally {
+    		MessageLog.useOffHeapArena(null);
+    	}
+    }
+
+    @Test
+    void testWindowEvictsOldest() {
+    	MessageLog log = new MessageLog(4);
+    	for (int i = 1; i <= 10; i++) {
+    		assertEquals(i, log.append(new Message(1, "m" + i)));
+    	}
+    	assertEquals(4, log.size());
+    	assertEquals(7, log.firstSequence());
+    	assertEquals("m7", log.get(0).getContent());
+    	assertEquals(7, log.get(0).getSequence());
+    	assertTrue(log.covers(8, 5));
+    	assertFalse(log.covers(5, 5));
+    	assertEquals(2, log.range(9, 5).size());
+    	assertEquals(-1, log.append(log.get(3))); // already known
+    }
+
+    @Test
+    void testLoadedWindowTakesConfiguredSize() throws Exception {
+    	MessageLog log = new MessageLog(20);
+    	for (int i = 1; i <= 20; i++) {
+    		log.append(new Message(1, "m" + i));
+    	}
+    	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    	try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+    		out.writeObject(log);
+    	}
+    	int before = MessageLog.getDefaultWindowSize();
+    	MessageLog.setDefaultWindowSize(5);
+    	try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+    		MessageLog loaded = (MessageLog) in.readObject();
+    		assertEquals(5, loaded.getWindowSize());
+    		assertEquals(5, loaded.size());
+    		assertEquals(16, loaded.firstSequence());
+    		assertEquals("m16", loaded.get(0).getContent());
+    		assertEquals(20, loaded.lastSequence());
+    	} finally {
+    		MessageLog.setDefaultWindowSize(before);
+    	}
+    }
+
+    @Test
+    void testSharedBodiesArePooled() {
+    	MessageLog first = new MessageLog(2);
+    	MessageLog second = new MessageLog(2);
+    	Message shared = new Message(1, "pooled announcement").asShared();
+    	first.append(shared);
+    	second.append(new Message(shared.getMessageID(), 1, "pooled announcement".getBytes(StandardCharsets.UTF_8),
+    			shared.getTimestampMillis(), shared.getFlags()));
+    	assertSame(first.get(0).getContentBytes(), second.get(0).getContentBytes());
+    	assertEquals(2, BlobPool.shared().referencesOf(shared.getContentBytes()));
+    	for (int i = 0; i < 2; i++) {
+    		first.append(new Message(1, "evicts " + i));
+    		second.append(new Message(1, "evicts " + i));
+    	}
+    	assertEquals(0, BlobPool.shared().referencesOf(shared.getContentBytes()));
+    }
+
+    @Test
+    void testConcurrentAppends() throws InterruptedException {
+    	int threads = 4;
+    	int perThread = 1000;
+    	Thread[] senders = new Thread[threads];
+    	for (int t = 0; t < threads; t++) {
+    		final int senderID = t;
+    		senders[t] = new Thread(() -> {
+    			for (int i = 0; i < perThread; i++) {
+    				chatBox.addMessage(new Message(senderID, "m" + i));
+    				chatBox.addParticipant(100 + senderID);
+    			}
+    		});
+    		senders[t].start();
+    	}
+    	List<Message> snapshot = chatBox.getMessages(); // readers never see a half-applied append
+    	for (Message message : snapshot) {
+    		assertNotNull(message.getContent());
+    	}
+    	for (Thread sender : senders) {
+    		sender.join();
+    	}
+    	assertEquals(threads * perThread, chatBox.getLastSequence());
+    	List<Message> window = chatBox.getMessages();
+    	assertEquals(Math.min(threads * perThread, MessageLog.getDefaultWindowSize()), window.size());
+    	for (int i = 1; i < window.size(); i++) {
+    		assertEquals(window.get(i - 1).getSequence() + 1, window.get(i).getSequence());
+    	}
+    	for (int t = 0; t < threads; t++) {
+    		assertTrue(chatBox.hasParticipant(100 + t));
+    	}
+    }
+
     @Test 
     void testGetChatBoxEmpty() {
     	ChatBox emptyChatBox = chatBox.getEmpty();
     	assertNotNull(emptyChatBox);
     	assertEquals(chatBox.getChatBoxID(), emptyChatBox.getChatBoxID());
-    	assertEquals(chatBox.getParticipants(), emptyChatBox.getParticipants());
+    	assertArrayEquals(chatBox.getParticipantIDs(), emptyChatBox.getParticipantIDs());
+    	assertEquals(chatBox.getChatBoxID() + 1, new ChatBox().getChatBoxID()); // the copy did not use up an ID
     }
-}
 
+    @Test
+    void testSummary() {
+    	chatBox.addMessage(new Message(1, "one"));
+    	chatBox.addMessage(new Message(1, "two"));
+    	ChatBoxSummary summary = ChatBoxSummary.of(chatBox);
+    	assertEquals(chatBox.getChatBoxID(), summary.chatBoxID());
+    	assertEquals(chatBox.getName(), summary.name());
+    	assertEquals(chatBox.getParticipantCount(), summary.participantCount());
+    	assertEquals(2, summary.lastSequence());
+    	assertEquals(chatBox.getLastTimestamp(), summary.lastUpdatedMillis());
+    	ChatBox copy = new ChatBox(summary); // client side copy keeps the server's ID
+    	assertEquals(chatBox.getChatBoxID(), copy.getChatBoxID());
+    	assertEquals(0, copy.getLastSequence());
+    }
+
+    @Test
+    void testWithoutHiddenContent() {
+    	chatBox.addMessage(new Message(1, "visible"));
+    	Message hidden = new Message(2, "secret");
+    	chatBox.addMessage(hidden);
+    	chatBox.addMessage(new Message(1, "after"));
+    	ChatBox before = chatBox;
+    	assertSame(before, chatBox.withoutHiddenContent()); // nothing hidden, nothing copied
+    	chatBox.setMessageHidden(hidden.getMessageID(), true);
+    	ChatBox projected = chatBox.withoutHiddenContent();
+    	assertNotSame(chatBox, projected);
+    	assertEquals(chatBox.getChatBoxID(), projected.getChatBoxID());
+    	List<Message> messages = projected.getMessages();
+    	assertEquals(3, messages.size());
+    	assertEquals("visible", messages.get(0).getContent());
+    	assertTrue(messages.get(1).isHidden());
+    	assertEquals("", messages.get(1).getContent());
+    	assertEquals(2, messages.get(1).getSequence()); // tombstone keeps its place in the sequence
+    	assertEquals(hidden.getMessageID(), messages.get(1).getMessageID());
+    	assertEquals("after", messages.get(2).getContent());
+    	assertEquals("secret", chatBox.getMessages().get(1).getContent()); // the original is untouched
+    	chatBox.hideChatBox();
+    	assertEquals(0, chatBox.withoutHiddenContent().getMessages().size());
+    }
+}
@@ -0,0 +1,120 @@
+package Testing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import Common.MessageInterface;
+import Common.MessageType;
+import Common.Admin.Admin;
+import Common.ChatBox.ChatBox;
+import Common.Message.Message;
+import Common.Messages.AskChatBox;
+import Common.Messages.BanUser;
+import Common.Messages.SendChatBox;
+import ServerApp.ClientHandler.ClientHandler;
+import ServerApp.MessageHandler.MessageHandler;
+import ServerApp.Server.Server;
+import ServerApp.StorageManager.StorageManager;
+
+class TestClientHandler {
+	private Server server;
+	private MessageHandler messageHandler;
+	private Admin admin;
+	private Socket client;
+	private ObjectOutputStream toServer;
+	private ObjectInputStream fromServer;
+
+	@BeforeEach
+	void connect() throws IOException {
+		server = new Server();
+		messageHandler = new MessageHandler(new StorageManager(), server.getChatBoxes(), server.getUserDB(), server);
+		admin = new Admin("laneAdmin", "pass", messageHandler, server.getAuthenticationSystem()); // admins are not throttled
+		server.getUserDB().put(admin.getUserID(), admin);
+		try (ServerSocket listener = new ServerSocket(0)) {
+			client = new Socket("localhost", listener.getLocalPort());
+			client.setSoTimeout(10_000);
+			toServer = new ObjectOutputStream(client.getOutputStream());
+			toServer.flush(); // the handler reads this header while it is created
+			ClientHandler handler = new ClientHandler(listener.accept(), server, messageHandler, server.getAuthenticationSystem());
+			handler.setUser(admin); // logged in, requests go straight to the two lanes
+			new Thread(handler).start();
+		}
+		fromServer = new ObjectInputStream(client.getInputStream());
+	}
+
+	@AfterEach
+	void disconnect() throws IOException {
+		client.close();
+	}
+
+	private ChatBox chatBoxWithHistory(String name, int messages) {
+		ChatBox chatBox = messageHandler.createChatBox(List.of(admin), name);
+		String text = "x".repeat(200);
+		for (int i = 0; i < messages; i++) {
+			messageHandler.sendMessage(chatBox.getChatBoxID(), new Message(admin.getUserID(), text));
+		}
+		return chatBox;
+	}
+
+	@Test
+	void testBulkRequestsAreAnsweredInOrder() throws Exception {
+		List<Integer> asked = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			asked.add(chatBoxWithHistory("lane" + i, 3).getChatBoxID());
+		}
+		for (int chatBoxID : asked) {
+			toServer.writeObject(new AskChatBox(chatBoxID));
+		}
+		toServer.flush();
+		List<Integer> answered = new ArrayList<>();
+		while (answered.size() < asked.size()) {
+			MessageInterface response = (MessageInterface) fromServer.readObject();
+			if (response instanceof SendChatBox sendChatBox) {
+				answered.add(sendChatBox.chatBox().getChatBoxID());
+			}
+		}
+		assertEquals(asked, answered);
+	}
+
+	@Test
+	void testControlOvertakesBulk() throws Exception {
+		ChatBox chatBox = chatBoxWithHistory("large", 500); // each answer is about 100 KB
+		int bulk = 100;
+		for (int i = 0; i < bulk; i++) {
+			toServer.writeObject(new AskChatBox(chatBox.getChatBoxID()));
+		}
+		toServer.writeObject(new BanUser(-1)); // answered with a notification on the control lane
+		toServer.flush();
+		int chatBoxesBefore = -1;
+		int chatBoxes = 0;
+		while (chatBoxes < bulk || chatBoxesBefore < 0) {
+			MessageInterface response = (MessageInterface) fromServer.readObject();
+			if (response.getType() == MessageType.NOTIFICATION) {
+				chatBoxesBefore = chatBoxes;
+			} else if (response instanceof SendChatBox) {
+				chatBoxes++;
+			}
+		}
+		assertTrue(chatBoxesBefore < bulk / 2, "notification came after " + chatBoxesBefore + " chatboxes");
+	}
+
+	@Test
+	void testChatBoxChangesStayOffTheControlLane() {
+		assertTrue(ClientHandler.isControlRequest(MessageType.BAN_USER));
+		assertTrue(ClientHandler.isControlRequest(MessageType.LOGOUT));
+		assertFalse(ClientHandler.isControlRequest(MessageType.HIDE_CHATBOX)); // waits on the chatbox actor
+		assertFalse(ClientHandler.isControlRequest(MessageType.UNHIDE_CHATBOX));
+		assertFalse(ClientHandler.isControlRequest(MessageType.SEND_MESSAGE));
+	}
+}
@@ -0,0 +1,145 @@
+package Testing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import Common.ChatBox.ChatBox;
+import Common.User.User;
+import ServerApp.ClientHandler.ClientHandler;
+import ServerApp.Dispatcher.Dispatcher;
+import ServerApp.Server.Server;
+
+class TestDispatcher {
+	private Server server;
+	private Dispatcher dispatcher;
+
+	@BeforeEach
+	void startDispatcher() {
+		server = new Server();
+		dispatcher = new Dispatcher(4);
+	}
+
+	@AfterEach
+	void stopDispatcher() {
+		dispatcher.shutdown();
+	}
+
+	// A session on a socket that is never read, updates are written into nothing
+	private ClientHandler session(int userID) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		new ObjectOutputStream(header).close();
+		byte[] streamHeader = header.toByteArray();
+		Socket socket = new Socket() {
+			@Override
+			public InputStream getInputStream() {
+				return new ByteArrayInputStream(streamHeader);
+			}
+
+			@Override
+			public OutputStream getOutputStream() {
+				return OutputStream.nullOutputStream();
+			}
+		};
+		ClientHandler handler = new ClientHandler(socket, server, null, server.getAuthenticationSystem());
+		User user = new User("dispatchUser" + userID, "password");
+		handler.setUser(user);
+		return handler;
+	}
+
+	// Waits until the dispatcher has handed out the given number of deliveries
+	private void awaitHandled(long count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (dispatcher.getDeliveredCount() + dispatcher.getFailedCount() < count) {
+			assertTrue(System.currentTimeMillis() < deadline, "deliveries did not finish");
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	void testCoalescesQueuedChatBoxUpdates() throws Exception {
+		ClientHandler session = session(1);
+		ChatBox chatBox = new ChatBox("coalesced");
+		CountDownLatch blocked = new CountDownLatch(1);
+		dispatcher.dispatch(session, handler -> { // holds the shard while updates queue up
+			try {
+				blocked.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		dispatcher.dispatchChatBox(chatBox, List.of(session));
+		dispatcher.dispatchChatBox(chatBox, List.of(session));
+		dispatcher.dispatchChatBox(chatBox, List.of(session));
+		assertEquals(2, dispatcher.getEnqueuedCount()); // the blocker and one chatbox update
+		assertEquals(2, dispatcher.getCoalescedCount());
+
+		dispatcher.dispatchChatBox(new ChatBox("other"), List.of(session)); // other chatboxes are not merged
+		assertEquals(3, dispatcher.getEnqueuedCount());
+
+		blocked.countDown();
+		awaitHandled(3);
+		assertEquals(0, dispatcher.getFailedCount());
+
+		// Once the queued update was taken, a newer change queues a new one
+		dispatcher.dispatchChatBox(chatBox, List.of(session));
+		assertEquals(4, dispatcher.getEnqueuedCount());
+		assertEquals(2, dispatcher.getCoalescedCount());
+		awaitHandled(4);
+	}
+
+	@Test
+	void testKeepsOrderPerRecipient() throws Exception {
+		List<ClientHandler> sessions = List.of(session(1), session(2), session(3));
+		List<List<Integer>> received = new ArrayList<>();
+		for (int i = 0; i < sessions.size(); i++) {
+			received.add(Collections.synchronizedList(new ArrayList<>()));
+		}
+		for (int n = 0; n < 200; n++) {
+			for (int i = 0; i < sessions.size(); i++) {
+				int value = n;
+				List<Integer> log = received.get(i);
+				dispatcher.dispatch(sessions.get(i), handler -> log.add(value));
+			}
+		}
+		awaitHandled(600);
+		for (List<Integer> log : received) {
+			assertEquals(200, log.size());
+			for (int n = 0; n < log.size(); n++) {
+				assertEquals(n, (int) log.get(n)); // in the order they were dispatched
+			}
+		}
+		assertEquals(0, dispatcher.getQueueDepth());
+		assertEquals(600, dispatcher.getDeliveryLatency().getCount());
+	}
+
+	@Test
+	void testCountsFailedDeliveries() throws Exception {
+		ClientHandler session = session(1);
+		List<String> received = Collections.synchronizedList(new ArrayList<>());
+		dispatcher.dispatch(session, handler -> received.add("before"));
+		dispatcher.dispatch(session, handler -> {
+			throw new IllegalStateException("session gone");
+		});
+		dispatcher.dispatch(session, handler -> received.add("after")); // the shard keeps going
+		awaitHandled(3);
+		assertEquals(1, dispatcher.getFailedCount());
+		assertEquals(2, dispatcher.getDeliveredCount());
+		assertEquals(List.of("before", "after"), received);
+	}
+}
@@ -0,0 +1,93 @@
+package Testing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import Common.ChatBox.ChatBox;
+import Common.Message.Message;
+import Common.User.User;
+import ServerApp.Inbox.Inbox;
+
+class TestInbox {
+
+	private static void post(ChatBox chatBox, int senderID, long timestamp) {
+		chatBox.addMessage(new Message(0, senderID, "hi".getBytes(), timestamp, (byte) 0));
+	}
+
+	private static List<Integer> idsOf(Inbox.Page page) {
+		List<Integer> ids = new ArrayList<>();
+		for (Inbox.Entry entry : page.entries()) {
+			ids.add(entry.chatBoxID());
+		}
+		return ids;
+	}
+
+	@Test
+	void testNewestActivityFirst() {
+		User alice = new User("inboxAlice", "pass");
+		User bob = new User("inboxBob", "pass");
+		ChatBox first = new ChatBox(List.of(alice, bob), "first");
+		ChatBox second = new ChatBox(List.of(alice), "second");
+		ChatBox others = new ChatBox(List.of(bob), "others");
+		post(first, alice.getUserID(), 1000);
+		post(second, alice.getUserID(), 2000);
+		post(others, bob.getUserID(), 3000);
+		Inbox inbox = new Inbox();
+		inbox.add(first);
+		inbox.add(second);
+		inbox.add(others);
+
+		assertEquals(List.of(second.getChatBoxID(), first.getChatBoxID()), idsOf(inbox.page(alice.getUserID(), null, 10)));
+		assertEquals(List.of(others.getChatBoxID(), first.getChatBoxID()), idsOf(inbox.page(bob.getUserID(), null, 10)));
+
+		// A new message moves the chatbox to the top of every participant's inbox
+		post(first, bob.getUserID(), 4000);
+		inbox.touch(first);
+		assertEquals(List.of(first.getChatBoxID(), second.getChatBoxID()), inbox.chatBoxIDsOf(alice.getUserID()));
+		assertEquals(List.of(first.getChatBoxID(), others.getChatBoxID()), inbox.chatBoxIDsOf(bob.getUserID()));
+
+		inbox.leave(alice.getUserID(), first.getChatBoxID());
+		assertEquals(List.of(second.getChatBoxID()), inbox.chatBoxIDsOf(alice.getUserID()));
+		inbox.join(alice.getUserID(), others);
+		assertEquals(List.of(others.getChatBoxID(), second.getChatBoxID()), inbox.chatBoxIDsOf(alice.getUserID()));
+	}
+
+	@Test
+	void testPagingMergesSharedChatBoxes() {
+		User user = new User("inboxCarol", "pass");
+		Inbox inbox = new Inbox();
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			ChatBox chatBox = new ChatBox(List.of(user), "box" + i);
+			post(chatBox, user.getUserID(), 10_000 - i * 1000L); // box0 is the newest
+			inbox.add(chatBox);
+			expected.add(chatBox.getChatBoxID());
+		}
+		ChatBox everyone = new ChatBox("everyone");
+		ChatBox openToAll = ChatBox.getSystemChatBox();
+		post(openToAll, 0, 7500); // between box2 and box3
+		inbox.add(openToAll);
+		inbox.add(everyone); // no participants, in nobody's inbox
+		expected.add(3, openToAll.getChatBoxID());
+		assertEquals(6, inbox.size(user.getUserID()));
+
+		List<Integer> paged = new ArrayList<>();
+		Inbox.Page page = inbox.page(user.getUserID(), null, 2);
+		int pages = 1;
+		while (true) {
+			assertTrue(page.entries().size() <= 2);
+			paged.addAll(idsOf(page));
+			if (page.next() == null) {
+				break;
+			}
+			page = inbox.page(user.getUserID(), page.next(), 2);
+			pages++;
+		}
+		assertEquals(expected, paged);
+		assertEquals(3, pages);
+	}
+}
@@ -0,0 +1,81 @@
+package Testing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ServerApp.LoginAdmission.LoginAdmission;
+
+class TestLoginAdmission {
+
+	@Test
+	void testQueuesInArrivalOrder() {
+		LoginAdmission admission = new LoginAdmission(2, 2);
+		List<String> started = new ArrayList<>();
+		assertEquals(0, admission.admit(() -> started.add("a")));
+		assertEquals(0, admission.admit(() -> started.add("b")));
+		assertEquals(1, admission.admit(() -> started.add("c")));
+		assertEquals(2, admission.admit(() -> started.add("d")));
+		assertEquals(-1, admission.admit(() -> started.add("e"))); // queue full
+		assertEquals(List.of("a", "b"), started);
+		assertEquals(2, admission.getInFlight());
+
+		admission.release(System.nanoTime());
+		assertEquals(List.of("a", "b", "c"), started);
+		assertEquals(2, admission.getInFlight()); // c took the slot
+		assertEquals(1, admission.getQueued());
+
+		admission.release(System.nanoTime());
+		admission.release(System.nanoTime());
+		admission.release(System.nanoTime());
+		assertEquals(List.of("a", "b", "c", "d"), started);
+		assertEquals(0, admission.getInFlight());
+		assertEquals(0, admission.admit(() -> started.add("f")));
+		assertEquals(5, admission.getQueueWait().getCount()); // every started login recorded its wait
+	}
+
+	@Test
+	void testDepartedLoginsDoNotNest() {
+		LoginAdmission admission = new LoginAdmission(1, 200_000);
+		assertEquals(0, admission.admit(() -> {}));
+		int[] started = new int[1];
+		for (int i = 0; i < 100_000; i++) {
+			admission.admit(() -> { // a client that left releases at once, as startLogin does
+				started[0]++;
+				admission.release(System.nanoTime());
+			});
+		}
+		admission.release(System.nanoTime()); // would overflow the stack if each start ran the next
+		assertEquals(100_000, started[0]);
+		assertEquals(0, admission.getInFlight());
+		assertEquals(0, admission.getQueued());
+	}
+
+	@Test
+	void testCancelDropsWaitingLogin() {
+		LoginAdmission admission = new LoginAdmission(1, 10);
+		List<String> started = new ArrayList<>();
+		Runnable b = () -> started.add("b");
+		admission.admit(() -> started.add("a"));
+		assertEquals(1, admission.admit(b));
+		assertEquals(2, admission.admit(() -> started.add("c")));
+		assertTrue(admission.cancel(b)); // b's client disconnected
+		assertFalse(admission.cancel(b));
+		admission.release(System.nanoTime());
+		assertEquals(List.of("a", "c"), started);
+		assertEquals(1, admission.getInFlight());
+	}
+
+	@Test
+	void testEstimatedWait() {
+		LoginAdmission admission = new LoginAdmission(2, 10);
+		assertEquals(0, admission.estimateWaitMillis(3)); // nothing measured yet
+		admission.admit(() -> {});
+		admission.release(System.nanoTime() - 100_000_000L); // a login of 100 ms
+		assertEquals(100, admission.estimateWaitMillis(1));
+		assertEquals(200, admission.estimateWaitMillis(3));
+	}
+}
@@ -2,14 +2,24 @@ package Testing;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import Common.Admin.Admin;
 import Common.ChatBox.ChatBox;
+import Common.ChatBox.ChatBoxSummary;
 import Common.Message.Message;
+import Common.Messages.AskChatBoxList;
+import Common.Messages.AskChatLog;
+import Common.Messages.ChatLogChunk;
+import Common.Messages.SendCatchUp;
 import Common.User.User;
 import ServerApp.MessageHandler.MessageHandler;
 import ServerApp.Server.Server;
@@ -38,7 +48,7 @@ class TestMessageHandler {
 		User user2=new User("user2", "pass");
 		chatbox.addParticipant(user1);
 		chatbox.addParticipant(user2);
-		List<User> participants =chatbox.getParticipantsList();
+		List<User> participants =List.of(user1, user2);
 		assertNotNull(msgHandler.createChatBox(participants, "chat1"));
 	}
 	@Test
@@ -48,7 +58,7 @@ class TestMessageHandler {
 	     ChatBox chatbox = new ChatBox();
 	     chatbox.addParticipant(user1);
 	     chatbox.addParticipant(user2);
-	     List<User> participants = chatbox.getParticipantsList();
+	     List<User> participants = List.of(user1, user2);
 	     ChatBox createdChatBox = msgHandler.createChatBox(participants, "chat1");
 	     int boxId = createdChatBox.getChatBoxID();
 	     assertEquals(createdChatBox, msgHandler.getChatBox(boxId));
@@ -61,13 +71,76 @@ class TestMessageHandler {
         ChatBox chatbox = new ChatBox();
         chatbox.addParticipant(user1);
         chatbox.addParticipant(user2);
-        List<User> participants = chatbox.getParticipantsList();
+        List<User> participants = List.of(user1, user2);
         ChatBox createdChatBox = msgHandler.createChatBox(participants, "chat1");
         int boxId = createdChatBox.getChatBoxID();
         Message msg = new Message(1, "This is test msg");
         assertTrue(msgHandler.sendMessage(boxId, msg));
 	}
 	@Test
+	void testDuplicateSubmission() {
+		User user1 = new User("user1", "pass");
+		ChatBox createdChatBox = msgHandler.createChatBox(List.of(user1), "chat1");
+		int boxId = createdChatBox.getChatBoxID();
+		Message msg = new Message(user1.getUserID(), "sent twice");
+		assertEquals(MessageHandler.Submission.ACCEPTED, msgHandler.submitMessage(boxId, msg, 42L));
+		assertEquals(MessageHandler.Submission.DUPLICATE, msgHandler.submitMessage(boxId, msg, 42L));
+		assertEquals(1, createdChatBox.getLastSequence());
+		assertEquals(MessageHandler.Submission.REJECTED, msgHandler.submitMessage(-1, msg, 43L));
+		assertEquals(MessageHandler.Submission.ACCEPTED, msgHandler.submitMessage(boxId, msg, 43L)); // a rejected ID may be retried
+	}
+	@Test
+	void testReadMarkers() {
+		User user1 = new User("user1", "pass");
+		User user2 = new User("user2", "pass");
+		ChatBox createdChatBox = msgHandler.createChatBox(List.of(user1, user2), "chat1");
+		int boxId = createdChatBox.getChatBoxID();
+		for (int i = 0; i < 3; i++) {
+			assertTrue(msgHandler.sendMessage(boxId, new Message(user1.getUserID(), "msg " + i)));
+		}
+		assertEquals(0, msgHandler.activityOf(user1.getUserID(), createdChatBox).unread()); // own messages are read
+		assertEquals(3, msgHandler.activityOf(user2.getUserID(), createdChatBox).unread());
+		assertTrue(msgHandler.markRead(user2.getUserID(), boxId, 2));
+		assertEquals(1, msgHandler.activityOf(user2.getUserID(), createdChatBox).unread());
+		assertFalse(msgHandler.markRead(user2.getUserID(), boxId, 1)); // markers never move back
+		assertTrue(msgHandler.markRead(user2.getUserID(), boxId, 99)); // clamped to the last message
+		assertEquals(3, msgHandler.getReadMarkers().getLastRead(user2.getUserID(), boxId));
+	}
+	@Test
+	void testExportLogInChunks() {
+		User user1 = new User("user1", "pass");
+		User user2 = new User("user2", "pass");
+		ChatBox createdChatBox = msgHandler.createChatBox(List.of(user1, user2), "chat1");
+		int boxId = createdChatBox.getChatBoxID();
+		for (int i = 0; i < 100; i++) {
+			User sender = i % 2 == 0 ? user1 : user2;
+			assertTrue(msgHandler.sendMessage(boxId, new Message(sender.getUserID(), "x".repeat(2000))));
+		}
+		AskChatLog request = new AskChatLog(boxId);
+		StringBuilder log = new StringBuilder();
+		int chunks = 0;
+		while (true) {
+			ChatLogChunk chunk = msgHandler.exportLog(request);
+			assertTrue(chunk.answers(request));
+			log.append(chunk.text());
+			chunks++;
+			if (chunk.last()) {
+				break;
+			}
+			request = request.continueAt(chunk.nextSequence());
+		}
+		assertTrue(chunks > 1); // 200KB does not fit one chunk
+		assertEquals(100, log.toString().split("\n").length);
+		// Only user2's messages
+		AskChatLog filter = new AskChatLog(boxId, 1, -1, -1, user2.getUserID(), true, 7);
+		ChatLogChunk filtered = msgHandler.exportLog(filter);
+		assertTrue(filtered.answers(filter));
+		assertFalse(filtered.answers(new AskChatLog(boxId))); // an earlier search of the same chatbox
+		assertFalse(filtered.answers(filter.continueAt(filtered.nextSequence())));
+		assertTrue(filtered.text().lines().allMatch(line -> line.contains(" - " + user2.getUserID() + ": ")));
+		assertNull(msgHandler.exportLog(new AskChatLog(-1)));
+	}
+	@Test
 	void testSendMessageToUser() {
 		User user1 = new User("user1", "pass");
 	    User user2 = new User("user2", "pass");
@@ -76,7 +149,7 @@ class TestMessageHandler {
 	    ChatBox chatbox = new ChatBox();
 	    chatbox.addParticipant(user1);
 	    chatbox.addParticipant(user2);
-	    List<User> participants = chatbox.getParticipantsList();
+	    List<User> participants = List.of(user1, user2);
 	    msgHandler.createChatBox(participants, "chat1");
 	    int userId = user1.getUserID();
 	    assertTrue(msgHandler.sendMessageToUser(userId, "Hi There"));
@@ -88,12 +161,153 @@ class TestMessageHandler {
 	     ChatBox chatbox = new ChatBox();
 	     chatbox.addParticipant(user1);
 	     chatbox.addParticipant(user2);
-	     List<User> participants = chatbox.getParticipantsList();
+	     List<User> participants = List.of(user1, user2);
 	     ChatBox createdChatBox = msgHandler.createChatBox(participants, "chat1");
 	     int boxId = createdChatBox.getChatBoxID();
 	     int userId = user1.getUserID();
 	     assertTrue(msgHandler.removeParticipantFromChatBox(boxId, userId));
 		
 	}
+	@Test
+	void testBroadcast() {
+		User user1 = new User("user1", "pass");
+		User user2 = new User("user2", "pass");
+		userDB.put(user1.getUserID(), user1);
+		userDB.put(user2.getUserID(), user2);
+		ChatBox first = msgHandler.createChatBox(List.of(user1, user2), "chat1");
+		ChatBox second = msgHandler.createChatBox(List.of(user2), "chat2");
+		Message announcement = new Message(user1.getUserID(), "Announcement");
+		assertEquals(2, msgHandler.broadcast(announcement, List.of(first, second)));
+		for (ChatBox chatBox : List.of(first, second)) {
+			Message stored = chatBox.getMessages().get(0);
+			assertEquals(announcement.getMessageID(), stored.getMessageID());
+			assertEquals(1, stored.getSequence());
+			assertEquals("Announcement", storageManager.readMessages(chatBox.getChatBoxID(), 1, 1).get(0).getContent());
+		}
+		assertEquals(first.getChatBoxID(), msgHandler.getInbox().page(user1.getUserID(), null, 10).entries().get(0).chatBoxID());
+		assertEquals(announcement.getTimestampMillis(), msgHandler.getInbox().page(user2.getUserID(), null, 10).entries().get(0).activityMillis());
+		// user2's private chatbox is chat2, found through the index and not recreated
+		assertEquals(2, msgHandler.sendSystemMessage(user1.getUserID(), "System", List.of(user1.getUserID(), user2.getUserID())));
+		assertEquals(2, second.getLastSequence());
+	}
+	@Test
+	void testGetMessagesAfter() {
+		User user1 = new User("user1", "pass");
+		ChatBox chatBox = msgHandler.createChatBox(List.of(user1), "chat1");
+		for (int i = 0; i < 5; i++) {
+			msgHandler.sendMessage(chatBox.getChatBoxID(), new Message(user1.getUserID(), "msg " + i));
+		}
+		assertEquals(5, msgHandler.getMessagesAfter(chatBox.getChatBoxID(), 0).size());
+		List<Message> missed = msgHandler.getMessagesAfter(chatBox.getChatBoxID(), 3);
+		assertEquals(List.of(4L, 5L), missed.stream().map(Message::getSequence).toList());
+		assertTrue(msgHandler.getMessagesAfter(chatBox.getChatBoxID(), 5).isEmpty());
+		assertTrue(msgHandler.getMessagesAfter(chatBox.getChatBoxID(), 9).isEmpty()); // ahead of the server
+		assertNull(msgHandler.getMessagesAfter(-5, 0));
+	}
+	@Test
+	void testGetChatBoxPage() {
+		chatBoxes.put(0, new ChatBox(new ChatBoxSummary(0, "loaded", false, 0, 0, -1))); // a chatbox loaded with ID 0
+		msgHandler = new MessageHandler(storageManager, chatBoxes, userDB, server);
+		User user1 = new User("user1", "pass");
+		for (int i = 0; i < 4; i++) {
+			msgHandler.createChatBox(List.of(user1), "page" + i);
+		}
+		List<ChatBox> first = msgHandler.getChatBoxPage(AskChatBoxList.FIRST_PAGE, 3);
+		assertEquals(3, first.size());
+		assertEquals(0, first.get(0).getChatBoxID());
+		List<ChatBox> second = msgHandler.getChatBoxPage(first.get(2).getChatBoxID(), 3);
+		assertEquals(2, second.size());
+		List<Integer> ids = new ArrayList<>();
+		first.forEach(chatBox -> ids.add(chatBox.getChatBoxID()));
+		second.forEach(chatBox -> ids.add(chatBox.getChatBoxID()));
+		assertEquals(ids.stream().sorted().toList(), ids); // in ID order across pages
+		assertTrue(msgHandler.getChatBoxPage(second.get(1).getChatBoxID(), 3).isEmpty());
+	}
+
+	@Test
+	void testCatchUpProjection() {
+		User user1 = new User("user1", "pass");
+		Admin admin = new Admin("admin1", "pass", msgHandler, server.getAuthenticationSystem());
+		userDB.put(user1.getUserID(), user1);
+		userDB.put(admin.getUserID(), admin);
+		ChatBox chatBox = msgHandler.createChatBox(List.of(user1, admin), "chat1");
+		int chatBoxID = chatBox.getChatBoxID();
+		for (int i = 0; i < 4; i++) {
+			msgHandler.sendMessage(chatBoxID, new Message(user1.getUserID(), "msg " + i));
+		}
+		List<Message> sent = chatBox.getMessages(); // as stored, with their sequences
+		// The client cached 1..2, then a moderator hid 1 (cached) and 3 (missed)
+		assertTrue(msgHandler.hideMessage(chatBoxID, sent.get(0).getMessageID()));
+		assertTrue(msgHandler.hideMessage(chatBoxID, sent.get(2).getMessageID()));
+
+		SendCatchUp catchUp = msgHandler.catchUp(user1, Map.of(chatBoxID, 2L));
+		List<Message> missed = catchUp.missed().get(chatBoxID);
+		assertEquals(List.of(3L, 4L), missed.stream().map(Message::getSequence).toList());
+		assertTrue(missed.get(0).isHidden());
+		assertEquals("", missed.get(0).getContent()); // a tombstone for a regular user
+		assertEquals("msg 3", missed.get(1).getContent());
+		SendCatchUp.Hidden hidden = catchUp.hidden().get(chatBoxID);
+		assertEquals(1, hidden.fromSequence());
+		assertEquals(2, hidden.toSequence());
+		assertArrayEquals(new long[] {1}, hidden.sequences());
+		assertFalse(hidden.matches(sent.subList(0, 2))); // a copy cached before the hide is stale
+		assertTrue(catchUp.participants().stream().anyMatch(view -> view.userID() == admin.getUserID()));
+
+		assertEquals("msg 2", msgHandler.catchUp(admin, Map.of(chatBoxID, 2L)).missed().get(chatBoxID).get(0).getContent());
+
+		// A hidden chatbox is left out for regular users only
+		assertTrue(msgHandler.hideChatBox(chatBoxID));
+		assertFalse(msgHandler.catchUp(user1, Map.of(chatBoxID, 4L)).missed().containsKey(chatBoxID));
+		assertTrue(msgHandler.catchUp(admin, Map.of(chatBoxID, 4L)).missed().containsKey(chatBoxID));
+	}
+
+	@Test
+	void testActorsKeepPerChatOrder() {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			msgHandler.useActors(pool);
+			User user1 = new User("user1", "pass");
+			ChatBox createdChatBox = msgHandler.createChatBox(List.of(user1), "chat1");
+			int boxId = createdChatBox.getChatBoxID();
+			for (int i = 0; i < 200; i++) {
+				assertTrue(msgHandler.sendMessage(boxId, new Message(user1.getUserID(), "msg " + i)));
+			}
+			// Mutations of one chatbox run in order, so this one sees every message posted before it
+			assertTrue(msgHandler.removeParticipantFromChatBox(boxId, user1.getUserID()));
+			assertEquals(200, createdChatBox.getLastSequence());
+			List<Message> messages = createdChatBox.getMessages();
+			for (int i = 0; i < messages.size(); i++) {
+				assertEquals("msg " + i, messages.get(i).getContent());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void testBroadcastIsWrittenInOrderWithSends() {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			msgHandler.useActors(pool);
+			User user1 = new User("user1", "pass");
+			ChatBox chatBox = msgHandler.createChatBox(List.of(user1), "chat1");
+			for (int i = 0; i < 50; i++) {
+				msgHandler.sendMessage(chatBox.getChatBoxID(), new Message(user1.getUserID(), "msg " + i));
+				if (i % 10 == 0) {
+					msgHandler.broadcast(new Message(user1.getUserID(), "announcement " + i), List.of(chatBox));
+				}
+			}
+			// Waits for everything posted before it, each batch wrote its own messages
+			assertTrue(msgHandler.removeParticipantFromChatBox(chatBox.getChatBoxID(), user1.getUserID()));
+			assertEquals(55, chatBox.getLastSequence());
+			List<Message> history = storageManager.readMessages(chatBox.getChatBoxID(), 1, 55);
+			assertEquals(55, history.size()); // no slot left for a broadcast still on its way
+			for (int i = 0; i < history.size(); i++) {
+				assertEquals(i + 1, history.get(i).getSequence());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
 
 }
@@ -0,0 +1,51 @@
+package Testing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+import ServerApp.PasswordHasher.PasswordHasher;
+
+class TestPasswordHasher {
+
+	@Test
+	void testHashAndVerify() {
+		PasswordHasher hasher = new PasswordHasher(1000, 1, 4, 0);
+		String stored = hasher.hash("secret");
+		assertTrue(hasher.isHashed(stored));
+		assertNotEquals(stored, hasher.hash("secret")); // salted
+		assertTrue(hasher.verify("secret", stored));
+		assertFalse(hasher.verify("Secret", stored));
+		assertTrue(hasher.verifyAsync("secret", stored).join());
+		assertFalse(hasher.needsRehash(stored));
+		assertTrue(new PasswordHasher(2000, 1, 4, 0).needsRehash(stored)); // cost was raised
+		hasher.shutdown();
+	}
+
+	@Test
+	void testPlainTextPasswordsStillVerify() {
+		PasswordHasher hasher = new PasswordHasher(1000, 1, 4, 0);
+		assertTrue(hasher.verify("old", "old"));
+		assertFalse(hasher.verify("new", "old"));
+		assertTrue(hasher.needsRehash("old"));
+		hasher.shutdown();
+	}
+
+	@Test
+	void testFullQueueRefusesChecks() {
+		PasswordHasher hasher = new PasswordHasher(200_000, 1, 1, 0);
+		String stored = hasher.hash("secret");
+		CompletableFuture<?>[] checks = new CompletableFuture<?>[4];
+		for (int i = 0; i < checks.length; i++) {
+			checks[i] = hasher.verifyAsync("secret", stored); // one runs, one waits, the rest are refused
+		}
+		CompletionException refused = assertThrows(CompletionException.class, () -> checks[3].join());
+		assertTrue(refused.getCause() instanceof RejectedExecutionException);
+		assertEquals(true, checks[0].join());
+		hasher.shutdown();
+	}
+}
@@ -0,0 +1,53 @@
+package Testing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+import Common.User.PresenceDelta;
+import Common.User.User;
+import Common.User.UserView;
+import ServerApp.PresenceService.PresenceService;
+
+class TestPresenceService {
+
+	@Test
+	void testChangesAreCoalescedPerTick() {
+		ConcurrentHashMap<Integer, User> users = new ConcurrentHashMap<>();
+		User user = new User("user1", "pass");
+		users.put(user.getUserID(), user);
+		PresenceService presence = new PresenceService(users);
+
+		// Logged in and out within one tick: nothing to publish
+		change(presence, user, () -> user.setOnline(true));
+		change(presence, user, () -> user.setOnline(false));
+		assertTrue(presence.drainChanges().isEmpty());
+
+		change(presence, user, () -> user.setOnline(true));
+		change(presence, user, () -> user.setBanned(true));
+		List<PresenceDelta> deltas = presence.drainChanges();
+		assertEquals(List.of(new PresenceDelta(user.getUserID(), PresenceDelta.Kind.ONLINE),
+				new PresenceDelta(user.getUserID(), PresenceDelta.Kind.BANNED)), deltas);
+		assertTrue(presence.drainChanges().isEmpty()); // already published
+
+		change(presence, user, () -> user.setBanned(false));
+		assertEquals(List.of(new PresenceDelta(user.getUserID(), PresenceDelta.Kind.UNBANNED)), presence.drainChanges());
+	}
+
+	@Test
+	void testApplyToView() {
+		UserView view = new UserView(7, "user7", false, false);
+		assertTrue(new PresenceDelta(7, PresenceDelta.Kind.ONLINE).applyTo(view).online());
+		assertTrue(new PresenceDelta(7, PresenceDelta.Kind.BANNED).applyTo(view).banned());
+		assertEquals("user7", new PresenceDelta(7, PresenceDelta.Kind.OFFLINE).applyTo(view).username());
+	}
+
+	private static void change(PresenceService presence, User user, Runnable change) {
+		presence.beforeChange(user);
+		change.run();
+		presence.changed(user);
+	}
+}
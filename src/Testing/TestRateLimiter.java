@@ -0,0 +1,34 @@
+package Testing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import Common.MessageType;
+import ServerApp.RateLimiter.RateLimiter;
+
+class TestRateLimiter {
+
+	@Test
+	void testBurstThenThrottle() {
+		RateLimiter limiter = new RateLimiter(Map.of(MessageType.SEND_MESSAGE, new RateLimiter.Limit(1, 3)));
+		RateLimiter.Buckets buckets = limiter.bucketsFor(1);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0, limiter.acquire(buckets, MessageType.SEND_MESSAGE));
+		}
+		assertTrue(limiter.acquire(buckets, MessageType.SEND_MESSAGE) > 0);
+		assertEquals(1, limiter.getRejectedCount(MessageType.SEND_MESSAGE));
+		assertEquals(0, limiter.acquire(buckets, MessageType.REQUEST_USER_LIST)); // no limit for this type
+		assertEquals(0, limiter.acquire(limiter.bucketsFor(2), MessageType.SEND_MESSAGE)); // other users are not affected
+	}
+
+	@Test
+	void testParseLimit() {
+		RateLimiter.Limit limit = RateLimiter.Limit.parse("20/40");
+		assertEquals(20, limit.ratePerSecond());
+		assertEquals(40, limit.burst());
+		assertThrows(IllegalArgumentException.class, () -> RateLimiter.Limit.parse("20"));
+	}
+}
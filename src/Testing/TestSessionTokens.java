@@ -0,0 +1,44 @@
+package Testing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import ServerApp.SessionTokens.SessionTokens;
+
+class TestSessionTokens {
+
+	@Test
+	void testRedeemOnce() {
+		SessionTokens tokens = new SessionTokens();
+		String token = tokens.issue(7);
+		assertNotEquals(token, tokens.issue(7));
+		assertEquals(7, tokens.redeem(token));
+		assertEquals(-1, tokens.redeem(token));
+		assertEquals(-1, tokens.redeem("not a token"));
+		assertEquals(-1, tokens.redeem(null));
+		assertEquals(1, tokens.size());
+	}
+
+	@Test
+	void testRevoke() {
+		SessionTokens tokens = new SessionTokens();
+		String first = tokens.issue(1);
+		String second = tokens.issue(1);
+		String other = tokens.issue(2);
+		tokens.revoke(first);
+		assertEquals(-1, tokens.redeem(first));
+		tokens.revokeAll(1);
+		assertEquals(-1, tokens.redeem(second));
+		assertEquals(2, tokens.redeem(other));
+		assertEquals(0, tokens.size());
+	}
+
+	@Test
+	void testExpiry() throws InterruptedException {
+		SessionTokens tokens = new SessionTokens(20);
+		String token = tokens.issue(3);
+		Thread.sleep(50);
+		assertEquals(-1, tokens.redeem(token));
+	}
+}
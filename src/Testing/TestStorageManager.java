@@ -4,6 +4,17 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import ServerApp.StorageManager.StorageManager;
 import Common.ChatBox.ChatBox;
+import Common.Message.Message;
+import Common.User.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -25,5 +36,121 @@ class TestStorageManager {
         assertNotNull(retrievedChatBox);
         assertEquals(chatBox.getChatBoxID(), retrievedChatBox.getChatBoxID());
     }
-    
+
+    @Test
+    void testHistoryOutlivesWindow() {
+        ChatBox chatBox = new ChatBox("History");
+        assertTrue(storageManager.storeChatBox(chatBox));
+        Message hiddenLater = null;
+        for (int i = 1; i <= 600; i++) { // more than the default window
+            Message message = new Message(1, "message " + i);
+            long sequence = chatBox.addMessage(message);
+            assertTrue(storageManager.appendMessage(chatBox, sequence, message));
+            if (i == 3) {
+                hiddenLater = message;
+            }
+        }
+        assertEquals(600, chatBox.getLastSequence());
+        assertFalse(chatBox.isInWindow(1, 10));
+
+        List<Message> page = storageManager.readMessages(chatBox.getChatBoxID(), 1, 10);
+        assertEquals(10, page.size());
+        assertEquals("message 1", page.get(0).getContent());
+        assertEquals(10, page.get(9).getSequence());
+
+        long sequence = storageManager.findSequence(chatBox.getChatBoxID(), hiddenLater.getMessageID());
+        assertEquals(3, sequence);
+        assertTrue(storageManager.setMessageHidden(chatBox.getChatBoxID(), sequence, true));
+        assertTrue(storageManager.readMessages(chatBox.getChatBoxID(), 3, 1).get(0).isHidden());
+        assertTrue(storageManager.readMessages(chatBox.getChatBoxID(), 601, 10).isEmpty());
+    }
+
+    @Test
+    void testRestartDoesNotReuseChatBoxIDs() {
+        ChatBox chatBox = new ChatBox("Before restart");
+        assertTrue(storageManager.storeChatBox(chatBox));
+        Message message = new Message(1, "private");
+        assertTrue(storageManager.appendMessage(chatBox, chatBox.addMessage(message), message));
+
+        ChatBox.resetChatBoxIdGenerator(); // as after a restart
+        StorageManager restarted = new StorageManager();
+        ChatBox created = new ChatBox("After restart");
+        assertTrue(created.getChatBoxID() > chatBox.getChatBoxID());
+        assertTrue(restarted.storeChatBox(created));
+        assertTrue(restarted.readMessages(created.getChatBoxID(), 1, 10).isEmpty());
+
+        // A different chatbox with a used ID is refused and the old history stays where it was
+        ChatBox clash = ChatBox.restore(chatBox.getChatBoxID(), "Clash", new int[] {2}, false, false, null);
+        assertFalse(restarted.storeChatBox(clash));
+        assertEquals("private", restarted.retrieveChatBox(chatBox.getChatBoxID()).getMessages().get(0).getContent());
+    }
+
+    @Test
+    void testConvertsOldFormatChatBox() throws IOException {
+        int chatBoxID = 900_001;
+        User sally = new User("Sally", "pass123");
+        ServerApp.LegacyFormat.ChatBox legacy = new ServerApp.LegacyFormat.ChatBox(chatBoxID, "Before the upgrade", List.of(sally), false);
+        LocalDateTime start = LocalDateTime.now().minusDays(1);
+        for (int i = 1; i <= 3; i++) {
+            legacy.addMessage(new ServerApp.LegacyFormat.Message(800_000 + i, sally.getUserID(), "old " + i, start.plusMinutes(i), i == 2));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(legacy);
+        }
+        // Give the classes the names the first version of the server wrote
+        byte[] stream = bytes.toByteArray();
+        stream = renameClass(stream, "ServerApp.LegacyFormat.ChatBox$SerializableComparator", "Common.ChatBox.ChatBox$SerializableComparator");
+        stream = renameClass(stream, "ServerApp.LegacyFormat.ChatBox", "Common.ChatBox.ChatBox");
+        stream = renameClass(stream, "ServerApp.LegacyFormat.Message", "Common.Message.Message");
+        File file = new File("chatboxes", String.valueOf(chatBoxID));
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(stream);
+            }
+            ChatBox chatBox = new StorageManager().retrieveChatBox(chatBoxID);
+            assertNotNull(chatBox);
+            assertEquals("Before the upgrade", chatBox.getName());
+            assertTrue(chatBox.hasParticipant(sally.getUserID()));
+            assertEquals(3, chatBox.getLastSequence());
+            assertEquals("old 1", chatBox.getMessages().get(0).getContent());
+
+            ChatBox reloaded = new StorageManager().retrieveChatBox(chatBoxID); // now in the current format
+            assertEquals(3, reloaded.getLastSequence());
+            List<Message> history = storageManager.readMessages(chatBoxID, 1, 10);
+            assertEquals(3, history.size());
+            assertTrue(history.get(1).isHidden());
+            assertEquals(800_003, history.get(2).getMessageID());
+        } finally {
+            file.delete();
+            new File("chatboxes", chatBoxID + ".log").delete();
+            new File("chatboxes", chatBoxID + ".idx").delete();
+        }
+    }
+
+    // Replaces a class name (written as a length-prefixed UTF string) in a serialized stream
+    private static byte[] renameClass(byte[] stream, String from, String to) {
+        byte[] pattern = utf(from);
+        byte[] replacement = utf(to);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < stream.length) {
+            if (i + pattern.length <= stream.length && java.util.Arrays.equals(stream, i, i + pattern.length, pattern, 0, pattern.length)) {
+                out.write(replacement, 0, replacement.length);
+                i += pattern.length;
+            } else {
+                out.write(stream[i++]);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] utf(String name) {
+        byte[] chars = name.getBytes(StandardCharsets.UTF_8);
+        byte[] prefixed = new byte[chars.length + 2];
+        prefixed[0] = (byte) (chars.length >> 8);
+        prefixed[1] = (byte) chars.length;
+        System.arraycopy(chars, 0, prefixed, 2, chars.length);
+        return prefixed;
+    }
 }
@@ -0,0 +1,85 @@
+package Testing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import Common.ChatBox.ChatBox;
+import Common.Message.Message;
+import ServerApp.StorageManager.StorageManager;
+import ServerApp.SystemTopic.SystemTopic;
+
+class TestSystemTopic {
+	private StorageManager storageManager;
+	private ChatBox topicBox;
+	private SystemTopic topic;
+	private int userID;
+
+	@BeforeEach
+	void startTopic() {
+		storageManager = new StorageManager();
+		topicBox = new ChatBox("notifications");
+		topic = newTopic();
+		userID = (int) (System.nanoTime() & 0x3fffffff); // cursors are saved, keep reruns apart
+	}
+
+	private SystemTopic newTopic() {
+		return new SystemTopic(topicBox, storageManager, (from, count) -> topicBox.getMessages().stream()
+				.filter(message -> message.getSequence() >= from && message.getSequence() < from + count)
+				.toList());
+	}
+
+	private void publish(int count) {
+		for (int i = 0; i < count; i++) {
+			topicBox.addMessage(new Message(1, "notice " + topicBox.getLastSequence()));
+		}
+	}
+
+	@Test
+	void testNewUserCatchesUpOnEverything() {
+		publish(3);
+		List<Message> missed = topic.subscribe(userID, 0);
+		assertEquals(3, missed.size());
+		assertEquals(1, missed.get(0).getSequence());
+		assertEquals(3, topic.getCursor(userID)); // the rest is delivered live
+		assertTrue(topic.subscribe(userID, 0).isEmpty());
+	}
+
+	@Test
+	void testCatchesUpFromCursorOrClient() {
+		publish(2);
+		topic.subscribe(userID, 0);
+		publish(1); // delivered live
+		topic.unsubscribe(userID);
+		assertEquals(3, topic.getCursor(userID));
+		publish(2); // while offline
+		List<Message> missed = topic.subscribe(userID, 0);
+		assertEquals(List.of(4L, 5L), missed.stream().map(Message::getSequence).toList());
+
+		// A client that reports what it has wins over the cursor
+		topic.unsubscribe(userID);
+		assertEquals(List.of(2L, 3L, 4L, 5L), topic.subscribe(userID, 1).stream().map(Message::getSequence).toList());
+	}
+
+	@Test
+	void testCatchUpIsLimitedToTheNewest() {
+		publish(SystemTopic.CATCH_UP_LIMIT + 50);
+		List<Message> missed = topic.subscribe(userID, 0);
+		assertEquals(SystemTopic.CATCH_UP_LIMIT, missed.size());
+		assertEquals(topicBox.getLastSequence(), missed.get(missed.size() - 1).getSequence());
+	}
+
+	@Test
+	void testCursorsAreSavedOnFlushNotOnLogout() {
+		publish(4);
+		topic.subscribe(userID, 0);
+		topic.unsubscribe(userID);
+		assertEquals(0, newTopic().getCursor(userID)); // nothing written yet
+		assertTrue(topic.flush());
+		assertFalse(topic.flush()); // nothing changed since
+		assertEquals(4, newTopic().getCursor(userID));
+	}
+}
@@ -43,4 +43,17 @@ class TestUser {
 		user.setBanned(ban);
 		assertTrue(user.isBanned());
 	}
+	@Test
+	void testDirtyTracking() {
+		User other = new User("other", "pass");
+		other.setOnline(true); // presence is not persisted
+		assertFalse(other.isDirty());
+		other.setBanned(false); // unchanged
+		assertFalse(other.isDirty());
+		other.setBanned(true);
+		assertTrue(other.takeDirty());
+		assertFalse(other.isDirty());
+		other.setPassword("newPass");
+		assertTrue(other.isDirty());
+	}
 }
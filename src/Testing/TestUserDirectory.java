@@ -0,0 +1,58 @@
+package Testing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+import Common.User.User;
+import Common.User.UserView;
+import ServerApp.UserDirectory.UserDirectory;
+
+class TestUserDirectory {
+
+	@Test
+	void testPrefixSearchAndPaging() {
+		ConcurrentHashMap<Integer, User> users = new ConcurrentHashMap<>();
+		for (String name : List.of("alice", "Albert", "bob", "alfred", "carol", "al")) {
+			User user = new User(name, "pass");
+			users.put(user.getUserID(), user);
+		}
+		UserDirectory directory = new UserDirectory(users);
+		assertEquals(6, directory.size());
+
+		// Names starting with "al" in name order, two at a time
+		List<String> names = new ArrayList<>();
+		UserDirectory.Page page = directory.query("AL", null, 2);
+		int pages = 1;
+		while (true) {
+			for (UserView view : page.users()) {
+				names.add(view.username());
+			}
+			if (page.next() == null) {
+				break;
+			}
+			page = directory.query("AL", page.next(), 2);
+			pages++;
+		}
+		assertEquals(List.of("al", "Albert", "alfred", "alice"), names);
+		assertEquals(2, pages);
+		assertEquals(6, directory.query("", null, 100).users().size());
+		assertTrue(directory.query("zed", null, 10).users().isEmpty());
+	}
+
+	@Test
+	void testFindByNameAndRemove() {
+		ConcurrentHashMap<Integer, User> users = new ConcurrentHashMap<>();
+		User bob = new User("Bob", "pass");
+		users.put(bob.getUserID(), bob);
+		UserDirectory directory = new UserDirectory(users);
+		assertEquals(List.of(bob), directory.findByName("bob"));
+		assertTrue(directory.findByName("bo").isEmpty()); // whole names only
+		directory.remove(bob);
+		assertTrue(directory.findByName("Bob").isEmpty());
+	}
+}